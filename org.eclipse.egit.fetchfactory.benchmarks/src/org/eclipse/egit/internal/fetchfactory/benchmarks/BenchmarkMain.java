@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.benchmarks;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler and prints the throughput and
+ * allocation per map file entry.
+ * <p>
+ * The arguments are JMH command line options. Unless other benchmarks are
+ * selected, {@link FetchScriptBenchmark} is run.
+ * </p>
+ */
+public class BenchmarkMain {
+
+	private static final String ALLOCATION = "gc.alloc.rate.norm"; //$NON-NLS-1$
+
+	/**
+	 * Runs the benchmarks.
+	 * 
+	 * @param args
+	 *            the JMH command line options
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final CommandLineOptions commandLine = new CommandLineOptions(args);
+		final OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty())
+			builder.include(FetchScriptBenchmark.class.getSimpleName());
+		final Options options = builder.addProfiler(GCProfiler.class).build();
+		final Collection<RunResult> results = new Runner(options).run();
+
+		System.out.println();
+		System.out.println(String.format("%-60s %15s %15s", //$NON-NLS-1$
+				"Benchmark (per entry)", "entries/s", "bytes/entry")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		for (final RunResult result : results) {
+			final String entries = result.getParams().getParam("entries"); //$NON-NLS-1$
+			if (entries == null)
+				continue;
+			final int count = Integer.parseInt(entries);
+			final Result primary = result.getPrimaryResult();
+			double allocation = Double.NaN;
+			for (final Map.Entry<String, Result> secondary : result
+					.getSecondaryResults().entrySet()) {
+				if (secondary.getKey().endsWith(ALLOCATION))
+					allocation = secondary.getValue().getScore();
+			}
+			System.out.println(String.format("%-60s %15.0f %15.1f", //$NON-NLS-1$
+					describe(result), primary.getScore() * count, allocation
+							/ count));
+		}
+	}
+
+	private static String describe(RunResult result) {
+		final StringBuilder description = new StringBuilder(result.getParams()
+				.getBenchmark());
+		description.delete(0, description.lastIndexOf(".") + 1); //$NON-NLS-1$
+		for (final String key : result.getParams().getParamsKeys()) {
+			description.append(' ').append(key).append('=').append(
+					result.getParams().getParam(key));
+		}
+		return description.toString();
+	}
+}
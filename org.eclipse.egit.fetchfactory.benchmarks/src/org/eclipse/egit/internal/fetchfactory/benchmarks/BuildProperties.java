@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.benchmarks;
+
+import java.lang.reflect.Field;
+import java.util.Properties;
+
+import org.eclipse.pde.internal.build.AbstractScriptGenerator;
+
+/**
+ * Sets the build properties PDE Build passes to the fetch factory.
+ * <p>
+ * <code>AbstractScriptGenerator.setStaticAntProperties</code> is public in
+ * PDE Build 3.6 but protected in the later release the benchmarks are
+ * compiled against. Its signature can't even be looked up reflectively
+ * without p2 on the class path, so the field it sets is set directly (the
+ * fetch factory only reads the properties).
+ * </p>
+ */
+final class BuildProperties {
+
+	/**
+	 * Sets the build properties.
+	 * 
+	 * @param properties
+	 *            the properties
+	 */
+	static void set(Properties properties) {
+		try {
+			final Field field = AbstractScriptGenerator.class
+					.getDeclaredField("immutableAntProperties"); //$NON-NLS-1$
+			field.setAccessible(true);
+			field.set(null, properties);
+		} catch (final Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private BuildProperties() {
+	}
+}
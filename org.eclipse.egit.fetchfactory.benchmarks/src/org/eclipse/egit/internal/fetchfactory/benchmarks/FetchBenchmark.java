@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DefaultLogger;
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.egit.internal.fetchfactory.GITFetchTaskFactory;
+import org.eclipse.pde.build.IFetchFactory;
+import org.eclipse.pde.internal.build.ant.AntScript;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Fetches the elements of a generated {@link Fixture} with the fetch script of
+ * {@link GITFetchTaskFactory} and reports the cold-cache and warm-cache fetch
+ * times.
+ * <p>
+ * The arguments are <code>name=value</code> pairs. The following names
+ * configure the benchmark, all others are passed as build properties to the
+ * fetch factory and to the fetch script (e.g. <code>gitFetchMode=export</code>
+ * or <code>gitFetchThreads=4</code>):
+ * <ul>
+ * <li><code>dir</code> - the working directory (defaults to
+ * <code>target/fetch-benchmark</code>)</li>
+ * <li><code>repositories</code>, <code>commits</code>, <code>tags</code>,
+ * <code>bundles</code> (per repository), <code>files</code> (per bundle),
+ * <code>fileSize</code> - the size of the fixture</li>
+ * <li><code>coldRuns</code>, <code>warmRuns</code> - the number of fetches
+ * with an empty fetch cache and with the fetch cache of the previous run</li>
+ * </ul>
+ * Every run starts with an empty build directory. The fetch script is run
+ * within this VM by Ant. The Ant tasks of the fetch factory bundle are
+ * defined as declared in its <code>plugin.xml</code> (expected as resource
+ * <code>fetchfactory/plugin.xml</code>), i.e. all engines and options are
+ * supported.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+public class FetchBenchmark {
+
+	private static final String TARGET_FETCH = "fetch.element"; //$NON-NLS-1$
+
+	private static final String PLUGIN_XML = "/fetchfactory/plugin.xml"; //$NON-NLS-1$
+
+	private static final String[] PARAMETERS = { "dir", "repositories", //$NON-NLS-1$ //$NON-NLS-2$
+			"commits", "tags", "bundles", "files", "fileSize", "coldRuns", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+			"warmRuns" }; //$NON-NLS-1$
+
+	private final Properties parameters = new Properties();
+
+	private final Properties buildProperties = new Properties();
+
+	private final File dir;
+
+	private final File cache;
+
+	private final File build;
+
+	private final File script;
+
+	private final Map<String, Class<?>> tasks;
+
+	/**
+	 * Creates a new benchmark.
+	 * 
+	 * @param args
+	 *            the parameters and build properties (<code>name=value</code>)
+	 * @throws Exception
+	 */
+	FetchBenchmark(String[] args) throws Exception {
+		for (int i = 0; i < args.length; i++) {
+			final int separator = args[i].indexOf('=');
+			if (separator < 1)
+				throw new IllegalArgumentException("not a name=value pair: " //$NON-NLS-1$
+						+ args[i]);
+			final String name = args[i].substring(0, separator);
+			final String value = args[i].substring(separator + 1);
+			if (Arrays.asList(PARAMETERS).contains(name))
+				parameters.setProperty(name, value);
+			else
+				buildProperties.setProperty(name, value);
+		}
+		dir = new File(parameters.getProperty("dir", "target/fetch-benchmark")) //$NON-NLS-1$ //$NON-NLS-2$
+				.getAbsoluteFile();
+		cache = new File(dir, "cache"); //$NON-NLS-1$
+		build = new File(dir, "build"); //$NON-NLS-1$
+		script = new File(dir, "fetch.xml"); //$NON-NLS-1$
+		buildProperties.setProperty(
+				GITFetchTaskFactory.PROP_FETCH_CACHE_LOCATION, cache
+						.getAbsolutePath());
+		tasks = loadTasks();
+	}
+
+	private static long[] count(File file, long[] counts) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				count(children[i], counts);
+			}
+		} else if (file.isFile()) {
+			counts[0]++;
+			counts[1] += file.length();
+		}
+		return counts;
+	}
+
+	private static void delete(File file) throws IOException {
+		// don't follow symbolic links (e.g. of linked elements)
+		if (!file.getCanonicalFile().equals(file.getAbsoluteFile())) {
+			if (!file.delete())
+				throw new IOException("unable to delete " + file); //$NON-NLS-1$
+			return;
+		}
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				delete(children[i]);
+			}
+		}
+		if (file.exists() && !file.delete())
+			throw new IOException("unable to delete " + file); //$NON-NLS-1$
+	}
+
+	/**
+	 * Reads the Ant tasks contributed by the fetch factory bundle
+	 * (<code>org.eclipse.ant.core.antTasks</code>).
+	 * 
+	 * @return the task classes by name
+	 * @throws Exception
+	 */
+	private static Map<String, Class<?>> loadTasks() throws Exception {
+		final InputStream in = FetchBenchmark.class
+				.getResourceAsStream(PLUGIN_XML);
+		if (in == null)
+			throw new IOException("resource not found: " + PLUGIN_XML); //$NON-NLS-1$
+		final NodeList antTasks;
+		try {
+			antTasks = DocumentBuilderFactory.newInstance()
+					.newDocumentBuilder().parse(in).getElementsByTagName(
+							"antTask"); //$NON-NLS-1$
+		} finally {
+			in.close();
+		}
+		final Map<String, Class<?>> tasks = new LinkedHashMap<String, Class<?>>();
+		for (int i = 0; i < antTasks.getLength(); i++) {
+			final Element antTask = (Element) antTasks.item(i);
+			tasks.put(antTask.getAttribute("name"), Class.forName(antTask //$NON-NLS-1$
+					.getAttribute("class"))); //$NON-NLS-1$
+		}
+		return tasks;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            the parameters and build properties (<code>name=value</code>)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		try {
+			new FetchBenchmark(args).run();
+		} catch (final BuildException e) {
+			System.err.println("The fetch failed: " + e.getMessage()); //$NON-NLS-1$
+			System.exit(1);
+		}
+	}
+
+	private static void print(String kind, long[] millis) {
+		if (millis.length == 0)
+			return;
+		final long[] sorted = millis.clone();
+		Arrays.sort(sorted);
+		long sum = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			sum += sorted[i];
+		}
+		System.out.println(String.format(
+				"%-5s min %8d ms, median %8d ms, mean %8d ms", kind, sorted[0], //$NON-NLS-1$
+				sorted[sorted.length / 2], sum / sorted.length));
+	}
+
+	private long fetch() throws IOException {
+		delete(build);
+		build.mkdirs();
+
+		final Project project = new Project();
+		final DefaultLogger logger = new DefaultLogger();
+		logger.setMessageOutputLevel(Project.MSG_WARN);
+		logger.setOutputPrintStream(System.out);
+		logger.setErrorPrintStream(System.err);
+		project.addBuildListener(logger);
+		project.setUserProperty(MagicNames.ANT_FILE, script.getAbsolutePath());
+		for (final Iterator i = buildProperties.entrySet().iterator(); i
+				.hasNext();) {
+			final Map.Entry property = (Map.Entry) i.next();
+			project.setUserProperty((String) property.getKey(),
+					(String) property.getValue());
+		}
+		project.init();
+		for (final Map.Entry<String, Class<?>> task : tasks.entrySet()) {
+			project.addTaskDefinition(task.getKey(), task.getValue());
+		}
+		ProjectHelper.configureProject(project, script);
+
+		final long start = System.nanoTime();
+		project.executeTarget(TARGET_FETCH);
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private void generateScript(File map) throws IOException, CoreException {
+		BuildProperties.set(buildProperties);
+		final GITFetchTaskFactory factory = new GITFetchTaskFactory();
+		final IPath plugins = new Path(build.getAbsolutePath()).append("plugins"); //$NON-NLS-1$
+		final AntScript fetchScript = new AntScript(new FileOutputStream(
+				script));
+		try {
+			fetchScript.printProjectDeclaration("Fetch", TARGET_FETCH, "."); //$NON-NLS-1$ //$NON-NLS-2$
+			fetchScript.printTargetDeclaration(TARGET_FETCH, null, null, null,
+					null);
+			final BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(map), "UTF-8")); //$NON-NLS-1$
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// plugin@<id>=GIT,<arguments>
+					final int at = line.indexOf('@');
+					final int equals = line.indexOf('=');
+					final int comma = line.indexOf(',', equals);
+					if (at < 0 || equals < at || comma < equals)
+						continue;
+					final String id = line.substring(at + 1, equals);
+					final Map entryInfos = new HashMap();
+					entryInfos.put(IFetchFactory.KEY_ELEMENT_TYPE, line
+							.substring(0, at));
+					entryInfos.put(IFetchFactory.KEY_ELEMENT_NAME, id);
+					factory.parseMapFileEntry(line.substring(comma + 1), null,
+							entryInfos);
+					factory.generateRetrieveElementCall(entryInfos, plugins
+							.append(id), fetchScript);
+				}
+			} finally {
+				reader.close();
+			}
+			fetchScript.printTargetEnd();
+			factory.addTargets(fetchScript);
+			fetchScript.printProjectEnd();
+		} finally {
+			fetchScript.close();
+		}
+	}
+
+	private int getParameter(String name, int defaultValue) {
+		return Integer.parseInt(parameters.getProperty(name, String
+				.valueOf(defaultValue)));
+	}
+
+	/**
+	 * Generates the fixture and the fetch script and runs the fetches.
+	 * 
+	 * @return the cold-cache and the warm-cache fetch times (ms)
+	 * @throws Exception
+	 * @throws BuildException
+	 *             if a fetch failed
+	 */
+	long[][] run() throws Exception {
+		final Fixture fixture = new Fixture(new File(dir, "repositories"), //$NON-NLS-1$
+				getParameter("repositories", 10), getParameter("commits", 100), //$NON-NLS-1$ //$NON-NLS-2$
+				getParameter("tags", 10), getParameter("bundles", 10), //$NON-NLS-1$ //$NON-NLS-2$
+				getParameter("files", 50), getParameter("fileSize", 2048)); //$NON-NLS-1$ //$NON-NLS-2$
+		final long start = System.nanoTime();
+		if (fixture.generate())
+			System.out.println("Generated the fixture in " //$NON-NLS-1$
+					+ (System.nanoTime() - start) / 1000000 + " ms"); //$NON-NLS-1$
+		generateScript(fixture.getMapFile());
+		System.out.println("Fetching " + fixture.getElementCount() //$NON-NLS-1$
+				+ " elements of " + fixture.getMapFile() + " with " //$NON-NLS-1$ //$NON-NLS-2$
+				+ buildProperties);
+
+		final long[] cold = new long[getParameter("coldRuns", 3)]; //$NON-NLS-1$
+		final long[] warm = new long[getParameter("warmRuns", 3)]; //$NON-NLS-1$
+		for (int i = 0; i < cold.length + warm.length; i++) {
+			final boolean isCold = i < cold.length;
+			if (isCold)
+				delete(cache);
+			final long millis = fetch();
+			if (isCold)
+				cold[i] = millis;
+			else
+				warm[i - cold.length] = millis;
+			final long[] copied = count(build, new long[2]);
+			System.out.println(String.format(
+					"%-5s %3d %8d ms, %d files (%d bytes)", isCold ? "cold" //$NON-NLS-1$ //$NON-NLS-2$
+							: "warm", Integer.valueOf(i + 1), //$NON-NLS-1$
+					Long.valueOf(millis), Long.valueOf(copied[0]), Long
+							.valueOf(copied[1])));
+		}
+		print("cold", cold); //$NON-NLS-1$
+		print("warm", warm); //$NON-NLS-1$
+		return new long[][] { cold, warm };
+	}
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.egit.internal.fetchfactory.GITFetchTaskFactory;
+import org.eclipse.pde.build.IFetchFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the generation of a fetch script for a map file with a
+ * configurable number of entries.
+ * <p>
+ * The map file is generated: the elements are spread evenly (and grouped)
+ * across <code>repositories</code> repositories, every repository uses
+ * <code>tags</code> tags. The script is written to a {@link NullAntScript}.
+ * Every operation handles all entries of the map file, see
+ * {@link BenchmarkMain} for the results per entry.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@SuppressWarnings("restriction")
+public class FetchScriptBenchmark {
+
+	/**
+	 * The number of map file entries.
+	 */
+	@Param({ "1000", "10000", "50000" })
+	public int entries;
+
+	/**
+	 * The number of repositories the entries are spread across.
+	 */
+	@Param({ "100" })
+	public int repositories;
+
+	/**
+	 * The number of tags used per repository.
+	 */
+	@Param({ "3" })
+	public int tags;
+
+	/**
+	 * The fetch mode (<code>gitFetchMode</code>).
+	 */
+	@Param({ "checkout", "export" })
+	public String mode;
+
+	private String[] names;
+
+	private String[] mapEntries;
+
+	private IPath[] destinations;
+
+	private List<Map> entryInfos;
+
+	private GITFetchTaskFactory factory;
+
+	private NullAntScript script;
+
+	private static Map newEntryInfos(String name) {
+		final Map entryInfos = new HashMap();
+		entryInfos.put(IFetchFactory.KEY_ELEMENT_TYPE,
+				IFetchFactory.ELEMENT_TYPE_PLUGIN);
+		entryInfos.put(IFetchFactory.KEY_ELEMENT_NAME, name);
+		return entryInfos;
+	}
+
+	/**
+	 * Generates the map file and parses it once for the benchmarks which
+	 * start with parsed entries.
+	 * 
+	 * @throws CoreException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws CoreException {
+		final Properties properties = new Properties();
+		properties.setProperty("gitFetchMode", mode); //$NON-NLS-1$
+		BuildProperties.set(properties);
+
+		names = new String[entries];
+		mapEntries = new String[entries];
+		destinations = new IPath[entries];
+		final IPath plugins = new Path("/build/plugins"); //$NON-NLS-1$
+		for (int i = 0; i < entries; i++) {
+			final int repository = (int) ((long) i * repositories / entries);
+			names[i] = "org.example.bundle" + i; //$NON-NLS-1$
+			mapEntries[i] = "tag=v" + (i % tags) //$NON-NLS-1$
+					+ ",repo=git://git.example.org/project" + repository //$NON-NLS-1$
+					+ ".git,path=bundles/" + names[i]; //$NON-NLS-1$
+			destinations[i] = plugins.append(names[i]);
+		}
+
+		entryInfos = new ArrayList<Map>(entries);
+		final GITFetchTaskFactory parser = new GITFetchTaskFactory();
+		for (int i = 0; i < entries; i++) {
+			final Map infos = newEntryInfos(names[i]);
+			parser.parseMapFileEntry(mapEntries[i], null, infos);
+			entryInfos.add(infos);
+		}
+	}
+
+	/**
+	 * Generates the element calls of all entries so that
+	 * {@link #addTargets()} only measures the common targets.
+	 */
+	@Setup(Level.Invocation)
+	public void setUpScript() {
+		factory = new GITFetchTaskFactory();
+		script = new NullAntScript();
+		for (int i = 0; i < entries; i++) {
+			factory.generateRetrieveElementCall(entryInfos.get(i),
+					destinations[i], script);
+		}
+	}
+
+	/**
+	 * Measures the common targets and the per repository properties printed
+	 * at the end of a script.
+	 * 
+	 * @return the length of the script
+	 */
+	@Benchmark
+	public long addTargets() {
+		factory.addTargets(script);
+		return script.getLength();
+	}
+
+	/**
+	 * Measures a complete script: parsing the entries, generating the element
+	 * calls and the common targets.
+	 * 
+	 * @return the length of the script
+	 * @throws CoreException
+	 */
+	@Benchmark
+	public long generateFetchScript() throws CoreException {
+		final GITFetchTaskFactory generator = new GITFetchTaskFactory();
+		final NullAntScript fetchScript = new NullAntScript();
+		for (int i = 0; i < entries; i++) {
+			final Map infos = newEntryInfos(names[i]);
+			generator.parseMapFileEntry(mapEntries[i], null, infos);
+			generator.generateRetrieveElementCall(infos, destinations[i],
+					fetchScript);
+		}
+		generator.addTargets(fetchScript);
+		return fetchScript.getLength();
+	}
+
+	/**
+	 * Measures the element calls of parsed entries (including the common
+	 * targets, which complete the plan of the script).
+	 * 
+	 * @return the length of the script
+	 */
+	@Benchmark
+	public long generateRetrieveElementCall() {
+		final GITFetchTaskFactory generator = new GITFetchTaskFactory();
+		final NullAntScript fetchScript = new NullAntScript();
+		for (int i = 0; i < entries; i++) {
+			generator.generateRetrieveElementCall(entryInfos.get(i),
+					destinations[i], fetchScript);
+		}
+		generator.addTargets(fetchScript);
+		return fetchScript.getLength();
+	}
+
+	/**
+	 * Measures parsing the map file entries.
+	 * 
+	 * @param blackhole
+	 * @throws CoreException
+	 */
+	@Benchmark
+	public void parseMapFileEntry(Blackhole blackhole) throws CoreException {
+		final GITFetchTaskFactory parser = new GITFetchTaskFactory();
+		for (int i = 0; i < entries; i++) {
+			final Map infos = newEntryInfos(names[i]);
+			parser.parseMapFileEntry(mapEntries[i], null, infos);
+			blackhole.consume(infos);
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Local Git repositories and a matching map file to fetch from.
+ * <p>
+ * Every repository (<code>project&lt;r&gt;.git</code>, bare) has a single
+ * branch with <code>commits</code> commits. The first commit adds
+ * <code>bundles</code> bundles (<code>bundles/&lt;id&gt;</code>) with
+ * <code>files</code> files of <code>fileSize</code> bytes each, every further
+ * commit changes one file of every bundle. The commits are spread over
+ * <code>tags</code> tags (<code>v1</code> ... <code>v&lt;tags&gt;</code>), the
+ * map file references the newest tag of every repository.
+ * </p>
+ * <p>
+ * The repositories are written with <code>git fast-import</code> using fixed
+ * dates and seeded content, i.e. they are identical (same object ids) for the
+ * same parameters. They are only generated again if the parameters change.
+ * </p>
+ */
+class Fixture {
+
+	private static final String FIXTURE_PROPERTIES = "fixture.properties"; //$NON-NLS-1$
+
+	private static final long EPOCH = 1262304000L;
+
+	private final File dir;
+
+	private final Properties parameters = new Properties();
+
+	private final int repositories;
+
+	private final int commits;
+
+	private final int tags;
+
+	private final int bundles;
+
+	private final int files;
+
+	private final int fileSize;
+
+	/**
+	 * Creates a new fixture.
+	 * 
+	 * @param dir
+	 *            the directory of the repositories and the map file
+	 * @param repositories
+	 * @param commits
+	 * @param tags
+	 * @param bundles
+	 *            the number of bundles per repository
+	 * @param files
+	 *            the number of files per bundle
+	 * @param fileSize
+	 */
+	Fixture(File dir, int repositories, int commits, int tags, int bundles,
+			int files, int fileSize) {
+		if (repositories < 1 || commits < 1 || tags < 1 || tags > commits
+				|| bundles < 1 || files < 1 || fileSize < 1)
+			throw new IllegalArgumentException(
+					"a fixture requires at least one repository, commit, bundle and file and between one tag and one tag per commit"); //$NON-NLS-1$
+		this.dir = dir;
+		this.repositories = repositories;
+		this.commits = commits;
+		this.tags = tags;
+		this.bundles = bundles;
+		this.files = files;
+		this.fileSize = fileSize;
+		parameters.setProperty("repositories", String.valueOf(repositories)); //$NON-NLS-1$
+		parameters.setProperty("commits", String.valueOf(commits)); //$NON-NLS-1$
+		parameters.setProperty("tags", String.valueOf(tags)); //$NON-NLS-1$
+		parameters.setProperty("bundles", String.valueOf(bundles)); //$NON-NLS-1$
+		parameters.setProperty("files", String.valueOf(files)); //$NON-NLS-1$
+		parameters.setProperty("fileSize", String.valueOf(fileSize)); //$NON-NLS-1$
+	}
+
+	private static void data(OutputStream out, byte[] data) throws IOException {
+		out.write(("data " + data.length + "\n").getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		out.write(data);
+		out.write('\n');
+	}
+
+	private static void delete(File file) throws IOException {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				delete(children[i]);
+			}
+		}
+		if (file.exists() && !file.delete())
+			throw new IOException("unable to delete " + file); //$NON-NLS-1$
+	}
+
+	private static Process git(File dir, String... args) throws IOException {
+		final String[] command = new String[args.length + 1];
+		command[0] = "git"; //$NON-NLS-1$
+		System.arraycopy(args, 0, command, 1, args.length);
+		return new ProcessBuilder(command).directory(dir).redirectErrorStream(
+				true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+	}
+
+	private static void waitFor(Process process, File dir, String command)
+			throws IOException, InterruptedException {
+		final int exitValue = process.waitFor();
+		if (exitValue != 0)
+			throw new IOException("git " + command + " failed in " + dir //$NON-NLS-1$ //$NON-NLS-2$
+					+ " (" + exitValue + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static void write(File file, String content) throws IOException {
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8"); //$NON-NLS-1$
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private byte[] content(int repository, int bundle, int file, int commit) {
+		final Random random = new Random((((long) repository * 1000003 + bundle)
+				* 1000003 + file) * 1000003 + commit);
+		final byte[] content = new byte[fileSize];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + random.nextInt(26));
+		}
+		return content;
+	}
+
+	/**
+	 * Generates the repositories and the map file unless they exist for the
+	 * same parameters.
+	 * 
+	 * @return <code>true</code> if the fixture has been generated
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	boolean generate() throws IOException, InterruptedException {
+		final File marker = new File(dir, FIXTURE_PROPERTIES);
+		if (marker.isFile()) {
+			final Properties existing = new Properties();
+			final InputStream in = new FileInputStream(marker);
+			try {
+				existing.load(in);
+			} finally {
+				in.close();
+			}
+			if (existing.equals(parameters))
+				return false;
+		}
+		delete(dir);
+		dir.mkdirs();
+		for (int r = 0; r < repositories; r++) {
+			generateRepository(r);
+		}
+		writeMap();
+		final OutputStream out = new FileOutputStream(marker);
+		try {
+			parameters.store(out, null);
+		} finally {
+			out.close();
+		}
+		return true;
+	}
+
+	private void generateRepository(int repository) throws IOException,
+			InterruptedException {
+		final File repo = getRepository(repository);
+		repo.mkdirs();
+		final Process init = git(repo, "init", "--quiet", "--bare"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		init.getOutputStream().close();
+		waitFor(init, repo, "init"); //$NON-NLS-1$
+
+		final Process process = git(repo, "fast-import", "--quiet"); //$NON-NLS-1$ //$NON-NLS-2$
+		final OutputStream out = new BufferedOutputStream(process
+				.getOutputStream(), 65536);
+		try {
+			int tag = 0;
+			for (int c = 1; c <= commits; c++) {
+				out.write(("commit refs/heads/master\nmark :" + c //$NON-NLS-1$
+						+ "\ncommitter Benchmark <benchmark@example.org> " //$NON-NLS-1$
+						+ (EPOCH + c * 60L) + " +0000\n").getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+				data(out, ("commit " + c).getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+				for (int b = 0; b < bundles; b++) {
+					final String path = "bundles/" + getElementId(repository, b); //$NON-NLS-1$
+					if (c == 1) {
+						out.write(("M 100644 inline " + path //$NON-NLS-1$
+								+ "/META-INF/MANIFEST.MF\n").getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+						data(out, ("Manifest-Version: 1.0\nBundle-ManifestVersion: 2\nBundle-SymbolicName: " //$NON-NLS-1$
+								+ getElementId(repository, b)
+								+ "\nBundle-Version: 1.0.0.qualifier\n").getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					for (int f = 0; f < files; f++) {
+						if (c > 1 && f != c % files)
+							continue;
+						out.write(("M 100644 inline " + path + "/file" + f //$NON-NLS-1$ //$NON-NLS-2$
+								+ ".txt\n").getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+						data(out, content(repository, b, f, c));
+					}
+				}
+				out.write('\n');
+				// the tags are spread evenly, the last one is on the last commit
+				if ((long) c * tags >= (long) (tag + 1) * commits) {
+					tag++;
+					out.write(("reset refs/tags/v" + tag + "\nfrom :" + c //$NON-NLS-1$ //$NON-NLS-2$
+							+ "\n\n").getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		} finally {
+			out.close();
+		}
+		waitFor(process, repo, "fast-import"); //$NON-NLS-1$
+
+		// the default branch of git init may differ
+		final Process head = git(repo, "symbolic-ref", "HEAD", //$NON-NLS-1$ //$NON-NLS-2$
+				"refs/heads/master"); //$NON-NLS-1$
+		head.getOutputStream().close();
+		waitFor(head, repo, "symbolic-ref"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the number of bundles (elements) of the map file.
+	 * 
+	 * @return the number of elements
+	 */
+	int getElementCount() {
+		return repositories * bundles;
+	}
+
+	private String getElementId(int repository, int bundle) {
+		return "org.example.project" + repository + ".bundle" + bundle; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns the map file.
+	 * 
+	 * @return the map file
+	 */
+	File getMapFile() {
+		return new File(dir, "fixture.map"); //$NON-NLS-1$
+	}
+
+	private File getRepository(int repository) {
+		return new File(dir, "project" + repository + ".git"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void writeMap() throws IOException {
+		final StringBuilder map = new StringBuilder();
+		for (int r = 0; r < repositories; r++) {
+			final String url = "file://" //$NON-NLS-1$
+					+ getRepository(r).getAbsolutePath().replace('\\', '/');
+			for (int b = 0; b < bundles; b++) {
+				final String id = getElementId(r, b);
+				map.append("plugin@").append(id).append("=GIT,tag=v") //$NON-NLS-1$ //$NON-NLS-2$
+						.append(tags).append(",repo=").append(url).append( //$NON-NLS-1$
+								",path=bundles/").append(id).append('\n'); //$NON-NLS-1$
+			}
+		}
+		write(getMapFile(), map.toString());
+	}
+}
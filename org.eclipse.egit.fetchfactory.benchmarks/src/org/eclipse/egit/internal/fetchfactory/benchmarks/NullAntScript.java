@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.benchmarks;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.pde.build.IAntScript;
+
+/**
+ * An Ant script which doesn't write anything. It only counts the characters
+ * it would have printed, i.e. a benchmark measures the work of the fetch
+ * factory and not the formatting and I/O of PDE Build.
+ */
+class NullAntScript implements IAntScript {
+
+	private long length;
+
+	private int indent;
+
+	private void count(String value) {
+		if (value != null)
+			length += value.length();
+	}
+
+	private void count(Map attributes) {
+		if (attributes == null)
+			return;
+		for (final Iterator i = attributes.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry attribute = (Map.Entry) i.next();
+			count((String) attribute.getKey());
+			count((String) attribute.getValue());
+		}
+	}
+
+	public void decrementIdent() {
+		indent--;
+	}
+
+	/**
+	 * Returns the number of characters the script would have printed.
+	 * 
+	 * @return the length
+	 */
+	long getLength() {
+		return length;
+	}
+
+	public void incrementIdent() {
+		indent++;
+	}
+
+	public void print(String string) {
+		count(string);
+	}
+
+	public void printAntCallTask(String target, boolean inheritAll, Map params) {
+		count(target);
+		count(params);
+	}
+
+	public void printAttribute(String name, String value, boolean mandatory) {
+		count(name);
+		count(value);
+	}
+
+	public void printComment(String comment) {
+		count(comment);
+	}
+
+	public void printEchoTask(String file, String message, String level) {
+		count(file);
+		count(message);
+		count(level);
+	}
+
+	public void printElement(String tag, Map attributes) {
+		count(tag);
+		count(attributes);
+	}
+
+	// not in PDE Build 3.6 (the fetch factory prints its macro definitions
+	// with printStartTag)
+	public void printEndMacroDef() {
+		count("macrodef"); //$NON-NLS-1$
+	}
+
+	public void printEndTag(String tag) {
+		count(tag);
+	}
+
+	public void printMacroDef(String macroName, List attributes) {
+		count(macroName);
+		if (attributes != null)
+			for (final Iterator i = attributes.iterator(); i.hasNext();)
+				count((String) i.next());
+	}
+
+	public void println() {
+		length += indent;
+	}
+
+	public void println(String string) {
+		length += indent;
+		count(string);
+	}
+
+	public void printStartTag(String tag) {
+		count(tag);
+	}
+
+	public void printStartTag(String tag, Map attributes) {
+		count(tag);
+		count(attributes);
+	}
+
+	public void printTabs() {
+		length += indent;
+	}
+
+	public void printTargetDeclaration(String name, String depends,
+			String ifClause, String unlessClause, String description) {
+		count(name);
+		count(depends);
+		count(ifClause);
+		count(unlessClause);
+		count(description);
+	}
+
+	public void printTargetEnd() {
+		length += indent;
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how the fetch script scales with the number of elements.
+ * <p>
+ * For every size a fixture of a single repository with as many bundles is
+ * fetched by {@link FetchBenchmark}. The arguments are
+ * <code>name=value</code> pairs. The following names configure the
+ * measurement, all others are passed on to {@link FetchBenchmark} and
+ * override its defaults (<code>commits=2</code>, <code>tags=1</code>,
+ * <code>files=2</code>, <code>fileSize=256</code>, <code>coldRuns=1</code>,
+ * <code>warmRuns=0</code>):
+ * <ul>
+ * <li><code>dir</code> - the working directory (defaults to
+ * <code>target/scaling-benchmark</code>), every size uses a sub directory</li>
+ * <li><code>sizes</code> - the comma separated numbers of elements (defaults
+ * to <code>100,500,1000,2000,5000</code>)</li>
+ * <li><code>limit</code> - the time (s) after which the larger sizes are
+ * not measured anymore (defaults to no limit)</li>
+ * </ul>
+ * The median of the cold-cache fetch times is reported.
+ * </p>
+ */
+public class ScalingBenchmark {
+
+	/**
+	 * Runs the measurement.
+	 * 
+	 * @param args
+	 *            the parameters and build properties (<code>name=value</code>)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> arguments = new LinkedHashMap<String, String>();
+		arguments.put("commits", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+		arguments.put("tags", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+		arguments.put("files", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+		arguments.put("fileSize", "256"); //$NON-NLS-1$ //$NON-NLS-2$
+		arguments.put("coldRuns", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+		arguments.put("warmRuns", "0"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int i = 0; i < args.length; i++) {
+			final int separator = args[i].indexOf('=');
+			if (separator < 1)
+				throw new IllegalArgumentException("not a name=value pair: " //$NON-NLS-1$
+						+ args[i]);
+			arguments.put(args[i].substring(0, separator), args[i]
+					.substring(separator + 1));
+		}
+		final File dir = new File(remove(arguments, "dir", //$NON-NLS-1$
+				"target/scaling-benchmark")).getAbsoluteFile(); //$NON-NLS-1$
+		final String[] sizes = remove(arguments, "sizes", //$NON-NLS-1$
+				"100,500,1000,2000,5000").split(","); //$NON-NLS-1$ //$NON-NLS-2$
+		final long limit = Long.parseLong(remove(arguments, "limit", //$NON-NLS-1$
+				String.valueOf(Long.MAX_VALUE / 1000))) * 1000;
+
+		final long[] millis = new long[sizes.length];
+		boolean exceeded = false;
+		for (int size = 0; size < sizes.length; size++) {
+			if (exceeded) {
+				millis[size] = -1;
+				continue;
+			}
+			final List<String> fetchArgs = new ArrayList<String>();
+			for (final Map.Entry<String, String> argument : arguments.entrySet()) {
+				fetchArgs.add(argument.getKey() + '=' + argument.getValue());
+			}
+			fetchArgs.add("dir=" + new File(dir, sizes[size].trim())); //$NON-NLS-1$
+			fetchArgs.add("repositories=1"); //$NON-NLS-1$
+			fetchArgs.add("bundles=" + sizes[size].trim()); //$NON-NLS-1$
+			System.out.println("--- " + sizes[size].trim() + " elements"); //$NON-NLS-1$ //$NON-NLS-2$
+			final long[] cold = new FetchBenchmark(fetchArgs
+					.toArray(new String[fetchArgs.size()])).run()[0];
+			Arrays.sort(cold);
+			millis[size] = cold[cold.length / 2];
+			exceeded = millis[size] > limit;
+		}
+
+		System.out.println();
+		System.out.println(String.format("%8s %12s", "elements", "cold")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		for (int size = 0; size < sizes.length; size++) {
+			System.out.println(String.format("%8s", sizes[size].trim()) //$NON-NLS-1$
+					+ (millis[size] < 0 ? String.format(" %12s", "-") //$NON-NLS-1$ //$NON-NLS-2$
+							: String.format(" %9d ms", Long //$NON-NLS-1$
+									.valueOf(millis[size]))));
+		}
+	}
+
+	private static String remove(Map<String, String> arguments, String name,
+			String defaultValue) {
+		final String value = arguments.remove(name);
+		return value != null ? value : defaultValue;
+	}
+}
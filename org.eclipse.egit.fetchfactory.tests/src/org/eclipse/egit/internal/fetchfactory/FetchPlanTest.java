@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.egit.internal.fetchfactory.FetchPlan.PlannedCopy;
+import org.eclipse.egit.internal.fetchfactory.FetchPlan.PlannedRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FetchPlanTest {
+
+	private FetchPlan plan;
+
+	private static PlannedCopy copy(String element) {
+		return new PlannedCopy("copy", Collections.<String, String> emptyMap(), //$NON-NLS-1$
+				null, element, "plugins/" + element); //$NON-NLS-1$
+	}
+
+	@Before
+	public void setUp() {
+		plan = new FetchPlan("1"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testRepositoriesAreGroupedByLocalRepo() {
+		final PlannedRepository a = plan.getRepository("git://host/a.git", //$NON-NLS-1$
+				"/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$
+		final PlannedRepository b = plan.getRepository("git://host/b.git", //$NON-NLS-1$
+				"/cache/b", "b", null, null); //$NON-NLS-1$ //$NON-NLS-2$
+		assertSame(a, plan.getRepository("git://host/a", "/cache/a", "a", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				null, null));
+		assertEquals(Arrays.asList(a, b), new ArrayList<PlannedRepository>(
+				plan.getRepositories()));
+		assertEquals("git://host/a.git", a.getGitRepo()); //$NON-NLS-1$
+		assertEquals("/cache/a", a.getLocalRepo()); //$NON-NLS-1$
+		assertEquals("a", a.getName()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testCloneOptionsOfFirstElement() {
+		final PlannedRepository repository = plan.getRepository(
+				"git://host/a.git", "/cache/a", "a", "1", "blob:none"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		plan.getRepository("git://host/a.git", "/cache/a", "a", null, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				"blob:limit=1m"); //$NON-NLS-1$
+		assertEquals("1", repository.getDepth()); //$NON-NLS-1$
+		assertEquals("blob:none", repository.getFilter()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testPropertiesAreUnique() {
+		final PlannedRepository a = plan.getRepository("git://host/a.git", //$NON-NLS-1$
+				"/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$
+		final PlannedRepository b = plan.getRepository("git://host/b.git", //$NON-NLS-1$
+				"/cache/b", "b", null, null); //$NON-NLS-1$ //$NON-NLS-2$
+		final PlannedRepository other = new FetchPlan("2").getRepository( //$NON-NLS-1$
+				"git://host/a.git", "/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(a.getPreparedProperty().equals(b.getPreparedProperty()));
+		assertFalse(a.getPreparedProperty().equals(
+				other.getPreparedProperty()));
+		assertFalse(a.getCopiesMacro().equals(b.getCopiesMacro()));
+		assertFalse(plan.getPreparedMarkerProperty().equals(
+				new FetchPlan("2").getPreparedMarkerProperty())); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testElementsAreGroupedByTag() {
+		final PlannedRepository repository = plan.getRepository(
+				"git://host/a.git", "/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		repository.addElement("v2", "bundles/a", new String[] { "a" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		repository.addElement("v1", "bundles/b", new String[] { "b" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		repository.addElement("v2", "bundles/c", new String[] { "c" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		repository.addElement("v2", "bundles/a", new String[] { "a" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		repository.addElement("v3", null, new String[] { "d" }); //$NON-NLS-1$ //$NON-NLS-2$
+
+		assertEquals(Arrays.asList("v2", "v1", "v3"), new ArrayList<String>( //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				repository.getTags()));
+		assertEquals(Arrays.asList("bundles/a", "bundles/c"), //$NON-NLS-1$ //$NON-NLS-2$
+				new ArrayList<String>(repository.getPaths("v2"))); //$NON-NLS-1$
+		assertEquals(Arrays.asList("bundles/b"), new ArrayList<String>( //$NON-NLS-1$
+				repository.getPaths("v1"))); //$NON-NLS-1$
+		assertNull(repository.getPaths("v3")); //$NON-NLS-1$
+		assertEquals(5, repository.getElementChecks().size());
+		assertFalse(repository.isRequired());
+
+		assertTrue(repository.getPathsProperty("v2").endsWith(".0")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue(repository.getPathsProperty("v1").endsWith(".1")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue(repository.getWorktreeProperty("v3").endsWith(".2")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testElementWithoutCheckIsRequired() {
+		final PlannedRepository repository = plan.getRepository(
+				"git://host/a.git", "/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		repository.addElement("v1", "", new String[] { "a" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		repository.addElement("v1", "", null); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue(repository.isRequired());
+		assertEquals(1, repository.getElementChecks().size());
+		assertEquals(Collections.singleton(""), repository.getPaths("v1")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testCheckoutOnlyWhenTagChanges() {
+		final PlannedRepository repository = plan.getRepository(
+				"git://host/a.git", "/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		final String first = repository.checkout("v1"); //$NON-NLS-1$
+		repository.setCheckedOut();
+		assertEquals(first, repository.checkout("v1")); //$NON-NLS-1$
+		assertTrue(repository.isCheckedOut());
+
+		final String second = repository.checkout("v2"); //$NON-NLS-1$
+		assertFalse(first.equals(second));
+		assertFalse(repository.isCheckedOut());
+
+		// switching back checks out the tag again
+		assertFalse(repository.checkout("v1").equals(first)); //$NON-NLS-1$
+
+		repository.resetCheckout();
+		assertFalse(repository.isCheckedOut());
+		assertFalse(repository.checkout("v1").equals(first)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testCopiesAreGroupedByTag() {
+		final PlannedRepository repository = plan.getRepository(
+				"git://host/a.git", "/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertTrue(repository.addCopy("v2", copy("a"))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse(repository.addCopy("v1", copy("b"))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse(repository.addCopy("v2", copy("c"))); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final Map<String, List<PlannedCopy>> copies = repository.getCopies();
+		final Iterator<Map.Entry<String, List<PlannedCopy>>> tags = copies
+				.entrySet().iterator();
+		Map.Entry<String, List<PlannedCopy>> tag = tags.next();
+		assertEquals("v2", tag.getKey()); //$NON-NLS-1$
+		assertEquals(2, tag.getValue().size());
+		assertEquals("a", tag.getValue().get(0).element); //$NON-NLS-1$
+		assertEquals("c", tag.getValue().get(1).element); //$NON-NLS-1$
+		tag = tags.next();
+		assertEquals("v1", tag.getKey()); //$NON-NLS-1$
+		assertEquals(1, tag.getValue().size());
+		assertFalse(tags.hasNext());
+	}
+
+	@Test
+	public void testObjectsAreResolvedOnce() {
+		final PlannedRepository repository = plan.getRepository(
+				"git://host/a.git", "/cache/a", "a", null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals("0", repository.addObject("v1", "bundles/a")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals("1", repository.addObject("v2", "bundles/a")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals("0", repository.addObject("v1", "bundles/a")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals("2", repository.addObject("v1", "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals(Arrays.asList("v1:bundles/a", "v2:bundles/a", "v1:"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				new ArrayList<String>(repository.getObjects().keySet()));
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.CoreException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MapFileEntryTest {
+
+	private static final String ELEMENT = "plugin@org.example.bundle"; //$NON-NLS-1$
+
+	private Map<String, String> repoLocations;
+
+	private MapFileEntry parse(String entry) throws CoreException {
+		return MapFileEntry.parse(entry, ELEMENT, repoLocations);
+	}
+
+	private void assertMalformed(String entry) {
+		try {
+			parse(entry);
+			fail("malformed entry accepted: " + entry); //$NON-NLS-1$
+		} catch (final CoreException e) {
+			assertTrue(e.getStatus().getMessage(), e.getStatus().getMessage()
+					.indexOf(ELEMENT) >= 0);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		repoLocations = new HashMap<String, String>();
+	}
+
+	@Test
+	public void testAllArguments() throws Exception {
+		final MapFileEntry entry = parse("tag=v1,repo=git://host/repo.git,path=bundles/a,prebuilt=true,depth=1,filter=blob:none"); //$NON-NLS-1$
+		assertEquals("v1", entry.tag); //$NON-NLS-1$
+		assertEquals("git://host/repo.git", entry.repo); //$NON-NLS-1$
+		assertEquals("bundles/a", entry.path); //$NON-NLS-1$
+		assertEquals("true", entry.prebuilt); //$NON-NLS-1$
+		assertEquals("1", entry.depth); //$NON-NLS-1$
+		assertEquals("blob:none", entry.filter); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testOptionalArguments() throws Exception {
+		final MapFileEntry entry = parse("repo=git://host/repo.git"); //$NON-NLS-1$
+		assertNull(entry.tag);
+		assertNull(entry.path);
+		assertNull(entry.prebuilt);
+		assertNull(entry.depth);
+		assertNull(entry.filter);
+	}
+
+	@Test
+	public void testTrailingComma() throws Exception {
+		final MapFileEntry entry = parse("tag=v1,repo=git://host/repo.git,"); //$NON-NLS-1$
+		assertEquals("v1", entry.tag); //$NON-NLS-1$
+		assertEquals("git://host/repo.git", entry.repo); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testWhitespace() throws Exception {
+		final MapFileEntry entry = parse("  tag=v1 ,\trepo=git://host/repo.git , path=bundles/a  "); //$NON-NLS-1$
+		assertEquals("v1", entry.tag); //$NON-NLS-1$
+		assertEquals("git://host/repo.git", entry.repo); //$NON-NLS-1$
+		assertEquals("bundles/a", entry.path); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testEmptyArgument() {
+		assertMalformed("tag=v1,,repo=git://host/repo.git"); //$NON-NLS-1$
+		assertMalformed(",repo=git://host/repo.git"); //$NON-NLS-1$
+		assertMalformed("tag=v1, ,repo=git://host/repo.git"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testArgumentWithoutValue() {
+		assertMalformed("tag,repo=git://host/repo.git"); //$NON-NLS-1$
+		assertMalformed("repo=git://host/repo.git,prebuilt"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testEmptyValue() throws Exception {
+		final MapFileEntry entry = parse("tag=,repo=git://host/repo.git"); //$NON-NLS-1$
+		assertEquals("", entry.tag); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testRepeatedArgument() throws Exception {
+		final MapFileEntry entry = parse("tag=v1,repo=git://host/a.git,tag=v2,repo=git://host/b.git"); //$NON-NLS-1$
+		assertEquals("v2", entry.tag); //$NON-NLS-1$
+		assertEquals("git://host/b.git", entry.repo); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testValueWithSeparators() throws Exception {
+		final MapFileEntry entry = parse("repo=ssh://git@host:29418/repo.git,tag=refs/tags/a=b,filter=blob:limit=1m"); //$NON-NLS-1$
+		assertEquals("ssh://git@host:29418/repo.git", entry.repo); //$NON-NLS-1$
+		assertEquals("refs/tags/a=b", entry.tag); //$NON-NLS-1$
+		assertEquals("blob:limit=1m", entry.filter); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testUnknownArgument() throws Exception {
+		final MapFileEntry entry = parse("tag=v1,unknown=x,repo=git://host/repo.git"); //$NON-NLS-1$
+		assertEquals("v1", entry.tag); //$NON-NLS-1$
+		assertEquals("git://host/repo.git", entry.repo); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testKeyIsCaseSensitive() {
+		assertMalformed("TAG=v1,REPO=git://host/repo.git"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testMissingRepo() {
+		assertMalformed("tag=v1,path=bundles/a"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testBlankEntry() {
+		assertMalformed(""); //$NON-NLS-1$
+		assertMalformed("  "); //$NON-NLS-1$
+		assertMalformed(null);
+	}
+
+	@Test
+	public void testPathIsSanitized() throws Exception {
+		assertEquals("bundles/a", parse("repo=git://host/repo.git,path=/bundles/a/").path); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("bundles/a", parse("repo=git://host/repo.git,path=bundles//a").path); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testRepoLocationIsShared() throws Exception {
+		final MapFileEntry first = parse("tag=v1,repo=git://host/repo.git"); //$NON-NLS-1$
+		final MapFileEntry second = parse("tag=v2,repo=git://host/repo.git"); //$NON-NLS-1$
+		assertSame(first.repo, second.repo);
+		assertEquals(1, repoLocations.size());
+		assertSame(first.repo, repoLocations.get("git://host/repo.git")); //$NON-NLS-1$
+	}
+}
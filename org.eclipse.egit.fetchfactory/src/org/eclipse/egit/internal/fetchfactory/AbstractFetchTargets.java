@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.pde.build.IAntScript;
+import org.eclipse.pde.internal.build.Utils;
+
+/**
+ * Common base of the generators printing the macros and calls of the fetch
+ * scripts (see {@link GITFetchTaskFactory}).
+ * <p>
+ * The fetch scripts don't use <code>antcall</code>: an <code>antcall</code>
+ * creates a new project and parses the whole fetch script again, i.e. the
+ * time spent per call grows with the number of elements. Instead, every
+ * operation called by the fetch tasks is a macro executed in the current
+ * project. Its parameters are explicit attributes (<code>@{name}</code>).
+ * Properties can't be unset, thus every call also gets a scope of its own
+ * (<code>scope</code>, see {@link CallScopes}) and the properties set by a
+ * macro are prefixed with it (<code>${@{scope}.name}</code>). The conditions
+ * of the tasks of a macro are evaluated by the <code>egit.if</code> task.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+abstract class AbstractFetchTargets implements IGitFetchConstants {
+
+	/**
+	 * The scopes of the macro calls printed by the generators of a build.
+	 * A call printed into a target of a fetch script gets a scope of its
+	 * own (<code>gitCall.&lt;n&gt;</code>). A call printed into a macro is
+	 * executed once per call of the macro, thus its scope is nested in the
+	 * scope of the macro (<code>@{scope}.&lt;n&gt;</code>).
+	 */
+	static final class CallScopes {
+
+		private int calls;
+
+		private boolean macro;
+
+		String next() {
+			calls++;
+			return (macro ? asLocal(String.valueOf(calls)) : "gitCall." //$NON-NLS-1$
+					+ calls);
+		}
+
+		void setMacro(boolean macro) {
+			this.macro = macro;
+		}
+	}
+
+	private static final String ATTRIBUTE_SCOPE = "scope"; //$NON-NLS-1$
+
+	/**
+	 * Returns the name of a property local to the executing macro call.
+	 *
+	 * @param name
+	 * @return <code>@{scope}.name</code>
+	 */
+	static String asLocal(String name) {
+		return asParam(ATTRIBUTE_SCOPE) + "." + name; //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the value of a property local to the executing macro call.
+	 *
+	 * @param name
+	 * @return <code>${@{scope}.name}</code>
+	 */
+	static String asLocalValue(String name) {
+		return Utils.getPropertyFormat(asLocal(name));
+	}
+
+	/**
+	 * Returns the value of a parameter of the executing macro.
+	 *
+	 * @param name
+	 * @return <code>@{name}</code>
+	 */
+	static String asParam(String name) {
+		return "@{" + name + "}"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	static void printArg(IAntScript script, String value) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		params.put("value", value); //$NON-NLS-1$
+		script.printElement("arg", params); //$NON-NLS-1$
+	}
+
+	static void printAvailableFile(IAntScript script, String file) {
+		script.println("<available file=\"" + file + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Print the <code>available</code> Ant task to this script. This task sets
+	 * a property value if the given file exists at runtime.
+	 *
+	 * @param property
+	 *            the property to set
+	 * @param file
+	 *            the file to look for
+	 */
+	static void printAvailableTask(String property, String file,
+			IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("property", property); //$NON-NLS-1$
+		params.put("file", file); //$NON-NLS-1$
+		script.printElement("available", params); //$NON-NLS-1$
+	}
+
+	static void printConditionEnd(IAntScript script) {
+		script.decrementIdent();
+		script.printEndTag("condition"); //$NON-NLS-1$
+	}
+
+	static void printConditionStart(IAntScript script, String property,
+			String value, String elseValue) {
+		script.printTabs();
+		script.print("<condition"); //$NON-NLS-1$
+		script.printAttribute("property", property, true); //$NON-NLS-1$
+		script.printAttribute("value", value, false); //$NON-NLS-1$
+		script.printAttribute("else", elseValue, false); //$NON-NLS-1$
+		script.print(">"); //$NON-NLS-1$
+		script.println();
+		script.incrementIdent();
+	}
+
+	static void printGitRepoBaseLocationDefault(IAntScript script) {
+		script.println("<property name=\"" + GITFetchTaskFactory.PROP_FETCH_CACHE_LOCATION + "\" value=\"" + GITFetchTaskFactory.DEFAULT_FETCH_CACHE_LOCATION + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Prints a guard property which records that a Git operation has been
+	 * executed. If the operation depends on the existence of an element in
+	 * the build directory the property is only set if the element didn't
+	 * exist (i.e. if the operation wasn't skipped).
+	 *
+	 * @param script
+	 * @param guardProperty
+	 *            the property to set
+	 * @param locationToCheck
+	 *            the element location checked by the operation (may be
+	 *            <code>null</code>)
+	 */
+	static void printGuardProperty(IAntScript script, String guardProperty,
+			IPath locationToCheck) {
+		if (locationToCheck == null) {
+			script.println("<property name=\"" + guardProperty + "\" value=\"true\" />"); //$NON-NLS-1$ //$NON-NLS-2$
+			return;
+		}
+		printConditionStart(script, guardProperty, null, null);
+		script.printStartTag("not"); //$NON-NLS-1$
+		script.incrementIdent();
+		printIsSet(script, locationToCheck.toString());
+		script.decrementIdent();
+		script.printEndTag("not"); //$NON-NLS-1$
+		printConditionEnd(script);
+	}
+
+	static void printIfEnd(IAntScript script) {
+		script.decrementIdent();
+		script.printEndTag(TASK_IF);
+	}
+
+	/**
+	 * Prints the start tag of the task executing its nested tasks only if a
+	 * property is set and another one is not set (<code>egit.if</code>).
+	 *
+	 * @param script
+	 * @param ifProperty
+	 *            the property which must be set (may be <code>null</code>)
+	 * @param unlessProperty
+	 *            the property which must not be set (may be
+	 *            <code>null</code>)
+	 */
+	static void printIfStart(IAntScript script, String ifProperty,
+			String unlessProperty) {
+		final Map<String, String> params = new LinkedHashMap<String, String>(
+				2);
+		if (ifProperty != null)
+			params.put("if", ifProperty); //$NON-NLS-1$
+		if (unlessProperty != null)
+			params.put("unless", unlessProperty); //$NON-NLS-1$
+		script.printStartTag(TASK_IF, params);
+		script.incrementIdent();
+	}
+
+	static void printIsSet(IAntScript script, String property) {
+		script.println("<isset property=\"" + property + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	static void printLockEnd(IAntScript script) {
+		script.decrementIdent();
+		script.printEndTag(TASK_LOCK);
+	}
+
+	/**
+	 * Prints the start tag of the task holding the lock of a local repository
+	 * while executing its nested tasks. The lock file is a sibling of the
+	 * repository because the repository may not exist yet.
+	 *
+	 * @param script
+	 * @param dir
+	 *            the path of the repository
+	 * @param shared
+	 *            <code>true</code> for a shared lock, <code>false</code> for
+	 *            an exclusive lock
+	 */
+	static void printLockStart(IAntScript script, String dir, boolean shared) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("file", dir + ".lock"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (shared)
+			params.put("shared", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag(TASK_LOCK, params);
+		script.incrementIdent();
+	}
+
+	/**
+	 * Prints the task recording the id of the tree (or blob) of a fetched
+	 * element.
+	 *
+	 * @param script
+	 */
+	static void printObjectIdFile(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("file", asParam(PROP_OBJECT_ID_FILE)); //$NON-NLS-1$
+		params.put("message", asLocalValue(PROP_OBJECT_ID)); //$NON-NLS-1$
+		script.printElement("echo", params); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the condition setting the local property of the same name if a
+	 * parameter of the executing macro isn't empty.
+	 *
+	 * @param script
+	 * @param name
+	 *            the name of the parameter
+	 */
+	static void printParamIsSet(IAntScript script, String name) {
+		printConditionStart(script, asLocal(name), null, null);
+		script.println("<not><equals arg1=\"" + asParam(name) + "\" arg2=\"\"/></not>"); //$NON-NLS-1$ //$NON-NLS-2$
+		printConditionEnd(script);
+	}
+
+	/**
+	 * Prints an empty default for a property which isn't set by a task if it
+	 * fails.
+	 *
+	 * @param script
+	 * @param property
+	 */
+	static void printPropertyDefault(IAntScript script, String property) {
+		script.println("<property name=\"" + property + "\" value=\"\" />"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	static void printReportEnd(IAntScript script) {
+		script.decrementIdent();
+		script.printEndTag(TASK_REPORT);
+	}
+
+	/**
+	 * Prints the start tag of the task measuring its nested tasks and
+	 * appending the result to <code>gitFetchReport</code>.
+	 *
+	 * @param script
+	 * @param kind
+	 *            <code>repository</code>, <code>element</code> or
+	 *            <code>files</code>
+	 * @param name
+	 *            the repository location or the element
+	 * @param localRepo
+	 *            the local repository whose received objects are counted (may
+	 *            be <code>null</code>)
+	 * @param destination
+	 *            the directory or file whose copied files are counted (may be
+	 *            <code>null</code>)
+	 */
+	static void printReportStart(IAntScript script, String kind, String name,
+			String localRepo, String destination) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("file", Utils.getPropertyFormat(PROP_FETCH_REPORT)); //$NON-NLS-1$
+		params.put("kind", kind); //$NON-NLS-1$
+		params.put("name", name); //$NON-NLS-1$
+		if (localRepo != null)
+			params.put("repository", localRepo); //$NON-NLS-1$
+		if (destination != null)
+			params.put("destination", destination); //$NON-NLS-1$
+		script.printStartTag(TASK_REPORT, params);
+		script.incrementIdent();
+	}
+
+	protected final FetchOptions options;
+
+	private final CallScopes scopes;
+
+	/**
+	 * Creates a new generator.
+	 *
+	 * @param options
+	 *            the options of the build
+	 * @param scopes
+	 *            the scopes of the calls (shared by all generators)
+	 */
+	AbstractFetchTargets(FetchOptions options, CallScopes scopes) {
+		this.options = options;
+		this.scopes = scopes;
+	}
+
+	/**
+	 * Prints the call of a macro of the fetch script.
+	 *
+	 * @param script
+	 * @param macro
+	 * @param params
+	 *            the parameters (may be <code>null</code>)
+	 */
+	void printCallTask(IAntScript script, String macro,
+			Map<String, String> params) {
+		final Map<String, String> attributes = new LinkedHashMap<String, String>();
+		attributes.put(ATTRIBUTE_SCOPE, scopes.next());
+		if (params != null)
+			attributes.putAll(new TreeMap<String, String>(params));
+		script.printElement(macro, attributes);
+	}
+
+	void printMacroEnd(IAntScript script) {
+		scopes.setMacro(false);
+		script.decrementIdent();
+		script.printEndTag("sequential"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("macrodef"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the start tags of a macro. The calls printed until the end of
+	 * the macro are nested in the scope of its call.
+	 *
+	 * @param script
+	 * @param name
+	 * @param attributes
+	 *            the parameters of the macro mapped to their default values
+	 *            (<code>null</code> for a required parameter)
+	 * @see #printMacroEnd(IAntScript)
+	 */
+	void printMacroStart(IAntScript script, String name,
+			Map<String, String> attributes) {
+		final Map<String, String> params = new LinkedHashMap<String, String>(
+				2);
+		params.put("name", name); //$NON-NLS-1$
+		script.printStartTag("macrodef", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("name", ATTRIBUTE_SCOPE); //$NON-NLS-1$
+		script.printElement("attribute", params); //$NON-NLS-1$
+		for (final Map.Entry<String, String> attribute : attributes
+				.entrySet()) {
+			params.clear();
+			params.put("name", attribute.getKey()); //$NON-NLS-1$
+			if (attribute.getValue() != null)
+				params.put("default", attribute.getValue()); //$NON-NLS-1$
+			script.printElement("attribute", params); //$NON-NLS-1$
+		}
+		script.printStartTag("sequential"); //$NON-NLS-1$
+		script.incrementIdent();
+		scopes.setMacro(true);
+	}
+}
@@ -0,0 +1,460 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.pde.build.IAntScript;
+import org.eclipse.pde.build.IFetchFactory;
+import org.eclipse.pde.internal.build.Utils;
+
+/**
+ * Copies the elements from a checked out working tree of the local
+ * repositories (<code>gitFetchMode=checkout</code>, the default). Unless
+ * worktrees are used or the build is locking, the plug-ins and fragments of
+ * a repository are copied grouped by tag, i.e. every tag is checked out only
+ * once per script.
+ */
+@SuppressWarnings("restriction")
+final class CheckoutTargets extends ElementTargets {
+
+	/**
+	 * Generates the directory name of the worktree of a tag. Names which are
+	 * not usable as directory names are sanitized and made unique by
+	 * appending their hash code.
+	 *
+	 * @param tag
+	 * @return directory name
+	 */
+	private static String asWorktreeName(String tag) {
+		final StringBuffer b = new StringBuffer(tag.length());
+		for (int i = 0; i < tag.length(); i++) {
+			final char c = tag.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '.' || c == '-')
+				b.append(c);
+			else
+				b.append('_');
+		}
+		if (!tag.equals(b.toString()) || tag.startsWith(".")) //$NON-NLS-1$
+			b.append('-').append(Integer.toHexString(tag.hashCode()));
+		return b.toString();
+	}
+
+	CheckoutTargets(FetchOptions options, CallScopes scopes,
+			GitEngine engine, RepositoryTargets repositories) {
+		super(options, scopes, engine, repositories);
+	}
+
+	@Override
+	String getElementMacro() {
+		return MACRO_GET_ELEMENT_FROM_REPO;
+	}
+
+	@Override
+	String getFilesMacro() {
+		return MACRO_GET_FILES_FROM_REPO;
+	}
+
+	/**
+	 * Returns the path of the working tree elements are copied from.
+	 *
+	 * @return <code>@{gitWorktreePath}</code> or
+	 *         <code>@{gitRepoLocalPath}</code>
+	 */
+	private String getWorkingTree() {
+		return asParam(options.isWorktrees() ? PROP_WORKTREE_PATH
+				: PROP_GITREPO_LOCAL_PATH);
+	}
+
+	/**
+	 * Indicates if the plug-ins and fragments of a repository are copied
+	 * grouped by tag. When locking, the tag is checked out right before
+	 * copying an element instead.
+	 *
+	 * @return <code>true</code> if copies are grouped by tag
+	 */
+	private boolean isCopiesGroupedByTag() {
+		return !options.isWorktrees() && !options.isLocking();
+	}
+
+	@Override
+	boolean isFilesTagRequired() {
+		// the tag is checked out by the macro itself when locking
+		return options.isLocking() || options.isIncremental();
+	}
+
+	@Override
+	boolean isObjectIdCompared() {
+		return options.isIncremental();
+	}
+
+	@Override
+	boolean isRootPathRequired() {
+		return options.isIncremental();
+	}
+
+	@Override
+	boolean isTagRequired() {
+		return options.isLocking() || options.isIncremental()
+				|| options.getCopyLinkOption() != null;
+	}
+
+	/**
+	 * The first grouped element of a repository calls the macro copying all
+	 * of them (see
+	 * {@link #printCopiesMacro(IAntScript, FetchPlan.PlannedRepository)}),
+	 * nothing is printed for the other ones.
+	 */
+	@Override
+	boolean planCopy(IAntScript script, Map entryInfos,
+			FetchPlan.PlannedRepository repository, String path,
+			FetchPlan.PlannedCopy copy) {
+		if (!isCopiesGroupedByTag())
+			return false;
+		final String tag = (String) entryInfos
+				.get(IFetchFactory.KEY_ELEMENT_TAG);
+		repository.addElement(tag, path != null ? path : "", //$NON-NLS-1$
+				copy.filesToCheck);
+		if (!repository.addCopy(tag, copy))
+			return true;
+		printCallTask(script, repository.getCopiesMacro(), null);
+		// the working tree holds another tag afterwards
+		repository.resetCheckout();
+		return true;
+	}
+
+	/**
+	 * Checks out the tag only if it differs from the tag of the previous
+	 * element of the repository or, with worktrees, if the tag hasn't been
+	 * checked out before. Another build may switch the working tree at any
+	 * time when locking, thus the tag is checked out by the copy itself then.
+	 */
+	@Override
+	void printCheckoutCall(IAntScript script,
+			FetchPlan.PlannedRepository repository, String tag,
+			IPath locationToCheck) {
+		final String checkedOutProperty;
+		final boolean checkedOut;
+		if (options.isWorktrees()) {
+			checkedOutProperty = repository.getWorktreeProperty(tag);
+			checkedOut = repository.isWorktreeCheckedOut(tag);
+		} else {
+			checkedOutProperty = repository.checkout(tag);
+			checkedOut = repository.isCheckedOut();
+		}
+		if (options.isLocking() || checkedOut)
+			return;
+		final Map<String, String> params = new HashMap<String, String>(6);
+		params.put(PROP_GITREPO_LOCAL_PATH, repository.getLocalRepo());
+		params.put(PROP_TAG, tag);
+		params.put(PROP_CHECKED_OUT, checkedOutProperty);
+		putSparsePaths(params, repository, tag);
+		putWorktree(params, repository, tag);
+		if (locationToCheck != null)
+			params.put(PROP_FILETOCHECK, locationToCheck.toString());
+		printCallTask(script, MACRO_CHECKOUT_TAG, params);
+		printGuardProperty(script, checkedOutProperty, locationToCheck);
+		if (locationToCheck == null) {
+			if (options.isWorktrees())
+				repository.setWorktreeCheckedOut(tag);
+			else
+				repository.setCheckedOut();
+		}
+	}
+
+	/**
+	 * Prints the condition setting the specified property if all elements of
+	 * the copies exist in the build directory. Nothing is printed if one of
+	 * them is always copied.
+	 *
+	 * @param script
+	 * @param property
+	 * @param copies
+	 * @return <code>true</code> if the condition has been printed
+	 */
+	private boolean printCopiesSkipCondition(IAntScript script,
+			String property, List<FetchPlan.PlannedCopy> copies) {
+		for (final FetchPlan.PlannedCopy copy : copies) {
+			if (copy.filesToCheck == null)
+				return false;
+		}
+		printConditionStart(script, property, null, null);
+		script.printStartTag("and"); //$NON-NLS-1$
+		script.incrementIdent();
+		for (final FetchPlan.PlannedCopy copy : copies) {
+			printIsSet(script, copy.filesToCheck[0]);
+		}
+		script.decrementIdent();
+		script.printEndTag("and"); //$NON-NLS-1$
+		printConditionEnd(script);
+		return true;
+	}
+
+	/**
+	 * Prints the macro which copies the plug-ins and fragments of a
+	 * repository grouped by tag (see
+	 * {@link #planCopy(IAntScript, Map, FetchPlan.PlannedRepository, String, FetchPlan.PlannedCopy)}).
+	 * The repository is prepared unless all of the elements already exist in
+	 * the build directory. Afterwards every distinct tag is checked out once
+	 * (unless all of its elements exist) followed by the copies of its
+	 * elements.
+	 *
+	 * @param script
+	 * @param repository
+	 */
+	private void printCopiesMacro(IAntScript script,
+			FetchPlan.PlannedRepository repository) {
+		final Map<String, String> params = new HashMap<String, String>(8);
+		final String localGitRepo = repository.getLocalRepo();
+		final Map<String, List<FetchPlan.PlannedCopy>> copies = repository
+				.getCopies();
+		printMacroStart(script, repository.getCopiesMacro(),
+				new HashMap<String, String>(0));
+		printGitRepoBaseLocationDefault(script);
+		// determine which elements already exist
+		final List<FetchPlan.PlannedCopy> allCopies = new ArrayList<FetchPlan.PlannedCopy>();
+		for (final List<FetchPlan.PlannedCopy> tagCopies : copies.values()) {
+			for (final FetchPlan.PlannedCopy copy : tagCopies) {
+				if (copy.filesToCheck != null) {
+					for (int i = 0; i < copy.filesToCheck.length; i++) {
+						printAvailableTask(copy.filesToCheck[0],
+								copy.filesToCheck[i], script);
+					}
+				}
+				allCopies.add(copy);
+			}
+		}
+
+		// pull if already cloned, clone if not cloned
+		final boolean skippable = printCopiesSkipCondition(script, repository
+				.getCopiesSkipProperty(null), allCopies);
+		if (options.getFetchThreads() > 1)
+			printCallTask(script, MACRO_PREPARE_REPOS, null);
+		else
+			repositories.printPrepareCall(script, repository.getGitRepo(),
+					repository, skippable ? repository
+							.getCopiesSkipProperty(null) : null);
+		printAvailableTask(localGitRepo, localGitRepo, script);
+
+		// check out every tag once and copy its elements
+		for (final Map.Entry<String, List<FetchPlan.PlannedCopy>> tagCopies : copies
+				.entrySet()) {
+			final String tag = tagCopies.getKey();
+			params.clear();
+			params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+			params.put(PROP_TAG, tag);
+			params.put(PROP_CHECKED_OUT, repository.checkout(tag));
+			putSparsePaths(params, repository, tag);
+			if (printCopiesSkipCondition(script, repository
+					.getCopiesSkipProperty(tag), tagCopies.getValue()))
+				params.put(PROP_FILETOCHECK, repository
+						.getCopiesSkipProperty(tag));
+			printCallTask(script, MACRO_CHECKOUT_TAG, params);
+			for (final FetchPlan.PlannedCopy copy : tagCopies.getValue()) {
+				if (options.getFetchReport() != null)
+					printReportStart(script, "element", copy.element, null, //$NON-NLS-1$
+							copy.destination);
+				printCallTask(script, copy.macro, copy.params);
+				if (options.getFetchReport() != null)
+					printReportEnd(script);
+				if (options.getLockFileOutput() != null)
+					printRecordCommitCall(script, localGitRepo, tag,
+							copy.element);
+			}
+		}
+		printMacroEnd(script);
+	}
+
+	@Override
+	void printCopiesMacros(IAntScript script, FetchPlan plan) {
+		for (final FetchPlan.PlannedRepository repository : plan
+				.getRepositories()) {
+			if (!repository.getCopies().isEmpty())
+				printCopiesMacro(script, repository);
+		}
+	}
+
+	/**
+	 * Prints the macros which check out the tags and copy the elements from
+	 * the working tree to the destination.
+	 */
+	@Override
+	void printElementMacros(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(3);
+
+		// checkout tag macro
+		final Map<String, String> attributes = new LinkedHashMap<String, String>();
+		attributes.put(PROP_GITREPO_LOCAL_PATH, null);
+		attributes.put(PROP_TAG, null);
+		attributes.put(PROP_CHECKED_OUT, null);
+		attributes.put(PROP_FILETOCHECK, ""); //$NON-NLS-1$
+		putCheckoutAttributes(attributes);
+		printMacroStart(script, MACRO_CHECKOUT_TAG, attributes);
+		printGitRepoBaseLocationDefault(script);
+
+		// determine if checkout git operation should be skipped (the element
+		// already exists or the tag has been checked out before)
+		printConditionStart(script, asLocal("skipCheckout"), null, null); //$NON-NLS-1$
+		script.printStartTag("or"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("not"); //$NON-NLS-1$
+		script.incrementIdent();
+		printAvailableFile(script, asParam(PROP_GITREPO_LOCAL_PATH));
+		script.decrementIdent();
+		script.printEndTag("not"); //$NON-NLS-1$
+		printIsSet(script, asParam(PROP_FILETOCHECK));
+		printIsSet(script, asParam(PROP_CHECKED_OUT));
+		script.decrementIdent();
+		script.printEndTag("or"); //$NON-NLS-1$
+		printConditionEnd(script);
+		printIfStart(script, null, asLocal("skipCheckout")); //$NON-NLS-1$
+		engine.printCheckoutTask(script);
+		printIfEnd(script);
+		printMacroEnd(script);
+
+		// copy an elements from repo to the destination (when locking, the
+		// tag is checked out right before copying while holding the lock;
+		// incremental copies only update the changed files)
+		final boolean checkObjectId = options.isIncremental();
+		if (options.getCopyLinkOption() != null) {
+			printLinkElementMacro(script, MACRO_GET_ELEMENT_FROM_REPO);
+		} else {
+			printMacroStart(script, MACRO_GET_ELEMENT_FROM_REPO,
+					getElementAttributes());
+			printGitRepoBaseLocationDefault(script);
+			printElementIfStart(script, checkObjectId);
+			if (options.isLocking()) {
+				printLockStart(script, getWorkingTree(), false);
+				engine.printCheckoutTask(script);
+			}
+			final String copyTask = options.isIncremental() ? "sync" : "copy"; //$NON-NLS-1$ //$NON-NLS-2$
+			params.clear();
+			params.put("todir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+			script.printStartTag(copyTask, params);
+			script.incrementIdent();
+			params.clear();
+			params.put("dir", getWorkingTree() + "/" + asParam(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("fileset", params); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag(copyTask);
+			if (options.isIncremental())
+				printObjectIdFile(script);
+			if (options.isLocking())
+				printLockEnd(script);
+			printElementIfEnd(script, checkObjectId);
+			printMacroEnd(script);
+		}
+
+		// copy a set of files from repo to the destination (missing files are
+		// ignored)
+		printMacroStart(script, MACRO_GET_FILES_FROM_REPO,
+				getElementAttributes(PROP_FILES));
+		printGitRepoBaseLocationDefault(script);
+		printElementIfStart(script, checkObjectId);
+		if (options.isLocking()) {
+			printLockStart(script, getWorkingTree(), false);
+			engine.printCheckoutTask(script);
+		}
+		params.clear();
+		params.put("todir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (options.isIncremental())
+			params.put("overwrite", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("copy", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("dir", getWorkingTree() + "/" + asParam(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("includes", asParam(PROP_FILES)); //$NON-NLS-1$
+		script.printElement("fileset", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("copy"); //$NON-NLS-1$
+		if (options.isIncremental())
+			printObjectIdFile(script);
+		if (options.isLocking())
+			printLockEnd(script);
+		printElementIfEnd(script, checkObjectId);
+		printMacroEnd(script);
+	}
+
+	/**
+	 * Declares the parameters of the engine's checkout (see
+	 * {@link GitEngine#printCheckoutTask(IAntScript)}). The paths of a sparse
+	 * checkout default to the complete tree.
+	 *
+	 * @param attributes
+	 */
+	private void putCheckoutAttributes(Map<String, String> attributes) {
+		if (options.isSparseCheckout())
+			attributes.put(PROP_SPARSE_PATHS, engine.asSparsePaths(Collections
+					.singleton(""))); //$NON-NLS-1$
+		if (options.isWorktrees())
+			attributes.put(PROP_WORKTREE_PATH, null);
+	}
+
+	/**
+	 * Adds the parameter restricting a checkout to the paths needed by the
+	 * elements using the specified tag (only if sparse checkouts are enabled).
+	 *
+	 * @param params
+	 * @param repository
+	 * @param tag
+	 */
+	private void putSparsePaths(Map<String, String> params,
+			FetchPlan.PlannedRepository repository, String tag) {
+		if (options.isSparseCheckout() && repository.getPaths(tag) != null)
+			params.put(PROP_SPARSE_PATHS, Utils.getPropertyFormat(repository
+					.getPathsProperty(tag)));
+	}
+
+	/**
+	 * The tag is checked out by the copy itself when locking (restricted to
+	 * the paths of its elements).
+	 */
+	@Override
+	void putWorkingTree(Map<String, String> params,
+			FetchPlan.PlannedRepository repository, String tag) {
+		if (options.isLocking())
+			putSparsePaths(params, repository, tag);
+		putWorktree(params, repository, tag);
+	}
+
+	/**
+	 * Declares the parameters of the checkout when locking and the worktree.
+	 */
+	@Override
+	void putWorkingTreeAttributes(Map<String, String> attributes) {
+		if (options.isLocking())
+			putCheckoutAttributes(attributes);
+		else if (options.isWorktrees())
+			attributes.put(PROP_WORKTREE_PATH, null);
+	}
+
+	/**
+	 * Adds the parameter holding the worktree of the specified tag (only if
+	 * worktrees are enabled).
+	 *
+	 * @param params
+	 * @param repository
+	 * @param tag
+	 */
+	private void putWorktree(Map<String, String> params,
+			FetchPlan.PlannedRepository repository, String tag) {
+		if (options.isWorktrees())
+			params.put(PROP_WORKTREE_PATH, repository.getLocalRepo()
+					+ WORKTREES_SUFFIX + "/" + asWorktreeName(tag)); //$NON-NLS-1$
+	}
+}
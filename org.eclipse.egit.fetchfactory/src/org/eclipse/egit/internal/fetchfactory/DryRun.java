@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.pde.internal.build.AbstractScriptGenerator;
+import org.eclipse.pde.internal.build.IPDEBuildConstants;
+
+/**
+ * The dry run of a build (<code>gitFetchDryRun</code>).
+ * <p>
+ * Instead of being fetched, every element is resolved against its local
+ * repository in the fetch cache while the fetch script is generated. The
+ * report tells which repositories would be cloned or fetched, which tags are
+ * missing locally and how many files and bytes would be copied into the build
+ * directory. Neither the remote repositories nor the fetch cache are
+ * modified.
+ * </p>
+ * <p>
+ * The report is a CSV file:
+ * <code>kind,name,repository,tag,action,missingTags,files,bytes</code>. A
+ * <code>repository</code> line names the remote and the local repository,
+ * all tags used by its elements, the action (<code>clone</code>,
+ * <code>fetch</code> or <code>none</code>), the tags which would have to be
+ * fetched and the sum of its elements. An <code>element</code> line names the
+ * element, its remote repository and tag and the action (<code>copy</code>,
+ * <code>exists</code> if the element is already in the build directory or
+ * <code>up-to-date</code> if the recorded tree of an incremental fetch
+ * matches). The files and bytes of an element are only known if its tag
+ * exists locally; for an incremental fetch, they are an upper bound.
+ * </p>
+ * <p>
+ * The report is created once per build, when the first map file entry is
+ * parsed. Every fetch script then appends the lines of its repositories and
+ * elements when its targets are added, i.e. a repository used by several
+ * fetch scripts has a line per script (covering the elements of that
+ * script).
+ * </p>
+ */
+@SuppressWarnings("restriction")
+class DryRun {
+
+	/**
+	 * A local repository used by the elements of the build.
+	 */
+	private static class DryRunRepository {
+
+		private final String gitRepo;
+
+		private final File localRepo;
+
+		private final Set<String> tags = new LinkedHashSet<String>();
+
+		private final Set<String> missingTags = new LinkedHashSet<String>();
+
+		private Repository repository;
+
+		private boolean opened;
+
+		private boolean needed;
+
+		private long files;
+
+		private long bytes;
+
+		DryRunRepository(String gitRepo, File localRepo) {
+			this.gitRepo = gitRepo;
+			this.localRepo = localRepo;
+		}
+
+		void close() {
+			if (repository != null)
+				repository.close();
+			repository = null;
+			opened = false;
+		}
+
+		/**
+		 * Returns the repository (opened on first use).
+		 * 
+		 * @return the repository or <code>null</code> if it doesn't exist
+		 *         (or cannot be read)
+		 */
+		Repository open() {
+			if (!opened) {
+				opened = true;
+				if (localRepo.isDirectory()) {
+					final File dotGit = new File(localRepo, Constants.DOT_GIT);
+					final FileRepositoryBuilder builder = new FileRepositoryBuilder()
+							.setMustExist(true);
+					if (dotGit.exists())
+						builder.setWorkTree(localRepo).setGitDir(dotGit);
+					else
+						builder.setGitDir(localRepo).setBare();
+					try {
+						repository = builder.build();
+					} catch (final IOException e) {
+						repository = null;
+					}
+				}
+			}
+			return repository;
+		}
+
+		String getAction() {
+			if (!needed)
+				return ACTION_NONE;
+			if (!localRepo.exists())
+				return ACTION_CLONE;
+			return missingTags.isEmpty() ? ACTION_NONE : ACTION_FETCH;
+		}
+	}
+
+	private static final String HEADER = "kind,name,repository,tag,action,missingTags,files,bytes"; //$NON-NLS-1$
+
+	private static final String ACTION_CLONE = "clone"; //$NON-NLS-1$
+
+	private static final String ACTION_FETCH = "fetch"; //$NON-NLS-1$
+
+	private static final String ACTION_NONE = "none"; //$NON-NLS-1$
+
+	private static final String ACTION_COPY = "copy"; //$NON-NLS-1$
+
+	private static final String ACTION_EXISTS = "exists"; //$NON-NLS-1$
+
+	private static final String ACTION_UP_TO_DATE = "up-to-date"; //$NON-NLS-1$
+
+	// a cycle of property references is not resolved
+	private static final int MAX_PROPERTY_DEPTH = 8;
+
+	private final Map<File, DryRunRepository> repositories = new LinkedHashMap<File, DryRunRepository>();
+
+	private final List<String> elements = new ArrayList<String>();
+
+	private boolean started;
+
+	private static CoreException error(String report, IOException e) {
+		return new CoreException(new Status(IStatus.ERROR,
+				IPDEBuildConstants.PI_PDEBUILD, 1, NLS.bind(
+						Messages.error_writingDryRun, report, e.getMessage()),
+				e));
+	}
+
+	private static String escape(String value) {
+		if (value == null)
+			return ""; //$NON-NLS-1$
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+			return value;
+		return '"' + value.replace("\"", "\"\"") + '"'; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static boolean exists(String[] files) {
+		if (files == null)
+			return false;
+		for (int i = 0; i < files.length; i++) {
+			if (new File(resolve(files[i], 0)).exists())
+				return true;
+		}
+		return false;
+	}
+
+	private static String getProperty(String name, int depth) {
+		String value = AbstractScriptGenerator.getImmutableAntProperty(name);
+		if (value == null
+				&& GITFetchTaskFactory.PROP_FETCH_CACHE_LOCATION.equals(name))
+			value = GITFetchTaskFactory.DEFAULT_FETCH_CACHE_LOCATION;
+		// the fetch scripts are generated into the build directory
+		if (value == null && "basedir".equals(name)) //$NON-NLS-1$
+			value = AbstractScriptGenerator
+					.getImmutableAntProperty("buildDirectory"); //$NON-NLS-1$
+		return value != null ? resolve(value, depth + 1) : null;
+	}
+
+	private static String join(Set<String> values) {
+		final StringBuilder b = new StringBuilder();
+		for (final String value : values) {
+			if (b.length() > 0)
+				b.append(' ');
+			b.append(value);
+		}
+		return b.toString();
+	}
+
+	private static String readId(String idFile) {
+		final File file = new File(resolve(idFile, 0));
+		if (!file.isFile())
+			return null;
+		try {
+			final BufferedReader reader = new BufferedReader(new FileReader(
+					file));
+			try {
+				final String id = reader.readLine();
+				return id != null ? id.trim() : null;
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the references to build properties (<code>${name}</code>) in
+	 * a value the way the fetch script would at runtime.
+	 * 
+	 * @param value
+	 * @param depth
+	 *            the depth of nested references
+	 * @return the resolved value (unknown properties are kept)
+	 */
+	private static String resolve(String value, int depth) {
+		int start = value.indexOf("${"); //$NON-NLS-1$
+		if (start < 0 || depth > MAX_PROPERTY_DEPTH)
+			return value;
+		final StringBuilder b = new StringBuilder(value.length() + 32);
+		int last = 0;
+		while (start >= 0) {
+			final int end = value.indexOf('}', start);
+			if (end < 0)
+				break;
+			final String property = getProperty(value.substring(start + 2, end),
+					depth);
+			b.append(value, last, start);
+			b.append(property != null ? property : value.substring(start,
+					end + 1));
+			last = end + 1;
+			start = value.indexOf("${", last); //$NON-NLS-1$
+		}
+		b.append(value, last, value.length());
+		return b.toString();
+	}
+
+	/**
+	 * Resolves an element against its local repository.
+	 * 
+	 * @param element
+	 *            the element (<code>&lt;type&gt;@&lt;id&gt;</code>)
+	 * @param gitRepo
+	 *            the remote repository
+	 * @param localRepo
+	 *            the local repository path (may reference build properties)
+	 * @param tag
+	 *            the tag or commit id of the element
+	 * @param path
+	 *            the path of the element within the repository (a file for
+	 *            pre-built elements, empty for the root)
+	 * @param filesToCheck
+	 *            the files telling that the element already exists in the
+	 *            build directory (or <code>null</code>)
+	 * @param idFile
+	 *            the file with the recorded id of an incrementally fetched
+	 *            element (or <code>null</code>)
+	 */
+	void addElement(String element, String gitRepo, String localRepo,
+			String tag, String path, String[] filesToCheck, String idFile) {
+		final File dir = new File(resolve(localRepo, 0));
+		DryRunRepository repository = repositories.get(dir);
+		if (repository == null) {
+			repository = new DryRunRepository(gitRepo, dir);
+			repositories.put(dir, repository);
+		}
+
+		ObjectId commit = null;
+		final Repository db = repository.open();
+		if (db != null) {
+			try {
+				commit = db.resolve((GITFetchTaskFactory.isCommitId(tag) ? "" //$NON-NLS-1$
+						: Constants.R_TAGS)
+						+ tag + "^{commit}"); //$NON-NLS-1$
+			} catch (final IOException e) {
+				commit = null;
+			}
+		}
+		if (repository.tags.add(tag) && commit == null)
+			repository.missingTags.add(tag);
+
+		String action = ACTION_COPY;
+		long[] counts = null;
+		if (exists(filesToCheck)) {
+			action = ACTION_EXISTS;
+			counts = new long[2];
+		} else {
+			repository.needed = true;
+			if (commit != null) {
+				final String recordedId = idFile != null ? readId(idFile)
+						: null;
+				counts = count(db, commit, path, recordedId != null
+						&& ObjectId.isId(recordedId) ? ObjectId
+						.fromString(recordedId) : null);
+				if (counts != null && counts[0] < 0) {
+					action = ACTION_UP_TO_DATE;
+					counts = new long[2];
+				}
+			}
+		}
+		if (counts != null) {
+			repository.files += counts[0];
+			repository.bytes += counts[1];
+		}
+
+		final StringBuilder line = new StringBuilder();
+		line.append("element,").append(escape(element)).append(',').append( //$NON-NLS-1$
+				escape(gitRepo)).append(',').append(escape(tag)).append(',')
+				.append(action).append(',');
+		if (commit == null)
+			line.append(escape(tag));
+		line.append(',');
+		if (counts != null)
+			line.append(counts[0]).append(',').append(counts[1]);
+		else
+			line.append(',');
+		elements.add(line.toString());
+	}
+
+	/**
+	 * Counts the files and bytes of an element.
+	 * 
+	 * @param db
+	 * @param commit
+	 * @param path
+	 *            the path of the tree (or file) of the element
+	 * @param recorded
+	 *            the id recorded by an incremental fetch (or
+	 *            <code>null</code>)
+	 * @return the number of files and bytes (<code>-1</code> files if the
+	 *         recorded id matches) or <code>null</code> if the path cannot
+	 *         be resolved
+	 */
+	private long[] count(Repository db, ObjectId commit, String path,
+			ObjectId recorded) {
+		final long[] counts = new long[2];
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			final RevWalk walk = new RevWalk(reader);
+			ObjectId id;
+			try {
+				id = walk.parseCommit(commit).getTree();
+			} finally {
+				walk.release();
+			}
+			FileMode mode = FileMode.TREE;
+			if (path != null && path.length() > 0) {
+				final TreeWalk pathWalk = TreeWalk.forPath(reader, path, id);
+				if (pathWalk == null)
+					return null;
+				id = pathWalk.getObjectId(0);
+				mode = pathWalk.getFileMode(0);
+				pathWalk.release();
+			}
+			if (id.equals(recorded)) {
+				counts[0] = -1;
+				return counts;
+			}
+			if (mode != FileMode.TREE) {
+				counts[0] = 1;
+				counts[1] = reader.open(id, Constants.OBJ_BLOB).getSize();
+				return counts;
+			}
+			final TreeWalk treeWalk = new TreeWalk(reader);
+			try {
+				treeWalk.addTree(id);
+				treeWalk.setRecursive(true);
+				while (treeWalk.next()) {
+					if (treeWalk.getFileMode(0) == FileMode.GITLINK)
+						continue;
+					counts[0]++;
+					counts[1] += reader.open(treeWalk.getObjectId(0),
+							Constants.OBJ_BLOB).getSize();
+				}
+			} finally {
+				treeWalk.release();
+			}
+			return counts;
+		} catch (final IOException e) {
+			// e.g. objects missing in a shallow or partial clone
+			return null;
+		} finally {
+			reader.release();
+		}
+	}
+
+	/**
+	 * Creates the report (only the header) unless it has been created
+	 * already.
+	 * 
+	 * @param report
+	 *            the report file (may reference build properties)
+	 * @throws CoreException
+	 *             if the report cannot be written
+	 */
+	void start(String report) throws CoreException {
+		if (started)
+			return;
+		final File file = new File(resolve(report, 0));
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		try {
+			final Writer writer = new FileWriter(file);
+			try {
+				writer.write(HEADER + "\n"); //$NON-NLS-1$
+			} finally {
+				writer.close();
+			}
+		} catch (final IOException e) {
+			throw error(report, e);
+		}
+		started = true;
+	}
+
+	/**
+	 * Appends the lines of the repositories and elements resolved since the
+	 * last call to the report and forgets them. The local repositories are
+	 * closed (they are opened again if more elements are added).
+	 * 
+	 * @param report
+	 *            the report file (may reference build properties)
+	 * @throws CoreException
+	 *             if the report cannot be written
+	 */
+	void write(String report) throws CoreException {
+		start(report);
+		try {
+			write(new File(resolve(report, 0)));
+		} catch (final IOException e) {
+			throw error(report, e);
+		} finally {
+			for (final DryRunRepository repository : repositories.values()) {
+				repository.close();
+			}
+			repositories.clear();
+			elements.clear();
+		}
+	}
+
+	private void write(File file) throws IOException {
+		final Writer writer = new FileWriter(file, true);
+		try {
+			for (final DryRunRepository repository : repositories.values()) {
+				final String action = repository.getAction();
+				writer.write("repository," + escape(repository.gitRepo) + ',' //$NON-NLS-1$
+						+ escape(repository.localRepo.getPath()) + ','
+						+ escape(join(repository.tags)) + ',' + action + ','
+						+ (ACTION_NONE.equals(action) ? "" //$NON-NLS-1$
+								: escape(join(repository.missingTags))) + ','
+						+ repository.files + ',' + repository.bytes + "\n"); //$NON-NLS-1$
+			}
+			for (final String element : elements) {
+				writer.write(element + "\n"); //$NON-NLS-1$
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
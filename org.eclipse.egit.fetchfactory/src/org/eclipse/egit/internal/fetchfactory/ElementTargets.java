@@ -0,0 +1,824 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.pde.build.Constants;
+import org.eclipse.pde.build.IAntScript;
+import org.eclipse.pde.build.IFetchFactory;
+import org.eclipse.pde.internal.build.Utils;
+
+/**
+ * Prints the calls fetching the elements of a fetch script and the macros
+ * getting their content out of the local repositories
+ * (<code>gitFetchMode</code>). The local repositories are prepared by the
+ * {@link RepositoryTargets}, the Git operations are printed by the
+ * {@link GitEngine}.
+ */
+@SuppressWarnings("restriction")
+abstract class ElementTargets extends AbstractFetchTargets {
+
+	/**
+	 * Returns the descriptor telling that an element already exists in the
+	 * build directory.
+	 *
+	 * @param type
+	 *            the element type
+	 * @param destination
+	 *            the element directory
+	 * @return the descriptor or <code>null</code> for an unknown type
+	 */
+	static IPath asDescriptor(String type, IPath destination) {
+		if (type.equals(IFetchFactory.ELEMENT_TYPE_FEATURE))
+			return destination.append(Constants.FEATURE_FILENAME_DESCRIPTOR);
+		if (type.equals(IFetchFactory.ELEMENT_TYPE_PLUGIN))
+			return destination.append(Constants.PLUGIN_FILENAME_DESCRIPTOR);
+		if (type.equals(IFetchFactory.ELEMENT_TYPE_FRAGMENT))
+			return destination.append(Constants.FRAGMENT_FILENAME_DESCRIPTOR);
+		if (type.equals(IFetchFactory.ELEMENT_TYPE_BUNDLE))
+			return destination.append(Constants.BUNDLE_FILENAME_DESCRIPTOR);
+		return null;
+	}
+
+	/**
+	 * Returns the key of an element in a lock file.
+	 *
+	 * @param entryInfos
+	 * @return <code>&lt;type&gt;@&lt;id&gt;</code>
+	 */
+	static String asLockKey(Map entryInfos) {
+		return entryInfos.get(IFetchFactory.KEY_ELEMENT_TYPE) + "@" //$NON-NLS-1$
+				+ entryInfos.get(IFetchFactory.KEY_ELEMENT_NAME);
+	}
+
+	/**
+	 * Prints the <code>copy</code> of the files of the snapshot of an element
+	 * into its destination. Files which are up to date (e.g. linked) are
+	 * skipped.
+	 *
+	 * @param script
+	 * @param includes
+	 *            the patterns of the files to copy (may be <code>null</code>)
+	 */
+	private static void printCopySnapshot(IAntScript script, String includes) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("todir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		script.printStartTag("copy", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("dir", asLocalValue(PROP_SNAPSHOT)); //$NON-NLS-1$
+		if (includes != null)
+			params.put("includes", includes); //$NON-NLS-1$
+		script.printElement("fileset", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("copy"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Adds the parameters locating the id of the tree (or blob) of an element
+	 * in the ids resolved for its repository.
+	 *
+	 * @param params
+	 *            the parameters of the macro fetching the element
+	 * @param repository
+	 * @param tag
+	 * @param path
+	 *            the path of the tree or blob (empty for the root tree)
+	 */
+	private static void putObjectKey(Map<String, String> params,
+			FetchPlan.PlannedRepository repository, String tag, String path) {
+		params.put(PROP_OBJECT_KEY, repository.addObject(tag, path));
+		params.put(PROP_OBJECT_IDS_FILE, Utils.getPropertyFormat(repository
+				.getObjectIdsProperty()));
+	}
+
+	protected final GitEngine engine;
+
+	protected final RepositoryTargets repositories;
+
+	ElementTargets(FetchOptions options, CallScopes scopes, GitEngine engine,
+			RepositoryTargets repositories) {
+		super(options, scopes);
+		this.engine = engine;
+		this.repositories = repositories;
+	}
+
+	/**
+	 * Returns the parameters of the macros getting the content of an element
+	 * out of the local repository.
+	 *
+	 * @param required
+	 *            the names of the parameters required in addition to the
+	 *            local repository and the destination
+	 * @return the parameters mapped to their default values
+	 *         (<code>null</code> for a required parameter)
+	 */
+	Map<String, String> getElementAttributes(String... required) {
+		final Map<String, String> attributes = new LinkedHashMap<String, String>();
+		attributes.put(PROP_GITREPO_LOCAL_PATH, null);
+		attributes.put(PROP_DESTINATIONFOLDER, null);
+		for (int i = 0; i < required.length; i++) {
+			attributes.put(required[i], null);
+		}
+		attributes.put(PROP_PATH, ""); //$NON-NLS-1$
+		attributes.put(PROP_TAG, ""); //$NON-NLS-1$
+		attributes.put(PROP_FILETOCHECK, ""); //$NON-NLS-1$
+		attributes.put(PROP_OBJECT_PATH, ""); //$NON-NLS-1$
+		if (options.isIncremental())
+			attributes.put(PROP_OBJECT_ID_FILE, ""); //$NON-NLS-1$
+		if (engine.isObjectIdBatched()) {
+			attributes.put(PROP_OBJECT_KEY, ""); //$NON-NLS-1$
+			attributes.put(PROP_OBJECT_IDS_FILE, ""); //$NON-NLS-1$
+		}
+		putWorkingTreeAttributes(attributes);
+		return attributes;
+	}
+
+	/**
+	 * Returns the macro getting a complete element out of the local
+	 * repository.
+	 *
+	 * @return the macro name
+	 */
+	abstract String getElementMacro();
+
+	/**
+	 * Returns the macro getting a set of files of an element out of the local
+	 * repository.
+	 *
+	 * @return the macro name
+	 */
+	abstract String getFilesMacro();
+
+	/**
+	 * Indicates if the macros getting the files of an element need its tag.
+	 *
+	 * @return <code>true</code> if the tag is passed
+	 */
+	abstract boolean isFilesTagRequired();
+
+	/**
+	 * Indicates if the macros getting the content of an element compare the
+	 * id of its tree (or blob) with the recorded id by themselves (see
+	 * {@link #printCheckObjectIdTasks(IAntScript)}).
+	 *
+	 * @return <code>true</code> if the macros skip up to date elements
+	 */
+	abstract boolean isObjectIdCompared();
+
+	/**
+	 * Indicates if an element at the root of its repository needs an empty
+	 * path.
+	 *
+	 * @return <code>true</code> if the path is always passed
+	 */
+	abstract boolean isRootPathRequired();
+
+	/**
+	 * Indicates if the macro getting an element needs its tag.
+	 *
+	 * @return <code>true</code> if the tag is passed
+	 */
+	abstract boolean isTagRequired();
+
+	/**
+	 * Plans the copy of a plug-in or fragment which is grouped with the other
+	 * elements of its tag.
+	 *
+	 * @param script
+	 * @param entryInfos
+	 * @param repository
+	 * @param path
+	 *            the path of the element within the repository (may be
+	 *            <code>null</code>)
+	 * @param copy
+	 * @return <code>false</code> if the element is fetched by itself
+	 */
+	boolean planCopy(IAntScript script, Map entryInfos,
+			FetchPlan.PlannedRepository repository, String path,
+			FetchPlan.PlannedCopy copy) {
+		return false;
+	}
+
+	/**
+	 * Prints the tasks which resolve the id of the tree (or blob) of an
+	 * element and compare it with the id recorded when the element was
+	 * fetched last (the local <code>gitObjectUpToDate</code> is set if both
+	 * match). A path which cannot be resolved is never up to date; whether
+	 * it's an error is up to the macro fetching it.
+	 *
+	 * @param script
+	 */
+	private void printCheckObjectIdTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(3);
+		engine.printResolveObjectIdTask(script);
+		printPropertyDefault(script, asLocal(PROP_OBJECT_ID));
+		if (options.isIncremental()) {
+			params.put("property", asLocal(PROP_OBJECT_ID_RECORDED)); //$NON-NLS-1$
+			params.put("srcFile", asParam(PROP_OBJECT_ID_FILE)); //$NON-NLS-1$
+			params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("loadfile", params); //$NON-NLS-1$
+			printConditionStart(script, asLocal(PROP_OBJECT_UP_TO_DATE), null,
+					null);
+			script.println("<equals arg1=\"" + asLocalValue(PROP_OBJECT_ID) + "\" arg2=\"" + asLocalValue(PROP_OBJECT_ID_RECORDED) + "\" trim=\"true\"/>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			printConditionEnd(script);
+		}
+		if (options.getCopyLinkOption() != null) {
+			// the snapshot is only exported if the element is fetched and
+			// the snapshot doesn't exist yet
+			script.println("<property name=\"" + asLocal(PROP_SNAPSHOT) + "\" value=\"" + SNAPSHOT_LOCATION + "/" + asLocalValue(PROP_OBJECT_ID) + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			printConditionStart(script, asLocal(PROP_SKIP_SNAPSHOT), null,
+					null);
+			script.printStartTag("or"); //$NON-NLS-1$
+			script.incrementIdent();
+			printIsSet(script, asLocal(PROP_OBJECT_UP_TO_DATE));
+			script.printStartTag("and"); //$NON-NLS-1$
+			script.incrementIdent();
+			script.println("<not><equals arg1=\"" + asLocalValue(PROP_OBJECT_ID) + "\" arg2=\"\"/></not>"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.println("<available file=\"" + asLocalValue(PROP_SNAPSHOT) + "\" type=\"dir\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.decrementIdent();
+			script.printEndTag("and"); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag("or"); //$NON-NLS-1$
+			printConditionEnd(script);
+		}
+	}
+
+	/**
+	 * Prints the call checking out the tag of an element (nothing by
+	 * default).
+	 *
+	 * @param script
+	 * @param repository
+	 * @param tag
+	 * @param locationToCheck
+	 *            the element location checked by the checkout (may be
+	 *            <code>null</code>)
+	 */
+	void printCheckoutCall(IAntScript script,
+			FetchPlan.PlannedRepository repository, String tag,
+			IPath locationToCheck) {
+		// nothing by default
+	}
+
+	/**
+	 * Prints the calls preparing the local repository of an element and
+	 * checking out its tag.
+	 *
+	 * @param script
+	 * @param entryInfos
+	 * @param repository
+	 * @param path
+	 *            the path of the element within the repository (may be
+	 *            <code>null</code>)
+	 * @param checkout
+	 *            <code>false</code> if the element is read from the object
+	 *            database, i.e. only the repository is prepared
+	 * @param locationToCheckIfPluginLocal
+	 * @param filesToCheck
+	 */
+	private void printCloneRepoAndCheckoutTagTasks(IAntScript script,
+			Map entryInfos, FetchPlan.PlannedRepository repository,
+			String path, boolean checkout, IPath locationToCheckIfPluginLocal,
+			String[] filesToCheck) {
+		final String gitRepo = (String) entryInfos.get(KEY_REPO);
+		final String tag = (String) entryInfos
+				.get(IFetchFactory.KEY_ELEMENT_TAG);
+		final String localGitRepo = repository.getLocalRepo();
+		repository.addElement(tag, checkout ? (path != null ? path : "") //$NON-NLS-1$
+				: null, filesToCheck);
+
+		if (options.getFetchThreads() > 1) {
+			// all repos of the script are prepared at once by a common macro
+			// (skipped at runtime once it has been executed)
+			printCallTask(script, MACRO_PREPARE_REPOS, null);
+		} else if (!repository.isPrepared()) {
+			// pull if already cloned, clone if not cloned (only done for the
+			// first element of the repo that actually needs to be fetched)
+			repositories.printPrepareCall(script, gitRepo, repository,
+					locationToCheckIfPluginLocal != null
+							? locationToCheckIfPluginLocal.toString() : null);
+			printGuardProperty(script, repository.getPreparedProperty(),
+					locationToCheckIfPluginLocal);
+			if (locationToCheckIfPluginLocal == null)
+				repository.setPrepared();
+		}
+
+		if (checkout)
+			printCheckoutCall(script, repository, tag,
+					locationToCheckIfPluginLocal);
+
+		// determine availability of local repo (done to avoid unnecessary Git
+		// operations)
+		printAvailableTask(localGitRepo, localGitRepo, script);
+	}
+
+	/**
+	 * Prints the macros copying the plug-ins and fragments of the
+	 * repositories of a script grouped by tag (nothing by default).
+	 *
+	 * @param script
+	 * @param plan
+	 */
+	void printCopiesMacros(IAntScript script, FetchPlan plan) {
+		// nothing by default
+	}
+
+	/**
+	 * Prints the calls fetching an element.
+	 *
+	 * @param script
+	 * @param entryInfos
+	 * @param destination
+	 * @param repository
+	 *            the planned repository of the element
+	 */
+	void printElementCall(IAntScript script, Map entryInfos,
+			IPath destination, FetchPlan.PlannedRepository repository) {
+		final String type = (String) entryInfos
+				.get(IFetchFactory.KEY_ELEMENT_TYPE);
+		final boolean prebuilt = Boolean.valueOf(
+				(String) entryInfos.get(KEY_PREBUILT)).booleanValue();
+		final String localGitRepo = repository.getLocalRepo();
+		final String path = (String) entryInfos.get(KEY_PATH);
+		final String tag = (String) entryInfos
+				.get(IFetchFactory.KEY_ELEMENT_TAG);
+
+		// set required property defaults
+		printGitRepoBaseLocationDefault(script);
+
+		final String gitCopyMacro;
+		IPath locationToCheck = null;
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+		if (prebuilt) {
+			// if we have a pre-built JAR then we want to put it right in the
+			// plugins/features directory
+			// and not a sub-directory so strip off last segment
+			params.put(PROP_DESTINATIONFOLDER, destination
+					.removeLastSegments(1).toString());
+
+			// extract file name from path (the JGit task exports it from the
+			// containing directory)
+			final String prebuiltJarFile = new Path(path).lastSegment();
+			params.put(PROP_FILE, prebuiltJarFile);
+			params.put(PROP_PATH, new Path(path).removeLastSegments(1)
+					.toString());
+
+			// if we have a pre-built plug-in then we want to check the
+			// existence of the JAR file
+			// rather than the plug-in manifest.
+			locationToCheck = destination.removeLastSegments(1).append(
+					prebuiltJarFile);
+
+			// stream the blob of the file (nothing is checked out)
+			gitCopyMacro = MACRO_STREAM_FILE_FROM_REPO;
+		} else {
+			params.put(PROP_DESTINATIONFOLDER, destination.toString());
+			if (path != null) {
+				params.put(PROP_PATH, new Path(path).makeRelative().toString());
+			} else if (isRootPathRequired()) {
+				// export the root tree
+				params.put(PROP_PATH, ""); //$NON-NLS-1$
+			}
+
+			// check for existence of element descriptor
+			locationToCheck = asDescriptor(type, destination);
+
+			// copy complete element
+			gitCopyMacro = getElementMacro();
+		}
+
+		// existing elements are compared with the recorded tree id at
+		// runtime (the repo is always needed for that)
+		if (options.isIncremental()) {
+			params.put(PROP_OBJECT_ID_FILE,
+					(prebuilt ? locationToCheck : destination).toString()
+							+ OBJECT_ID_FILE_SUFFIX);
+			locationToCheck = null;
+		}
+		if (prebuilt || options.isObjectIdResolved())
+			params.put(PROP_OBJECT_PATH, path != null ? path : ""); //$NON-NLS-1$
+		if (engine.isObjectIdBatched())
+			putObjectKey(params, repository, tag, path != null ? path : ""); //$NON-NLS-1$
+		if (prebuilt || isTagRequired())
+			params.put(PROP_TAG, tag);
+
+		// check for availability of element in destination
+		final boolean bundle = !prebuilt
+				&& (type.equals(IFetchFactory.ELEMENT_TYPE_PLUGIN) || type
+						.equals(IFetchFactory.ELEMENT_TYPE_FRAGMENT));
+		String[] filesToCheck = null;
+		if (locationToCheck != null) {
+			params.put(PROP_FILETOCHECK, locationToCheck.toString());
+			filesToCheck = new String[] { locationToCheck.toString() };
+			// plug-ins/fragments may not have an xml descriptor anymore, thus
+			// also check for MANIFEST.MF
+			if (bundle) {
+				final String manifest = destination.append(
+						Constants.BUNDLE_FILENAME_DESCRIPTOR).toString();
+				filesToCheck = new String[] { locationToCheck.toString(),
+						manifest };
+			}
+		}
+
+		// plug-ins and fragments may be copied together with the other
+		// elements of their tag by a macro generated at the end of the
+		// script
+		if (bundle
+				&& planCopy(script, entryInfos, repository, path,
+						new FetchPlan.PlannedCopy(gitCopyMacro, params,
+								filesToCheck, asLockKey(entryInfos),
+								destination.toString())))
+			return;
+		if (filesToCheck != null) {
+			for (int i = 0; i < filesToCheck.length; i++) {
+				printAvailableTask(filesToCheck[0], filesToCheck[i], script);
+			}
+		}
+
+		// measure everything done for the element
+		if (options.getFetchReport() != null)
+			printReportStart(script, "element", asLockKey(entryInfos), null, //$NON-NLS-1$
+					prebuilt ? destination.removeLastSegments(1).append(
+							new Path(path).lastSegment()).toString()
+							: destination.toString());
+
+		// clone the Git repo to a local repo and checkout the tag
+		printCloneRepoAndCheckoutTagTasks(script, entryInfos, repository,
+				path, !prebuilt, locationToCheck, filesToCheck);
+
+		// copy the content into the destination
+		if (!prebuilt)
+			putWorkingTree(params, repository, tag);
+		printCallTask(script, gitCopyMacro, params);
+		if (options.getFetchReport() != null)
+			printReportEnd(script);
+
+		// record the commit of the element
+		if (options.getLockFileOutput() != null)
+			printRecordCommitCall(script, localGitRepo, tag,
+					asLockKey(entryInfos));
+	}
+
+	/**
+	 * Prints the end tags of {@link #printElementIfStart(IAntScript, boolean)}.
+	 *
+	 * @param script
+	 * @param checkObjectId
+	 */
+	void printElementIfEnd(IAntScript script, boolean checkObjectId) {
+		if (checkObjectId)
+			printIfEnd(script);
+		printIfEnd(script);
+	}
+
+	/**
+	 * Prints the start tags of the tasks which get the content of an element
+	 * if its local repository exists and the element doesn't exist in the
+	 * build directory (or, if the id of its tree is compared, has changed).
+	 *
+	 * @param script
+	 * @param checkObjectId
+	 *            <code>true</code> if the id of the tree (or blob) of the
+	 *            element is resolved (see
+	 *            {@link #printCheckObjectIdTasks(IAntScript)})
+	 */
+	void printElementIfStart(IAntScript script, boolean checkObjectId) {
+		printIfStart(script, asParam(PROP_GITREPO_LOCAL_PATH),
+				asParam(PROP_FILETOCHECK));
+		if (checkObjectId) {
+			printCheckObjectIdTasks(script);
+			printIfStart(script, null, asLocal(PROP_OBJECT_UP_TO_DATE));
+		}
+	}
+
+	/**
+	 * Prints the macros getting the content of an element out of the local
+	 * repository.
+	 *
+	 * @param script
+	 */
+	abstract void printElementMacros(IAntScript script);
+
+	/**
+	 * Prints the tasks which export the tree of an element into an immutable
+	 * snapshot (see {@link #printLinkElementMacro(IAntScript, String)}). The
+	 * tree is exported into a temporary directory first and then renamed,
+	 * i.e. a snapshot is never seen partially by concurrent builds. When
+	 * locking, the existence of the snapshot is checked again while holding
+	 * the exclusive lock of the snapshots (<code>.trees.lock</code>), thus
+	 * every tree is only exported once even if concurrent builds need it at
+	 * the same time.
+	 *
+	 * @param script
+	 */
+	private void printExportSnapshotTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		printIfStart(script, null, asLocal(PROP_SKIP_SNAPSHOT));
+		if (options.isLocking()) {
+			printLockStart(script, SNAPSHOT_LOCATION, false);
+			params.put("property", asLocal(PROP_SNAPSHOT_EXISTS)); //$NON-NLS-1$
+			params.put("file", asLocalValue(PROP_SNAPSHOT)); //$NON-NLS-1$
+			params.put("type", "dir"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("available", params); //$NON-NLS-1$
+			printIfStart(script, null, asLocal(PROP_SNAPSHOT_EXISTS));
+			printLockStart(script, asParam(PROP_GITREPO_LOCAL_PATH), true);
+			params.clear();
+		}
+		params.put("dir", SNAPSHOT_LOCATION); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		params.clear();
+		params.put("property", asLocal(PROP_SNAPSHOT_TEMP)); //$NON-NLS-1$
+		params.put("prefix", asLocalValue(PROP_OBJECT_ID)); //$NON-NLS-1$
+		params.put("suffix", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("destdir", SNAPSHOT_LOCATION); //$NON-NLS-1$
+		script.printElement("tempfile", params); //$NON-NLS-1$
+		params.clear();
+		params.put("dir", asLocalValue(PROP_SNAPSHOT_TEMP)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		engine.printExportSnapshotTasks(script);
+		if (options.isLocking())
+			printLockEnd(script);
+		params.clear();
+		params.put("file", asLocalValue(PROP_SNAPSHOT_TEMP)); //$NON-NLS-1$
+		params.put("tofile", asLocalValue(PROP_SNAPSHOT)); //$NON-NLS-1$
+		script.printElement("move", params); //$NON-NLS-1$
+		if (options.isLocking()) {
+			printIfEnd(script);
+			printLockEnd(script);
+		}
+		printIfEnd(script);
+	}
+
+	/**
+	 * Prints the calls fetching a set of files of an element.
+	 *
+	 * @param script
+	 * @param entryInfos
+	 * @param destination
+	 * @param files
+	 * @param repository
+	 *            the planned repository of the element
+	 */
+	void printFilesCall(IAntScript script, Map entryInfos,
+			IPath destination, String[] files,
+			FetchPlan.PlannedRepository repository) {
+		final String localGitRepo = repository.getLocalRepo();
+		final String path = (String) entryInfos.get(KEY_PATH);
+		final String tag = (String) entryInfos
+				.get(IFetchFactory.KEY_ELEMENT_TAG);
+
+		// set required property defaults
+		printGitRepoBaseLocationDefault(script);
+
+		// the files are relative to the element directory
+		final String elementPath = path != null ? path : (String) entryInfos
+				.get(IFetchFactory.KEY_ELEMENT_NAME);
+
+		if (options.getFetchReport() != null)
+			printReportStart(script, "files", asLockKey(entryInfos), null, //$NON-NLS-1$
+					destination.toString());
+
+		// clone the Git repo to a local repo and checkout the tag
+		printCloneRepoAndCheckoutTagTasks(script, entryInfos, repository,
+				elementPath, true, null, null);
+
+		// copy all files to destination at once
+		final StringBuffer includes = new StringBuffer();
+		for (int i = 0; i < files.length; i++) {
+			if (i > 0)
+				includes.append(',');
+			includes.append(files[i]);
+		}
+		final Map<String, String> params = new HashMap<String, String>(8);
+		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+		params.put(PROP_DESTINATIONFOLDER, destination.toString());
+		params.put(PROP_PATH, elementPath);
+		params.put(PROP_FILES, includes.toString());
+		if (options.isIncremental()) {
+			// the files are up to date as long as the element tree is;
+			// recorded next to the element (which is fetched into the same
+			// destination later on)
+			params.put(PROP_OBJECT_PATH, elementPath);
+			params.put(PROP_OBJECT_ID_FILE, destination.toString()
+					+ ".files" + OBJECT_ID_FILE_SUFFIX); //$NON-NLS-1$
+			if (engine.isObjectIdBatched())
+				putObjectKey(params, repository, tag, elementPath);
+		}
+		if (isFilesTagRequired())
+			params.put(PROP_TAG, tag);
+		putWorkingTree(params, repository, tag);
+		printCallTask(script, getFilesMacro(), params);
+		if (options.getFetchReport() != null)
+			printReportEnd(script);
+	}
+
+	/**
+	 * Prints the macro which links the files of an element to the snapshot of
+	 * its tree. <code>cp</code> is allowed to fail (the link options are GNU
+	 * extensions and hard links don't work across file systems); only then
+	 * the files which haven't been linked are copied
+	 * (<code>gitLinkFailed</code>).
+	 *
+	 * @param script
+	 * @param macro
+	 *            the name of the macro
+	 */
+	void printLinkElementMacro(IAntScript script, String macro) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		printMacroStart(script, macro, getElementAttributes());
+		printGitRepoBaseLocationDefault(script);
+		printElementIfStart(script, true);
+		printExportSnapshotTasks(script);
+		params.put("dir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		if (options.isIncremental()) {
+			// linking is cheap, thus changed elements are linked again
+			params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("delete", params); //$NON-NLS-1$
+			params.remove("quiet"); //$NON-NLS-1$
+		}
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		params.clear();
+		params.put("executable", "cp"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("failIfExecutionFails", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("resultProperty", asLocal("gitLinkResult")); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "-R"); //$NON-NLS-1$
+		printArg(script, options.getCopyLinkOption());
+		printArg(script, asLocalValue(PROP_SNAPSHOT) + "/."); //$NON-NLS-1$
+		printArg(script, asParam(PROP_DESTINATIONFOLDER));
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+		// no result if cp couldn't be executed at all
+		printConditionStart(script, asLocal(PROP_LINK_FAILED), null, null);
+		script.println("<not><equals arg1=\"" + asLocalValue("gitLinkResult") + "\" arg2=\"0\"/></not>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		printConditionEnd(script);
+		if (options.isHardlink()) {
+			// break the links of the files rewritten by PDE Build
+			params.clear();
+			params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printStartTag("delete", params); //$NON-NLS-1$
+			script.incrementIdent();
+			params.clear();
+			params.put("dir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+			params.put("includes", REWRITTEN_DESCRIPTORS); //$NON-NLS-1$
+			script.printElement("fileset", params); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag("delete"); //$NON-NLS-1$
+			printCopySnapshot(script, REWRITTEN_DESCRIPTORS);
+		}
+
+		// the files which haven't been linked
+		printIfStart(script, asLocal(PROP_LINK_FAILED), null);
+		printCopySnapshot(script, null);
+		printIfEnd(script);
+
+		if (options.getCacheMaxSize() != null) {
+			// last use of the snapshot (directories are only touched
+			// through a file set)
+			script.printStartTag("touch"); //$NON-NLS-1$
+			script.incrementIdent();
+			params.clear();
+			params.put("dir", SNAPSHOT_LOCATION); //$NON-NLS-1$
+			params.put("includes", asLocalValue(PROP_OBJECT_ID)); //$NON-NLS-1$
+			script.printElement("fileset", params); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag("touch"); //$NON-NLS-1$
+		}
+		if (options.isIncremental())
+			printObjectIdFile(script);
+		printElementIfEnd(script, true);
+		printMacroEnd(script);
+	}
+
+	/**
+	 * Prints the call recording the commit of an element in the lock file
+	 * (<code>gitLockFileOutput</code>).
+	 *
+	 * @param script
+	 * @param localGitRepo
+	 * @param tag
+	 * @param element
+	 *            the key of the element (see {@link #asLockKey(Map)})
+	 */
+	void printRecordCommitCall(IAntScript script, String localGitRepo,
+			String tag, String element) {
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+		params.put(PROP_TAG, tag);
+		params.put(PROP_ELEMENT, element);
+		printCallTask(script, MACRO_RECORD_COMMIT, params);
+	}
+
+	/**
+	 * Prints the macro which resolves the commit of an element and records it
+	 * in the lock file (<code>gitLockFileOutput</code>). Elements whose tag
+	 * cannot be resolved (e.g. the repository hasn't been cloned because the
+	 * element already existed) are not recorded.
+	 *
+	 * @param script
+	 */
+	private void printRecordCommitMacro(IAntScript script) {
+		final Map<String, String> params = new LinkedHashMap<String, String>(
+				3);
+		params.put(PROP_GITREPO_LOCAL_PATH, null);
+		params.put(PROP_TAG, null);
+		params.put(PROP_ELEMENT, null);
+		printMacroStart(script, MACRO_RECORD_COMMIT, params);
+		printIfStart(script, asParam(PROP_GITREPO_LOCAL_PATH), null);
+		engine.printResolveCommitTask(script);
+		printPropertyDefault(script, asLocal(PROP_COMMIT_ID));
+		printConditionStart(script, asLocal(PROP_COMMIT_RESOLVED), null, null);
+		script.println("<not><equals arg1=\"" + asLocalValue(PROP_COMMIT_ID) + "\" arg2=\"\" trim=\"true\"/></not>"); //$NON-NLS-1$ //$NON-NLS-2$
+		printConditionEnd(script);
+
+		printIfStart(script, asLocal(PROP_COMMIT_RESOLVED), null);
+		params.clear();
+		params.put("file", Utils.getPropertyFormat(PROP_LOCK_FILE_OUTPUT)); //$NON-NLS-1$
+		script.printStartTag("propertyfile", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("key", asParam(PROP_ELEMENT)); //$NON-NLS-1$
+		params.put("value", asLocalValue(PROP_COMMIT_ID)); //$NON-NLS-1$
+		script.printElement("entry", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("propertyfile"); //$NON-NLS-1$
+		printIfEnd(script);
+		printIfEnd(script);
+		printMacroEnd(script);
+	}
+
+	/**
+	 * Prints the macros getting the content of the elements out of the local
+	 * repositories.
+	 *
+	 * @param script
+	 */
+	void printMacros(IAntScript script) {
+		printElementMacros(script);
+		printStreamFileMacro(script);
+		if (options.getLockFileOutput() != null)
+			printRecordCommitMacro(script);
+	}
+
+	/**
+	 * Prints the macro which streams a pre-built file of an element out of
+	 * the object database of the local repository. Engines which don't
+	 * compare the recorded blob id by themselves stream only changed blobs.
+	 *
+	 * @param script
+	 */
+	private void printStreamFileMacro(IAntScript script) {
+		final boolean checkObjectId = options.isIncremental()
+				&& !engine.isIdFileSupported();
+		printMacroStart(script, MACRO_STREAM_FILE_FROM_REPO,
+				getElementAttributes(PROP_FILE));
+		printGitRepoBaseLocationDefault(script);
+		printElementIfStart(script, checkObjectId);
+		engine.printStreamFileTasks(script, checkObjectId);
+		printElementIfEnd(script, checkObjectId);
+		printMacroEnd(script);
+	}
+
+	/**
+	 * Adds the parameters locating the working tree the content of an element
+	 * is copied from (nothing by default).
+	 *
+	 * @param params
+	 *            the parameters of the macro getting the element
+	 * @param repository
+	 * @param tag
+	 */
+	void putWorkingTree(Map<String, String> params,
+			FetchPlan.PlannedRepository repository, String tag) {
+		// nothing by default
+	}
+
+	/**
+	 * Declares the parameters added by
+	 * {@link #putWorkingTree(Map, FetchPlan.PlannedRepository, String)}
+	 * (nothing by default).
+	 *
+	 * @param attributes
+	 *            the parameters of the macros getting the elements
+	 */
+	void putWorkingTreeAttributes(Map<String, String> attributes) {
+		// nothing by default
+	}
+}
@@ -0,0 +1,961 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.pde.build.IAntScript;
+import org.eclipse.pde.internal.build.Utils;
+
+/**
+ * The engine executing the Git operations by running the native
+ * <code>git</code> executable (<code>gitFetchEngine=exec</code>, the
+ * default).
+ */
+@SuppressWarnings("restriction")
+final class ExecGitEngine extends GitEngine {
+
+	/**
+	 * Appends a name to a regular expression, i.e. all characters except
+	 * letters and digits are escaped. The expression is used as the value of
+	 * a property of the fetch script (Ant properties and XML are escaped as
+	 * well).
+	 *
+	 * @param b
+	 * @param name
+	 */
+	private static void appendRegExp(StringBuffer b, String name) {
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (!Character.isLetterOrDigit(c))
+				b.append('\\');
+			switch (c) {
+			case '$':
+				b.append("$$"); //$NON-NLS-1$
+				break;
+			case '&':
+				b.append("&amp;"); //$NON-NLS-1$
+				break;
+			case '<':
+				b.append("&lt;"); //$NON-NLS-1$
+				break;
+			case '>':
+				b.append("&gt;"); //$NON-NLS-1$
+				break;
+			case '"':
+				b.append("&quot;"); //$NON-NLS-1$
+				break;
+			default:
+				b.append(c);
+			}
+		}
+	}
+
+	ExecGitEngine(FetchOptions options, CallScopes scopes) {
+		super(options, scopes);
+	}
+
+	@Override
+	String asSparsePaths(Set<String> paths) {
+		// the patterns of the sparse checkout file
+		final StringBuffer value = new StringBuffer();
+		if (paths.contains("")) { //$NON-NLS-1$
+			// complete tree
+			value.append("/*"); //$NON-NLS-1$
+			return value.toString();
+		}
+		for (final String path : paths) {
+			if (value.length() > 0)
+				value.append("&#10;"); //$NON-NLS-1$
+			value.append('/');
+			value.append(path);
+		}
+		return value.toString();
+	}
+
+	@Override
+	boolean isIdFileSupported() {
+		return false;
+	}
+
+	@Override
+	boolean isObjectIdBatched() {
+		return options.isObjectIdResolved();
+	}
+
+	/**
+	 * Prints the tasks which check if all tags (and commits) used by the
+	 * script already exist in the local repository. If they do, the update of
+	 * the repository is skipped (tags are not expected to move). Branches are
+	 * never found in <code>refs/tags</code>, i.e. they are always updated.
+	 * <code>git cat-file --batch-check</code> reports missing objects instead
+	 * of failing, thus warm builds don't log the exit code of a failed probe.
+	 *
+	 * @param script
+	 */
+	private void printCheckLocalTagsTasks(IAntScript script) {
+		printParamIsSet(script, PROP_GITREPO_TAG_REFS);
+		printIfStart(script, asLocal(PROP_GITREPO_TAG_REFS),
+				asLocal("skipUpdate")); //$NON-NLS-1$
+		final Map<String, String> params = new HashMap<String, String>(7);
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("inputString", asParam(PROP_GITREPO_TAG_REFS)); //$NON-NLS-1$
+		params.put("resultProperty", asLocal("gitRevParseResult")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("outputProperty", asLocal("gitRevParseOutput")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("errorProperty", asLocal("gitRevParseError")); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "cat-file"); //$NON-NLS-1$
+		printArg(script, "--batch-check"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+		printConditionStart(script, asLocal("skipUpdate"), null, null); //$NON-NLS-1$
+		script.printStartTag("and"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.println("<equals arg1=\"" + asLocalValue("gitRevParseResult") + "\" arg2=\"0\"/>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		script.println("<not><contains string=\"" + asLocalValue("gitRevParseOutput") + "\" substring=\" missing\"/></not>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		script.println("<not><contains string=\"" + asLocalValue("gitRevParseOutput") + "\" substring=\" ambiguous\"/></not>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		script.decrementIdent();
+		script.printEndTag("and"); //$NON-NLS-1$
+		printConditionEnd(script);
+		printIfEnd(script);
+	}
+
+	/**
+	 * Prints the tasks which ask the remote repository for its branches and
+	 * tags (<code>git ls-remote</code>) and compares them with the refs
+	 * recorded by the last update. The update is skipped if neither the
+	 * remote refs nor the refs needed by the script changed.
+	 *
+	 * @param script
+	 */
+	private void printCheckRemoteRefsTasks(IAntScript script) {
+		printIfStart(script, null, asLocal("skipUpdate")); //$NON-NLS-1$
+		final Map<String, String> params = new HashMap<String, String>(6);
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("resultProperty", asLocal("gitLsRemoteResult")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("outputProperty", asLocal(PROP_REMOTE_REFS)); //$NON-NLS-1$
+		params.put("errorProperty", asLocal("gitLsRemoteError")); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "ls-remote"); //$NON-NLS-1$
+		printArg(script, "--heads"); //$NON-NLS-1$
+		printArg(script, "--tags"); //$NON-NLS-1$
+		printArg(script, "origin"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+		// the refs needed by the script are part of the recorded state (the
+		// last update may have fetched other tags or branches)
+		script.println("<property name=\"" + asLocal(PROP_REMOTE_STATE) + "\" value=\"" + asParam(PROP_GITREPO_TAGS) + "${line.separator}" + asLocalValue(PROP_REMOTE_REFS) + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		params.clear();
+		params.put("property", asLocal(PROP_REMOTE_STATE_RECORDED)); //$NON-NLS-1$
+		params.put("srcFile", asParam(PROP_GITREPO_LOCAL_PATH) + REMOTE_SNAPSHOT_SUFFIX); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("loadfile", params); //$NON-NLS-1$
+		printConditionStart(script, asLocal("skipUpdate"), null, null); //$NON-NLS-1$
+		script.printStartTag("and"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.println("<equals arg1=\"" + asLocalValue("gitLsRemoteResult") + "\" arg2=\"0\"/>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		script.println("<equals arg1=\"" + asLocalValue(PROP_REMOTE_STATE) + "\" arg2=\"" + asLocalValue(PROP_REMOTE_STATE_RECORDED) + "\" trim=\"true\"/>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		script.decrementIdent();
+		script.printEndTag("and"); //$NON-NLS-1$
+		printConditionEnd(script);
+		printIfEnd(script);
+	}
+
+	@Override
+	void printCheckoutTask(IAntScript script) {
+		if (options.isWorktrees())
+			printWorktreeCheckoutTasks(script);
+		else
+			printGitCheckoutTask(script, asParam(PROP_GITREPO_LOCAL_PATH));
+	}
+
+	@Override
+	void printCloneBundleTasks(IAntScript script) {
+		// the remote repo is configured as origin afterwards
+		final Map<String, String> params = new HashMap<String, String>(1);
+		final List<String> args = new ArrayList<String>(3);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		args.add(options.isExportMode() ? "--mirror" : "--no-checkout"); //$NON-NLS-1$ //$NON-NLS-2$
+		args.add(asParam(PROP_BUNDLE_PATH));
+		args.add("."); //$NON-NLS-1$
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "clone", null, args, //$NON-NLS-1$
+				true);
+		args.clear();
+		args.add("set-url"); //$NON-NLS-1$
+		args.add("origin"); //$NON-NLS-1$
+		args.add(asParam(PROP_GITREPO));
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "remote", null, args, //$NON-NLS-1$
+				true);
+	}
+
+	@Override
+	void printCloneMirrorTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		final List<String> args = new ArrayList<String>(3);
+		params.put("dir", asParam(PROP_MIRROR_PATH)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		args.add("--mirror"); //$NON-NLS-1$
+		args.add(asParam(PROP_GITREPO));
+		args.add("."); //$NON-NLS-1$
+		printGitTask(script, asParam(PROP_MIRROR_PATH), "clone", null, args, true); //$NON-NLS-1$
+	}
+
+	@Override
+	void printCloneTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		final List<String> args = new ArrayList<String>(3);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		if (options.isExportMode())
+			args.add("--mirror"); //$NON-NLS-1$
+		else
+			// the tag is checked out later on (pre-built files are never
+			// checked out)
+			args.add("--no-checkout"); //$NON-NLS-1$
+		args.add(asParam(PROP_GITREPO));
+		args.add("."); //$NON-NLS-1$
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "clone", //$NON-NLS-1$
+				asParam(PROP_CLONE_ARGS), args, true);
+	}
+
+	private void printExportArchiveExtract(IAntScript script, String dest) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("src", asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		params.put("dest", dest); //$NON-NLS-1$
+		script.printElement("untar", params); //$NON-NLS-1$
+		params.clear();
+		params.put("file", asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("delete", params); //$NON-NLS-1$
+	}
+
+	private void printExportArchiveTempFile(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("property", asLocal(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		params.put("prefix", "gitExport"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("suffix", ".tar"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("destdir", Utils.getPropertyFormat("java.io.tmpdir")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("deleteonexit", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("tempfile", params); //$NON-NLS-1$
+	}
+
+	@Override
+	void printExportElementTasks(IAntScript script, boolean sync) {
+		final List<String> args = new ArrayList<String>(3);
+		printExportArchiveTempFile(script);
+		args.add("--format=tar"); //$NON-NLS-1$
+		args.add("--output=" + asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		args.add(asParam(PROP_TAG) + ":" //$NON-NLS-1$
+				+ asParam(PROP_PATH));
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "archive", null, args, //$NON-NLS-1$
+				true);
+		if (sync) {
+			printExportSync(script);
+			printObjectIdFile(script);
+		} else {
+			printExportArchiveExtract(script, asParam(PROP_DESTINATIONFOLDER));
+		}
+	}
+
+	@Override
+	void printExportFilesTasks(IAntScript script, boolean recordObjectId) {
+		// pathspecs of files which don't exist would fail the whole archive;
+		// thus the element is archived and only the requested files are
+		// extracted
+		final Map<String, String> params = new HashMap<String, String>(2);
+		final List<String> args = new ArrayList<String>(3);
+		printExportArchiveTempFile(script);
+		params.put("file", asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		script.printElement("touch", params); //$NON-NLS-1$
+		args.add("--format=tar"); //$NON-NLS-1$
+		args.add("--output=" + asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		args.add(asParam(PROP_TAG) + ":" //$NON-NLS-1$
+				+ asParam(PROP_PATH));
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "archive", null, args, //$NON-NLS-1$
+				false);
+		params.clear();
+		params.put("src", asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		params.put("dest", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		script.printStartTag("untar", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("includes", asParam(PROP_FILES)); //$NON-NLS-1$
+		script.printElement("patternset", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("untar"); //$NON-NLS-1$
+		params.clear();
+		params.put("file", asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("delete", params); //$NON-NLS-1$
+		if (recordObjectId)
+			printObjectIdFile(script);
+	}
+
+	@Override
+	void printExportSnapshotTasks(IAntScript script) {
+		// the resolved tree id is archived, i.e. the snapshot holds the tree
+		// it is named after even if the tag moved in the meantime
+		final List<String> args = new ArrayList<String>(3);
+		printExportArchiveTempFile(script);
+		args.add("--format=tar"); //$NON-NLS-1$
+		args.add("--output=" + asLocalValue(PROP_EXPORT_ARCHIVE)); //$NON-NLS-1$
+		args.add(asLocalValue(PROP_OBJECT_ID));
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "archive", null, args, //$NON-NLS-1$
+				true);
+		printExportArchiveExtract(script, asLocalValue(PROP_SNAPSHOT_TEMP));
+	}
+
+	/**
+	 * Prints the tasks which update an existing element from the exported
+	 * archive. <code>sync</code> can't be used as it compares the timestamps
+	 * and <code>git archive</code> stamps every file with the time of the
+	 * commit. Thus the archive is extracted into a temporary directory and
+	 * only the files whose content differs are copied; the files which are
+	 * no longer part of the tree are deleted. Unchanged files keep their
+	 * timestamps.
+	 *
+	 * @param script
+	 */
+	private void printExportSync(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("property", asLocal(PROP_EXPORT_DIR)); //$NON-NLS-1$
+		params.put("prefix", "gitExport"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("destdir", Utils.getPropertyFormat("java.io.tmpdir")); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("tempfile", params); //$NON-NLS-1$
+		printExportArchiveExtract(script, asLocalValue(PROP_EXPORT_DIR));
+		params.clear();
+		params.put("dir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		params.clear();
+		params.put("todir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		params.put("overwrite", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("copy", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("dir", asLocalValue(PROP_EXPORT_DIR)); //$NON-NLS-1$
+		script.printStartTag("fileset", params); //$NON-NLS-1$
+		script.incrementIdent();
+		script.println("<different targetdir=\"" + asParam(PROP_DESTINATIONFOLDER) + "\" ignoreFileTimes=\"true\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.decrementIdent();
+		script.printEndTag("fileset"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("copy"); //$NON-NLS-1$
+		params.clear();
+		params.put("includeEmptyDirs", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("delete", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("dir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		script.printStartTag("fileset", params); //$NON-NLS-1$
+		script.incrementIdent();
+		script.println("<present present=\"srconly\" targetdir=\"" + asLocalValue(PROP_EXPORT_DIR) + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.decrementIdent();
+		script.printEndTag("fileset"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("delete"); //$NON-NLS-1$
+		params.clear();
+		params.put("dir", asLocalValue(PROP_EXPORT_DIR)); //$NON-NLS-1$
+		params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("delete", params); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the tasks which fetch all branches and tags of a repository if
+	 * the fetch of the refs used by the script failed (see
+	 * {@link #printFetchTask(IAntScript)}), like the JGit task does for
+	 * commits which don't exist locally.
+	 *
+	 * @param script
+	 */
+	private void printFetchAllTasks(IAntScript script) {
+		printIfStart(script, asLocal(PROP_FETCH_FAILED), null);
+		if (options.isRemoteSnapshot()) {
+			// the recorded refs are only valid if the fetch succeeded
+			final Map<String, String> params = new HashMap<String, String>(2);
+			params.put("file", asParam(PROP_GITREPO_LOCAL_PATH) + REMOTE_SNAPSHOT_SUFFIX); //$NON-NLS-1$
+			params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("delete", params); //$NON-NLS-1$
+		}
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "fetch", //$NON-NLS-1$
+				asParam(PROP_FETCH_ARGS) + " --tags origin", //$NON-NLS-1$
+				null, true);
+		printIfEnd(script);
+	}
+
+	@Override
+	void printFetchBundleTasks(IAntScript script) {
+		// branches and tags as if fetched from origin
+		final List<String> args = new ArrayList<String>(3);
+		args.add(asParam(PROP_BUNDLE_PATH));
+		args.add(options.isExportMode() ? "+refs/heads/*:refs/heads/*" //$NON-NLS-1$
+				: "+refs/heads/*:refs/remotes/origin/*"); //$NON-NLS-1$
+		args.add("+refs/tags/*:refs/tags/*"); //$NON-NLS-1$
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "fetch", null, args, //$NON-NLS-1$
+				true);
+	}
+
+	/**
+	 * Prints the native fetch of the commits and refspecs used by a
+	 * repository. Servers which don't allow to fetch any reachable commit
+	 * reject commit ids which they don't advertise, thus a failed fetch
+	 * doesn't fail the build but sets <code>gitFetchFailed</code>; all
+	 * branches and tags are fetched afterwards (see
+	 * {@link #printFetchAllTasks(IAntScript)}).
+	 *
+	 * @param script
+	 */
+	private void printFetchTask(IAntScript script) {
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "fetch", //$NON-NLS-1$
+				asParam(PROP_FETCH_ARGS) + " --no-tags origin " //$NON-NLS-1$
+						+ asParam(PROP_GITREPO_COMMITS) + " " //$NON-NLS-1$
+						+ asLocalValue(PROP_REFSPECS), null, false,
+				asLocal("gitFetchResult")); //$NON-NLS-1$
+		printConditionStart(script, asLocal(PROP_FETCH_FAILED), null, null);
+		script.println("<not><equals arg1=\"" + asLocalValue("gitFetchResult") + "\" arg2=\"0\"/></not>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		printConditionEnd(script);
+	}
+
+	/**
+	 * Prints the <code>git checkout</code> of <code>@{tag}</code> (restricted
+	 * to <code>@{gitSparsePaths}</code> if sparse checkouts are enabled).
+	 *
+	 * @param script
+	 * @param dir
+	 *            the path of the working tree
+	 */
+	private void printGitCheckoutTask(IAntScript script, String dir) {
+		final List<String> args = new ArrayList<String>(4);
+		if (options.isSparseCheckout()) {
+			// the patterns are applied to the whole index by the checkout
+			// (the repository isn't configured for sparse checkouts, thus
+			// other Git commands are not affected)
+			final Map<String, String> params = new HashMap<String, String>(6);
+			if (options.isWorktrees()) {
+				// located in the administrative directory of the worktree
+				params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+				params.put("dir", dir); //$NON-NLS-1$
+				params.put("outputProperty", asLocal(PROP_SPARSE_FILE)); //$NON-NLS-1$
+				script.printStartTag("exec", params); //$NON-NLS-1$
+				script.incrementIdent();
+				printArg(script, "rev-parse"); //$NON-NLS-1$
+				printArg(script, "--path-format=absolute"); //$NON-NLS-1$
+				printArg(script, "--git-path"); //$NON-NLS-1$
+				printArg(script, "info/sparse-checkout"); //$NON-NLS-1$
+				script.decrementIdent();
+				script.printEndTag("exec"); //$NON-NLS-1$
+			} else {
+				script.println("<property name=\"" + asLocal(PROP_SPARSE_FILE) + "\" value=\"" + dir + "/.git/info/sparse-checkout\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+			params.clear();
+			params.put("file", asLocalValue(PROP_SPARSE_FILE)); //$NON-NLS-1$
+			params.put("message", asParam(PROP_SPARSE_PATHS) + "${line.separator}"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("echo", params); //$NON-NLS-1$
+			args.add("core.sparseCheckout=true"); //$NON-NLS-1$
+			args.add("checkout"); //$NON-NLS-1$
+			args.add("--force"); //$NON-NLS-1$
+			// a branch can only be checked out by one worktree (the clone
+			// has checked out its default branch)
+			if (options.isWorktrees())
+				args.add("--detach"); //$NON-NLS-1$
+			args.add(asParam(PROP_TAG));
+			printGitTask(script, dir, "-c", null, args, true); //$NON-NLS-1$
+		} else {
+			args.add("--force"); //$NON-NLS-1$
+			if (options.isWorktrees())
+				args.add("--detach"); //$NON-NLS-1$
+			args.add(asParam(PROP_TAG));
+			printGitTask(script, dir, "checkout", null, args, true); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Prints the <code>exec</code> task running a Git command.
+	 *
+	 * @param script
+	 * @param dir
+	 *            the path of the repository
+	 * @param commandName
+	 *            the Git command
+	 * @param options
+	 *            a space-separated list of arguments appended after the
+	 *            command (may be empty at runtime or <code>null</code>)
+	 * @param args
+	 *            arguments appended after the options (may be
+	 *            <code>null</code>)
+	 * @param failOnError
+	 */
+	private void printGitTask(IAntScript script, String dir,
+			String commandName, String options, List args, boolean failOnError) {
+		printGitTask(script, dir, commandName, options, args,
+				failOnError, null);
+	}
+
+	/**
+	 * Prints the <code>exec</code> task running a Git command.
+	 *
+	 * @param script
+	 * @param dir
+	 *            the path of the repository
+	 * @param commandName
+	 *            the Git command
+	 * @param options
+	 *            a space-separated list of arguments appended after the
+	 *            command (may be empty at runtime or <code>null</code>)
+	 * @param args
+	 *            arguments appended after the options (may be
+	 *            <code>null</code>)
+	 * @param failOnError
+	 * @param resultProperty
+	 *            the property receiving the exit code (may be
+	 *            <code>null</code>)
+	 */
+	private void printGitTask(IAntScript script, String dir,
+			String commandName, String options, List args,
+			boolean failOnError, String resultProperty) {
+		// print command
+		final StringBuffer m = new StringBuffer();
+		m.append("[GIT] "); //$NON-NLS-1$
+		m.append(dir);
+		m.append(" >> git ").append(commandName); //$NON-NLS-1$
+		if (options != null)
+			m.append(" ").append(options); //$NON-NLS-1$
+		if (args != null) {
+			for (int i = 0; i < args.size(); i++) {
+				m.append(" ").append(args.get(i)); //$NON-NLS-1$
+			}
+		}
+		script.printEchoTask(null, m.toString(), "info"); //$NON-NLS-1$
+
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", dir); //$NON-NLS-1$
+		params.put("failOnError", String.valueOf(failOnError)); //$NON-NLS-1$
+		if (resultProperty != null)
+			params.put("resultProperty", resultProperty); //$NON-NLS-1$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+
+		// cmd
+		printArg(script, commandName);
+
+		// append options
+		if (options != null) {
+			final Map<String, String> line = new HashMap<String, String>(1);
+			line.put("line", options); //$NON-NLS-1$
+			script.printElement("arg", line); //$NON-NLS-1$
+		}
+
+		// append arguments
+		if (args != null) {
+			for (int i = 0; i < args.size(); i++) {
+				final String arg = (String) args.get(i);
+				printArg(script, arg);
+			}
+		}
+
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the tasks computing the refspecs which fetch the tags and
+	 * branches used by a repository (<code>gitRefSpecs</code>) from the refs
+	 * advertised by the remote repository, like the JGit task does: names
+	 * advertised as tags are fetched into <code>refs/tags</code>, names
+	 * advertised as branches like the branches of the clone. Names which are
+	 * not advertised are left to the default refspecs of the fetch.
+	 *
+	 * @param script
+	 * @param listRemote
+	 *            <code>false</code> if the remote refs have been listed
+	 *            already (see {@link #printCheckRemoteRefsTasks(IAntScript)})
+	 */
+	private void printRefSpecsTasks(IAntScript script, boolean listRemote) {
+		final Map<String, String> params = new HashMap<String, String>(4);
+		if (listRemote) {
+			params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			params.put("failOnError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put("outputProperty", asLocal(PROP_REMOTE_REFS)); //$NON-NLS-1$
+			script.printStartTag("exec", params); //$NON-NLS-1$
+			script.incrementIdent();
+			printArg(script, "ls-remote"); //$NON-NLS-1$
+			printArg(script, "--heads"); //$NON-NLS-1$
+			printArg(script, "--tags"); //$NON-NLS-1$
+			printArg(script, "origin"); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag("exec"); //$NON-NLS-1$
+		}
+		params.clear();
+		params.put("property", asLocal(PROP_REFSPECS)); //$NON-NLS-1$
+		script.printStartTag("loadresource", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("value", asLocalValue(PROP_REMOTE_REFS)); //$NON-NLS-1$
+		script.printElement("string", params); //$NON-NLS-1$
+		script.printStartTag("filterchain"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("linecontainsregexp"); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("pattern", "^\\S+\\s+refs/(heads|tags)/(" //$NON-NLS-1$ //$NON-NLS-2$
+				+ asParam(PROP_GITREPO_REF_NAMES) + ")$"); //$NON-NLS-1$
+		script.printElement("regexp", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("linecontainsregexp"); //$NON-NLS-1$
+		params.clear();
+		params.put("pattern", "^\\S+\\s+refs/tags/(.*)$"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("replace", "+refs/tags/\\1:refs/tags/\\1 "); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("replaceregex", params); //$NON-NLS-1$
+		params.clear();
+		params.put("pattern", "^\\S+\\s+refs/heads/(.*)$"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("replace", options.isExportMode() ? "+refs/heads/\\1:refs/heads/\\1 " //$NON-NLS-1$ //$NON-NLS-2$
+				: "+refs/heads/\\1:refs/remotes/origin/\\1 "); //$NON-NLS-1$
+		script.printElement("replaceregex", params); //$NON-NLS-1$
+		script.println("<striplinebreaks/>"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("filterchain"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("loadresource"); //$NON-NLS-1$
+		// not set if nothing matches
+		printPropertyDefault(script, asLocal(PROP_REFSPECS));
+	}
+
+	/**
+	 * Prints the tasks which complete a prepared repository: the tags of a
+	 * new shallow clone are fetched (they are not fetched automatically if
+	 * they aren't close to a branch), all branches and tags are fetched if
+	 * the fetch of the refs used by the script failed and the ids of the
+	 * objects of the elements are resolved.
+	 */
+	@Override
+	void printPreparedTasks(IAntScript script) {
+		printParamIsSet(script, PROP_FETCH_ARGS);
+		printIfStart(script, asLocal(PROP_FETCH_ARGS), asLocal("skipClone")); //$NON-NLS-1$
+		printRefSpecsTasks(script, true);
+		printFetchTask(script);
+		printIfEnd(script);
+		printFetchAllTasks(script);
+		if (isObjectIdBatched())
+			printResolveObjectIdsTasks(script);
+	}
+
+	/**
+	 * Prints the properties holding the full ref names of the tags, the
+	 * commit ids and the names of the tags and branches used by a repository
+	 * (see {@link FetchPlan.PlannedRepository#getTagRefsProperty()}) and,
+	 * if the object ids are resolved per repository, the names of its objects
+	 * (see {@link FetchPlan.PlannedRepository#getObjectNamesProperty()}) and
+	 * the file their ids are resolved into. Like the marker of a mirror, the
+	 * file is defined at project level.
+	 *
+	 * @param script
+	 * @param repository
+	 */
+	@Override
+	void printRepositoryProperties(IAntScript script,
+			FetchPlan.PlannedRepository repository) {
+		final StringBuffer tagRefs = new StringBuffer();
+		final StringBuffer commits = new StringBuffer();
+		final StringBuffer refNames = new StringBuffer();
+		for (final String tag : repository.getTags()) {
+			if (tagRefs.length() > 0)
+				tagRefs.append("&#10;"); //$NON-NLS-1$
+			if (GITFetchTaskFactory.isCommitId(tag)) {
+				tagRefs.append(tag);
+				if (commits.length() > 0)
+					commits.append(' ');
+				commits.append(tag);
+			} else {
+				// a tag is stored as refs/tags/<tag> (fetching "origin <tag>"
+				// only writes FETCH_HEAD)
+				tagRefs.append("refs/tags/").append(tag); //$NON-NLS-1$
+				if (refNames.length() > 0)
+					refNames.append('|');
+				appendRegExp(refNames, tag);
+			}
+			tagRefs.append("^{commit}"); //$NON-NLS-1$
+		}
+		script.println("<property name=\"" + repository.getTagRefsProperty() + "\" value=\"" + tagRefs + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		script.println("<property name=\"" + repository.getCommitsProperty() + "\" value=\"" + commits + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		script.println("<property name=\"" + repository.getRefNamesProperty() + "\" value=\"" + refNames + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		if (!isObjectIdBatched() || repository.getObjects().isEmpty())
+			return;
+
+		final StringBuffer names = new StringBuffer();
+		for (final String name : repository.getObjects().keySet()) {
+			if (names.length() > 0)
+				names.append("&#10;"); //$NON-NLS-1$
+			names.append(name);
+		}
+		script.println("<property name=\"" + repository.getObjectNamesProperty() + "\" value=\"" + names + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("property", repository.getObjectIdsProperty()); //$NON-NLS-1$
+		params.put("prefix", "gitObjects"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("suffix", ".ids"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("destdir", Utils.getPropertyFormat("java.io.tmpdir")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("deleteonexit", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("tempfile", params); //$NON-NLS-1$
+	}
+
+	@Override
+	void printResolveCommitTask(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(6);
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("outputProperty", asLocal(PROP_COMMIT_ID)); //$NON-NLS-1$
+		params.put("resultProperty", asLocal("gitRevParseResult")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("errorProperty", asLocal("gitRevParseError")); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "rev-parse"); //$NON-NLS-1$
+		printArg(script, "--verify"); //$NON-NLS-1$
+		printArg(script, asParam(PROP_TAG) + "^{commit}"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+	}
+
+	@Override
+	void printResolveObjectIdTask(IAntScript script) {
+		// the line of the object in the ids resolved when the repository was
+		// prepared (missing objects aren't reported as id)
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put("property", asLocal(PROP_OBJECT_ID)); //$NON-NLS-1$
+		params.put("srcFile", asParam(PROP_OBJECT_IDS_FILE)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("loadfile", params); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("filterchain"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.println("<headfilter lines=\"1\" skip=\"" + asParam(PROP_OBJECT_KEY) + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.println("<linecontainsregexp><regexp pattern=\"^[0-9a-f]+$\"/></linecontainsregexp>"); //$NON-NLS-1$
+		script.println("<striplinebreaks/>"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("filterchain"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("loadfile"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the tasks which resolve the ids of the trees (or blobs) of all
+	 * elements of a repository (<code>@{gitObjectNames}</code>, one
+	 * <code>&lt;tag&gt;:&lt;path&gt;</code> per line) into
+	 * <code>@{gitObjectIdsFile}</code> when the repository has been prepared.
+	 * <code>git cat-file --batch-check</code> answers every line in order
+	 * (<code>missing</code> if the object doesn't exist), thus an element
+	 * finds its id on the line of its key (<code>gitObjectKey</code>) instead
+	 * of running <code>git rev-parse</code> by itself.
+	 *
+	 * @param script
+	 */
+	private void printResolveObjectIdsTasks(IAntScript script) {
+		printParamIsSet(script, PROP_OBJECT_NAMES);
+		printIfStart(script, asLocal(PROP_OBJECT_NAMES),
+				asParam(PROP_FILETOCHECK));
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("failOnError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("inputString", asParam(PROP_OBJECT_NAMES)); //$NON-NLS-1$
+		params.put("output", asParam(PROP_OBJECT_IDS_FILE)); //$NON-NLS-1$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "cat-file"); //$NON-NLS-1$
+		printArg(script, "--batch-check=%(objectname)"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+		printIfEnd(script);
+	}
+
+	@Override
+	void printStreamFileTasks(IAntScript script, boolean recordObjectId) {
+		// resolve the blob first (the output of a failed cat-file would
+		// leave an empty file behind)
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("outputProperty", asLocal(PROP_BLOB_ID)); //$NON-NLS-1$
+		params.put("resultProperty", asLocal("gitBlobResult")); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "rev-parse"); //$NON-NLS-1$
+		printArg(script, "--verify"); //$NON-NLS-1$
+		printArg(script, asParam(PROP_TAG) + ":" //$NON-NLS-1$
+				+ asParam(PROP_OBJECT_PATH));
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+		printConditionStart(script, asLocal(PROP_BLOB_FOUND), null, null);
+		script.println("<equals arg1=\"" + asLocalValue("gitBlobResult") + "\" arg2=\"0\"/>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		printConditionEnd(script);
+
+		printIfStart(script, asLocal(PROP_BLOB_FOUND), null);
+		if (options.isLocking())
+			printLockStart(script, asParam(PROP_GITREPO_LOCAL_PATH), true);
+		script.printEchoTask(null, "[GIT] " //$NON-NLS-1$
+				+ asParam(PROP_GITREPO_LOCAL_PATH)
+				+ " >> git cat-file blob " //$NON-NLS-1$
+				+ asLocalValue(PROP_BLOB_ID), "info"); //$NON-NLS-1$
+		params.clear();
+		params.put("dir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		params.clear();
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("failOnError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("output", asParam(PROP_DESTINATIONFOLDER) + "/" + asParam(PROP_FILE)); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "cat-file"); //$NON-NLS-1$
+		printArg(script, "blob"); //$NON-NLS-1$
+		printArg(script, asLocalValue(PROP_BLOB_ID));
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+		if (recordObjectId)
+			printObjectIdFile(script);
+		if (options.isLocking())
+			printLockEnd(script);
+		printIfEnd(script);
+	}
+
+	@Override
+	void printUpdateMirrorTasks(IAntScript script) {
+		printGitTask(script, asParam(PROP_MIRROR_PATH), "fetch", null, null, true); //$NON-NLS-1$
+	}
+
+	@Override
+	void printUpdateTasks(IAntScript script) {
+		// git only stores refs named on the command line in FETCH_HEAD, thus
+		// the fetch uses explicit refspecs for the refs advertised by the
+		// remote and no other tags
+		printCheckLocalTagsTasks(script);
+		if (options.isRemoteSnapshot())
+			printCheckRemoteRefsTasks(script);
+		printIfStart(script, null, asLocal("skipUpdate")); //$NON-NLS-1$
+		printRefSpecsTasks(script, !options.isRemoteSnapshot());
+		printFetchTask(script);
+		if (options.isRemoteSnapshot()) {
+			final Map<String, String> params = new HashMap<String, String>(2);
+			params.put("file", asParam(PROP_GITREPO_LOCAL_PATH) + REMOTE_SNAPSHOT_SUFFIX); //$NON-NLS-1$
+			params.put("message", asLocalValue(PROP_REMOTE_STATE)); //$NON-NLS-1$
+			script.printElement("echo", params); //$NON-NLS-1$
+		}
+		printIfEnd(script);
+	}
+
+	/**
+	 * Prints the tasks which check out <code>@{tag}</code> in its linked
+	 * worktree. A missing worktree is added and checked out in one go; with
+	 * sparse checkouts it's added without checking anything out and then
+	 * checked out like an existing worktree.
+	 *
+	 * @param script
+	 */
+	private void printWorktreeCheckoutTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("file", asParam(PROP_WORKTREE_PATH) + "/.git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("property", asLocal(PROP_WORKTREE_EXISTS)); //$NON-NLS-1$
+		script.printElement("available", params); //$NON-NLS-1$
+
+		printIfStart(script, null, asLocal(PROP_WORKTREE_EXISTS));
+		final List<String> args = new ArrayList<String>(5);
+		args.add("add"); //$NON-NLS-1$
+		args.add("--detach"); //$NON-NLS-1$
+		// a worktree may still be registered if its directory was deleted
+		args.add("--force"); //$NON-NLS-1$
+		if (options.isSparseCheckout())
+			args.add("--no-checkout"); //$NON-NLS-1$
+		args.add(asParam(PROP_WORKTREE_PATH));
+		args.add(asParam(PROP_TAG));
+		printGitTask(script, asParam(PROP_GITREPO_LOCAL_PATH), "worktree", null, args, //$NON-NLS-1$
+				true);
+		if (!options.isSparseCheckout())
+			script.println("<property name=\"" + asLocal(PROP_WORKTREE_ADDED) + "\" value=\"true\" />"); //$NON-NLS-1$ //$NON-NLS-2$
+		printIfEnd(script);
+
+		printIfStart(script, null, asLocal(PROP_WORKTREE_ADDED));
+		printGitCheckoutTask(script, asParam(PROP_WORKTREE_PATH));
+		printIfEnd(script);
+	}
+
+	/**
+	 * Declares the parameters added by
+	 * {@link #putFetchOptions(Map, FetchPlan.PlannedRepository)}; they are
+	 * empty for repositories which don't need them.
+	 */
+	@Override
+	void putFetchAttributes(Map<String, String> attributes) {
+		attributes.put(PROP_GITREPO_TAG_REFS, ""); //$NON-NLS-1$
+		attributes.put(PROP_GITREPO_COMMITS, ""); //$NON-NLS-1$
+		attributes.put(PROP_GITREPO_REF_NAMES, ""); //$NON-NLS-1$
+		if (isObjectIdBatched()) {
+			attributes.put(PROP_OBJECT_NAMES, ""); //$NON-NLS-1$
+			attributes.put(PROP_OBJECT_IDS_FILE, ""); //$NON-NLS-1$
+		}
+		attributes.put(PROP_FETCH_ARGS, ""); //$NON-NLS-1$
+		attributes.put(PROP_CLONE_ARGS, ""); //$NON-NLS-1$
+	}
+
+	/**
+	 * Adds the parameters for fetching the tags used by a repository, for
+	 * resolving the ids of its objects and for a shallow or partial clone of
+	 * it.
+	 */
+	@Override
+	void putFetchOptions(Map<String, String> params,
+			FetchPlan.PlannedRepository repository) {
+		if (!repository.getTags().isEmpty()) {
+			params.put(PROP_GITREPO_TAG_REFS, Utils
+					.getPropertyFormat(repository.getTagRefsProperty()));
+			params.put(PROP_GITREPO_COMMITS, Utils
+					.getPropertyFormat(repository.getCommitsProperty()));
+			params.put(PROP_GITREPO_REF_NAMES, Utils
+					.getPropertyFormat(repository.getRefNamesProperty()));
+		}
+		if (isObjectIdBatched() && !repository.getObjects().isEmpty()) {
+			params.put(PROP_OBJECT_NAMES, Utils.getPropertyFormat(repository
+					.getObjectNamesProperty()));
+			params.put(PROP_OBJECT_IDS_FILE, Utils
+					.getPropertyFormat(repository.getObjectIdsProperty()));
+		}
+
+		final StringBuffer cloneArgs = new StringBuffer();
+		if (options.hasMirrorLocation())
+			cloneArgs.append("--reference \"") //$NON-NLS-1$
+					.append(RepositoryTargets.asMirror(repository)).append('"');
+		if (repository.getDepth() != null) {
+			if (cloneArgs.length() > 0)
+				cloneArgs.append(' ');
+			cloneArgs.append("--depth ").append(repository.getDepth()) //$NON-NLS-1$
+					.append(" --no-single-branch"); //$NON-NLS-1$
+			params.put(PROP_FETCH_ARGS, "--depth " + repository.getDepth()); //$NON-NLS-1$
+		}
+		if (repository.getFilter() != null) {
+			if (cloneArgs.length() > 0)
+				cloneArgs.append(' ');
+			cloneArgs.append("--filter=").append(repository.getFilter()); //$NON-NLS-1$
+		}
+		if (cloneArgs.length() > 0)
+			params.put(PROP_CLONE_ARGS, cloneArgs.toString());
+	}
+}
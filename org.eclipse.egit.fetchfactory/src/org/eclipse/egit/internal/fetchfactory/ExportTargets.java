@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import org.eclipse.pde.build.IAntScript;
+
+/**
+ * Exports the elements directly from the object database of bare local
+ * repositories (<code>gitFetchMode=export</code>). Nothing is checked out,
+ * thus every element is exported by itself. The exported tree is
+ * <code>@{tag}:@{path}</code>.
+ */
+final class ExportTargets extends ElementTargets {
+
+	ExportTargets(FetchOptions options, CallScopes scopes, GitEngine engine,
+			RepositoryTargets repositories) {
+		super(options, scopes, engine, repositories);
+	}
+
+	@Override
+	String getElementMacro() {
+		return MACRO_EXPORT_ELEMENT_FROM_REPO;
+	}
+
+	@Override
+	String getFilesMacro() {
+		return MACRO_EXPORT_FILES_FROM_REPO;
+	}
+
+	@Override
+	boolean isFilesTagRequired() {
+		return true;
+	}
+
+	/**
+	 * Engines whose export doesn't compare the recorded tree id by itself
+	 * copy only the changed files of changed elements.
+	 */
+	@Override
+	boolean isObjectIdCompared() {
+		return options.isIncremental() && !engine.isIdFileSupported();
+	}
+
+	@Override
+	boolean isRootPathRequired() {
+		return true;
+	}
+
+	@Override
+	boolean isTagRequired() {
+		return true;
+	}
+
+	/**
+	 * Prints the macros which export elements from the bare local repository
+	 * to the destination.
+	 */
+	@Override
+	void printElementMacros(IAntScript script) {
+		final boolean checkObjectId = isObjectIdCompared();
+
+		// export an element from repo to the destination
+		if (options.getCopyLinkOption() != null) {
+			printLinkElementMacro(script, MACRO_EXPORT_ELEMENT_FROM_REPO);
+		} else {
+			printMacroStart(script, MACRO_EXPORT_ELEMENT_FROM_REPO,
+					getElementAttributes());
+			printGitRepoBaseLocationDefault(script);
+			printElementIfStart(script, checkObjectId);
+			if (options.isLocking())
+				printLockStart(script, asParam(PROP_GITREPO_LOCAL_PATH), true);
+			engine.printExportElementTasks(script, checkObjectId);
+			if (options.isLocking())
+				printLockEnd(script);
+			printElementIfEnd(script, checkObjectId);
+			printMacroEnd(script);
+		}
+
+		// export a set of files from repo to the destination
+		printMacroStart(script, MACRO_EXPORT_FILES_FROM_REPO,
+				getElementAttributes(PROP_FILES));
+		printGitRepoBaseLocationDefault(script);
+		printElementIfStart(script, checkObjectId);
+		if (options.isLocking())
+			printLockStart(script, asParam(PROP_GITREPO_LOCAL_PATH), true);
+		engine.printExportFilesTasks(script, checkObjectId);
+		if (options.isLocking())
+			printLockEnd(script);
+		printElementIfEnd(script, checkObjectId);
+		printMacroEnd(script);
+	}
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import org.eclipse.pde.internal.build.AbstractScriptGenerator;
+
+/**
+ * The build properties tuning the generated fetch scripts (see
+ * {@link GITFetchTaskFactory}).
+ * <p>
+ * The properties are read once when the options are created, i.e. they don't
+ * change while the fetch scripts of a build are generated.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+final class FetchOptions implements IGitFetchConstants {
+
+	private static final String ENGINE_JGIT = "jgit"; //$NON-NLS-1$
+
+	private static final String MODE_EXPORT = "export"; //$NON-NLS-1$
+
+	private static final String STRATEGY_HARDLINK = "hardlink"; //$NON-NLS-1$
+
+	private static final String STRATEGY_REFLINK = "reflink"; //$NON-NLS-1$
+
+	private static boolean getBoolean(String name) {
+		return Boolean.valueOf(
+				AbstractScriptGenerator.getImmutableAntProperty(name))
+				.booleanValue();
+	}
+
+	private static String getValue(String name) {
+		final String value = AbstractScriptGenerator
+				.getImmutableAntProperty(name);
+		if (value == null || value.trim().length() == 0)
+			return null;
+		return value.trim();
+	}
+
+	private final String cacheMaxSize;
+
+	private final String cloneDepth;
+
+	private final String cloneFilter;
+
+	private final String copyLinkOption;
+
+	private final String dryRunReport;
+
+	private final String fetchReport;
+
+	private final int fetchThreads;
+
+	private final boolean bundleLocation;
+
+	private final boolean exportMode;
+
+	private final boolean hardlink;
+
+	private final boolean incremental;
+
+	private final boolean jgitEngine;
+
+	private final boolean locking;
+
+	private final boolean mirrorLocation;
+
+	private final boolean remoteSnapshot;
+
+	private final boolean sparseCheckout;
+
+	private final boolean worktrees;
+
+	private final String lockFile;
+
+	private final String lockFileOutput;
+
+	/**
+	 * Reads the options from the build properties.
+	 */
+	FetchOptions() {
+		cacheMaxSize = getValue(PROP_CACHE_MAX_SIZE);
+		cloneDepth = getValue(PROP_CLONE_DEPTH);
+		cloneFilter = getValue(PROP_CLONE_FILTER);
+		final String strategy = AbstractScriptGenerator
+				.getImmutableAntProperty(PROP_COPY_STRATEGY);
+		hardlink = STRATEGY_HARDLINK.equals(strategy);
+		if (hardlink)
+			copyLinkOption = "--link"; //$NON-NLS-1$
+		else if (STRATEGY_REFLINK.equals(strategy))
+			copyLinkOption = "--reflink=auto"; //$NON-NLS-1$
+		else
+			copyLinkOption = null;
+		dryRunReport = getValue(PROP_FETCH_DRY_RUN);
+		fetchReport = getValue(PROP_FETCH_REPORT);
+		int threads = 1;
+		final String value = AbstractScriptGenerator
+				.getImmutableAntProperty(PROP_FETCH_THREADS);
+		if (value != null) {
+			try {
+				threads = Math.max(1, Integer.parseInt(value.trim()));
+			} catch (final NumberFormatException e) {
+				threads = 1;
+			}
+		}
+		fetchThreads = threads;
+		bundleLocation = getValue(PROP_BUNDLE_LOCATION) != null;
+		exportMode = MODE_EXPORT.equals(AbstractScriptGenerator
+				.getImmutableAntProperty(PROP_FETCH_MODE));
+		incremental = getBoolean(PROP_FETCH_INCREMENTAL);
+		jgitEngine = ENGINE_JGIT.equals(AbstractScriptGenerator
+				.getImmutableAntProperty(PROP_FETCH_ENGINE));
+		locking = getBoolean(PROP_FETCH_LOCKING);
+		mirrorLocation = getValue(PROP_MIRROR_LOCATION) != null;
+		remoteSnapshot = getBoolean(PROP_REMOTE_SNAPSHOT);
+		sparseCheckout = !exportMode && getBoolean(PROP_SPARSE_CHECKOUT);
+		worktrees = !exportMode && getBoolean(PROP_FETCH_WORKTREES);
+		lockFile = getValue(PROP_LOCK_FILE);
+		lockFileOutput = getValue(PROP_LOCK_FILE_OUTPUT);
+	}
+
+	/**
+	 * Returns the maximum size of the fetch cache.
+	 *
+	 * @return the size (in bytes, optionally followed by a unit) or
+	 *         <code>null</code> if the cache isn't maintained
+	 */
+	String getCacheMaxSize() {
+		return cacheMaxSize;
+	}
+
+	/**
+	 * Returns the default depth of the clones (<code>gitCloneDepth</code>).
+	 *
+	 * @return the depth or <code>null</code> if not set
+	 */
+	String getCloneDepth() {
+		return cloneDepth;
+	}
+
+	/**
+	 * Returns the default object filter of the clones
+	 * (<code>gitCloneFilter</code>).
+	 *
+	 * @return the filter or <code>null</code> if not set
+	 */
+	String getCloneFilter() {
+		return cloneFilter;
+	}
+
+	/**
+	 * Returns the option of <code>cp</code> which links the files of an
+	 * element to a snapshot of its tree.
+	 *
+	 * @return the option or <code>null</code> if elements are copied
+	 */
+	String getCopyLinkOption() {
+		return copyLinkOption;
+	}
+
+	/**
+	 * Returns the report of a dry run.
+	 *
+	 * @return the file or <code>null</code> if the elements are fetched
+	 */
+	String getDryRunReport() {
+		return dryRunReport;
+	}
+
+	/**
+	 * Returns the report the timings of the fetched repositories and elements
+	 * are written to.
+	 *
+	 * @return the file or <code>null</code> if no report is written
+	 */
+	String getFetchReport() {
+		return fetchReport;
+	}
+
+	/**
+	 * Returns the number of repositories which should be prepared in
+	 * parallel.
+	 *
+	 * @return the number of threads (at least <code>1</code>)
+	 */
+	int getFetchThreads() {
+		return fetchThreads;
+	}
+
+	/**
+	 * Returns the lock file pinning elements to commits.
+	 *
+	 * @return the file or <code>null</code> if none is used
+	 */
+	String getLockFile() {
+		return lockFile;
+	}
+
+	/**
+	 * Returns the lock file the commits of the fetched elements are recorded
+	 * in.
+	 *
+	 * @return the file or <code>null</code> if none is written
+	 */
+	String getLockFileOutput() {
+		return lockFileOutput;
+	}
+
+	/**
+	 * Indicates if the local repositories are seeded from a directory of
+	 * bundles.
+	 *
+	 * @return <code>true</code> if a bundle location is configured
+	 */
+	boolean hasBundleLocation() {
+		return bundleLocation;
+	}
+
+	/**
+	 * Indicates if the repositories are mirrored in a shared location.
+	 *
+	 * @return <code>true</code> if a mirror location is configured
+	 */
+	boolean hasMirrorLocation() {
+		return mirrorLocation;
+	}
+
+	/**
+	 * Indicates if elements should be exported from a bare repository instead
+	 * of being copied from a checked out working tree.
+	 *
+	 * @return <code>true</code> if the export mode is selected
+	 */
+	boolean isExportMode() {
+		return exportMode;
+	}
+
+	/**
+	 * Indicates if the files of the elements are hard-linked to the snapshots
+	 * of their trees.
+	 *
+	 * @return <code>true</code> if the <code>hardlink</code> strategy is
+	 *         selected
+	 */
+	boolean isHardlink() {
+		return hardlink;
+	}
+
+	/**
+	 * Indicates if existing elements should be reused if the recorded id of
+	 * their tree matches the id of the tree of their tag.
+	 *
+	 * @return <code>true</code> if incremental fetching is enabled
+	 */
+	boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Indicates if the Git operations should be executed using the JGit based
+	 * Ant tasks instead of the native <code>git</code> executable.
+	 *
+	 * @return <code>true</code> if the JGit engine is selected
+	 */
+	boolean isJGitEngine() {
+		return jgitEngine;
+	}
+
+	/**
+	 * Indicates if the operations on the local repositories should be
+	 * guarded by lock files because the fetch cache is shared by concurrent
+	 * builds.
+	 *
+	 * @return <code>true</code> if locking is enabled
+	 */
+	boolean isLocking() {
+		return locking;
+	}
+
+	/**
+	 * Indicates if the id of the tree (or blob) of an element is resolved
+	 * when it's fetched, i.e. if elements are fetched incrementally or linked
+	 * to the snapshots of their trees.
+	 *
+	 * @return <code>true</code> if the object ids are resolved
+	 */
+	boolean isObjectIdResolved() {
+		return incremental || copyLinkOption != null;
+	}
+
+	/**
+	 * Indicates if the refs of the remote repositories should be recorded and
+	 * compared before updating a local repository.
+	 *
+	 * @return <code>true</code> if remote snapshots are enabled
+	 */
+	boolean isRemoteSnapshot() {
+		return remoteSnapshot;
+	}
+
+	/**
+	 * Indicates if checkouts should be restricted to the paths of the
+	 * elements.
+	 *
+	 * @return <code>true</code> if sparse checkouts are enabled
+	 */
+	boolean isSparseCheckout() {
+		return sparseCheckout;
+	}
+
+	/**
+	 * Indicates if every tag should be checked out into its own worktree.
+	 *
+	 * @return <code>true</code> if worktrees are enabled
+	 */
+	boolean isWorktrees() {
+		return worktrees;
+	}
+}
@@ -0,0 +1,611 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The repository level plan of a single fetch script.
+ * <p>
+ * PDE Build asks the fetch factory for one element at a time. The plan
+ * remembers which local repositories have already been used by the script and
+ * which tag was checked out last in each of them. This allows the factory to
+ * clone/fetch every repository only once per script and to check out a tag
+ * only when it differs from the tag of the previous element of the same
+ * repository.
+ * </p>
+ * <p>
+ * The copies of the plug-ins and fragments of a repository can be grouped by
+ * tag instead (see {@link PlannedRepository#addCopy(String, PlannedCopy)}).
+ * They are copied by a single macro generated once the plan is complete,
+ * which checks out every distinct tag only once no matter in which order the
+ * elements appear in the map files.
+ * </p>
+ * <p>
+ * Whether an element is actually fetched is only known at runtime (it is
+ * skipped if it already exists in the build directory). Therefore the plan
+ * hands out the names of guard properties which are set by the generated
+ * script once a repository has been prepared or a tag has been checked out.
+ * </p>
+ */
+class FetchPlan {
+
+	/**
+	 * The copy of an element which is grouped with the other elements of the
+	 * same tag.
+	 */
+	static class PlannedCopy {
+
+		final String macro;
+
+		final Map<String, String> params;
+
+		final String[] filesToCheck;
+
+		final String element;
+
+		final String destination;
+
+		/**
+		 * Creates a new copy.
+		 *
+		 * @param macro
+		 *            the macro copying the element
+		 * @param params
+		 *            the parameters of the macro
+		 * @param filesToCheck
+		 *            the files indicating that the element already exists in
+		 *            the build directory (any of them, the first one is also
+		 *            the name of the property checked by the macro), or
+		 *            <code>null</code> if the element is always copied
+		 * @param element
+		 *            the key of the element (<code>type@id</code>)
+		 * @param destination
+		 *            the location of the element in the build directory
+		 */
+		PlannedCopy(String macro, Map<String, String> params,
+				String[] filesToCheck, String element, String destination) {
+			this.macro = macro;
+			this.params = params;
+			this.filesToCheck = filesToCheck;
+			this.element = element;
+			this.destination = destination;
+		}
+	}
+
+	/**
+	 * A local repository used by the elements of a fetch script.
+	 */
+	static class PlannedRepository {
+
+		private final String gitRepo;
+
+		private final String localRepo;
+
+		private final String name;
+
+		private final String propertyPrefix;
+
+		private final String depth;
+
+		private final String filter;
+
+		private final List<String[]> elementChecks = new ArrayList<String[]>();
+
+		private final Set<String> tags = new LinkedHashSet<String>();
+
+		private final Map<String, Set<String>> paths = new LinkedHashMap<String, Set<String>>();
+
+		private final Set<String> checkedOutWorktrees = new HashSet<String>();
+
+		private final Map<String, List<PlannedCopy>> copies = new LinkedHashMap<String, List<PlannedCopy>>();
+
+		private final Map<String, String> objects = new LinkedHashMap<String, String>();
+
+		private boolean required;
+
+		private boolean prepared;
+
+		private String currentTag;
+
+		private int checkouts;
+
+		private boolean checkedOut;
+
+		PlannedRepository(String gitRepo, String localRepo, String name,
+				String propertyPrefix, String depth, String filter) {
+			this.gitRepo = gitRepo;
+			this.localRepo = localRepo;
+			this.name = name;
+			this.propertyPrefix = propertyPrefix;
+			this.depth = depth;
+			this.filter = filter;
+		}
+
+		/**
+		 * Adds an element which is fetched from the repository.
+		 *
+		 * @param tag
+		 *            the tag of the element
+		 * @param path
+		 *            the path of the element within the repository, an
+		 *            empty path if it needs the complete tree or
+		 *            <code>null</code> if it isn't checked out at all
+		 * @param filesToCheck
+		 *            the files indicating that the element already exists in
+		 *            the build directory (any of them), or <code>null</code>
+		 *            if the element is always fetched
+		 */
+		void addElement(String tag, String path, String[] filesToCheck) {
+			if (tag != null) {
+				tags.add(tag);
+				if (path != null) {
+					Set<String> tagPaths = paths.get(tag);
+					if (tagPaths == null) {
+						tagPaths = new LinkedHashSet<String>();
+						paths.put(tag, tagPaths);
+					}
+					tagPaths.add(path);
+				}
+			}
+			if (filesToCheck == null)
+				required = true;
+			else
+				elementChecks.add(filesToCheck);
+		}
+
+		/**
+		 * Adds the copy of an element which is grouped by tag.
+		 *
+		 * @param tag
+		 *            the tag of the element
+		 * @param copy
+		 * @return <code>true</code> if it is the first grouped copy of the
+		 *         repository, i.e. the macro copying all of them has to be
+		 *         called
+		 * @see #getCopiesMacro()
+		 */
+		boolean addCopy(String tag, PlannedCopy copy) {
+			final boolean first = copies.isEmpty();
+			List<PlannedCopy> tagCopies = copies.get(tag);
+			if (tagCopies == null) {
+				tagCopies = new ArrayList<PlannedCopy>();
+				copies.put(tag, tagCopies);
+			}
+			tagCopies.add(copy);
+			return first;
+		}
+
+		/**
+		 * Adds an object (<code>&lt;tag&gt;:&lt;path&gt;</code>) whose id is
+		 * compared by an element of the repository. The ids of all objects of
+		 * the repository are resolved at once when it has been prepared.
+		 *
+		 * @param tag
+		 * @param path
+		 *            the path of the tree or blob (empty for the root tree)
+		 * @return the key of the object, i.e. the index of its line in the
+		 *         resolved ids
+		 * @see #getObjects()
+		 */
+		String addObject(String tag, String path) {
+			final String name = tag + ":" + path; //$NON-NLS-1$
+			String key = objects.get(name);
+			if (key == null) {
+				key = String.valueOf(objects.size());
+				objects.put(name, key);
+			}
+			return key;
+		}
+
+		/**
+		 * Switches the repository to the specified tag.
+		 *
+		 * @param tag
+		 * @return the name of the guard property which is set once the tag
+		 *         has been checked out
+		 */
+		String checkout(String tag) {
+			if (currentTag == null || !currentTag.equals(tag)) {
+				currentTag = tag;
+				checkouts++;
+				checkedOut = false;
+			}
+			return propertyPrefix + ".checkout." + checkouts; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the copies grouped by tag.
+		 *
+		 * @return the copies per tag in the order of the first use of the tag
+		 */
+		Map<String, List<PlannedCopy>> getCopies() {
+			return copies;
+		}
+
+		/**
+		 * Returns the name of the property which is set at runtime if all
+		 * elements of the copies grouped by tag already exist in the build
+		 * directory.
+		 *
+		 * @param tag
+		 *            the tag of the copies or <code>null</code> for the
+		 *            copies of all tags
+		 * @return property name
+		 */
+		String getCopiesSkipProperty(String tag) {
+			if (tag == null)
+				return propertyPrefix + ".copies.skip"; //$NON-NLS-1$
+			return propertyPrefix + ".copies.skip." + getTagIndex(tag); //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the name of the macro which checks out every tag of the
+		 * copies grouped by tag once and copies its elements. The macro is
+		 * generated when the plan is complete, i.e. at the end of the script.
+		 *
+		 * @return macro name
+		 */
+		String getCopiesMacro() {
+			return propertyPrefix + ".copies"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the depth of a shallow clone.
+		 *
+		 * @return the number of commits to fetch per ref or <code>null</code>
+		 *         if the complete history is fetched
+		 */
+		String getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Returns the existence checks of all elements of the repository.
+		 *
+		 * @return a list of files per element
+		 * @see #addElement(String, String, String[])
+		 */
+		List<String[]> getElementChecks() {
+			return elementChecks;
+		}
+
+		/**
+		 * Returns the object filter of a partial clone.
+		 *
+		 * @return the filter spec (eg. <code>blob:none</code>) or
+		 *         <code>null</code> if all objects are fetched
+		 */
+		String getFilter() {
+			return filter;
+		}
+
+		String getGitRepo() {
+			return gitRepo;
+		}
+
+		String getLocalRepo() {
+			return localRepo;
+		}
+
+		/**
+		 * Returns the file system friendly name of the repository. Bundles and
+		 * mirrors are named like the local repository.
+		 *
+		 * @return the name
+		 */
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the name of the property holding the file the ids of the
+		 * objects of the repository are resolved into. The property is
+		 * defined when the plan is complete, i.e. at the end of the script.
+		 *
+		 * @return property name
+		 * @see #getObjects()
+		 */
+		String getObjectIdsProperty() {
+			return propertyPrefix + ".objectIds"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the objects whose ids are compared by the elements of the
+		 * repository.
+		 *
+		 * @return the keys by object name in the order of the keys
+		 * @see #addObject(String, String)
+		 */
+		Map<String, String> getObjects() {
+			return objects;
+		}
+
+		/**
+		 * Returns the name of the property holding the names of the objects of
+		 * the repository in the order of their keys (one per line). The
+		 * property is defined when the plan is complete, i.e. at the end of
+		 * the script.
+		 *
+		 * @return property name
+		 * @see #getObjects()
+		 */
+		String getObjectNamesProperty() {
+			return propertyPrefix + ".objectNames"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the paths needed by the elements of the repository which use
+		 * the specified tag.
+		 *
+		 * @param tag
+		 * @return the paths in the order of their first use (an empty path
+		 *         denotes the complete tree) or <code>null</code> if no
+		 *         element of the tag is checked out
+		 */
+		Set<String> getPaths(String tag) {
+			return paths.get(tag);
+		}
+
+		/**
+		 * Returns the name of the property holding the paths needed by the
+		 * elements of the repository which use the specified tag. The property
+		 * is defined when the plan is complete, i.e. at the end of the script.
+		 *
+		 * @param tag
+		 * @return property name
+		 * @see #getPaths(String)
+		 */
+		String getPathsProperty(String tag) {
+			return propertyPrefix + ".paths." + getTagIndex(tag); //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the name of the guard property which is set once the
+		 * repository has been cloned or updated.
+		 *
+		 * @return property name
+		 */
+		String getPreparedProperty() {
+			return propertyPrefix + ".prepared"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the name of the property which is set at runtime if all
+		 * elements of the repository already exist in the build directory.
+		 *
+		 * @return property name
+		 */
+		String getSkipProperty() {
+			return propertyPrefix + ".skip"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the tags used by the elements of the repository.
+		 *
+		 * @return the tags in the order of their first use
+		 */
+		Set<String> getTags() {
+			return tags;
+		}
+
+		private int getTagIndex(String tag) {
+			int index = 0;
+			for (final String usedTag : tags) {
+				if (usedTag.equals(tag))
+					break;
+				index++;
+			}
+			return index;
+		}
+
+		/**
+		 * Returns the name of the property holding the full ref names of the
+		 * tags used by the elements of the repository (one per line). The
+		 * property is defined when the plan is complete, i.e. at the end of
+		 * the script.
+		 *
+		 * @return property name
+		 * @see #getTags()
+		 */
+		String getTagRefsProperty() {
+			return propertyPrefix + ".tagRefs"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the name of the property holding the commit ids used by the
+		 * elements of the repository (separated by spaces). The property is
+		 * defined when the plan is complete, i.e. at the end of the script.
+		 *
+		 * @return property name
+		 * @see #getTags()
+		 */
+		String getCommitsProperty() {
+			return propertyPrefix + ".commits"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the name of the property holding a regular expression which
+		 * matches the names of the tags and branches used by the elements of
+		 * the repository (i.e. all of them except the commit ids). The
+		 * property is defined when the plan is complete, i.e. at the end of
+		 * the script.
+		 *
+		 * @return property name
+		 * @see #getTags()
+		 */
+		String getRefNamesProperty() {
+			return propertyPrefix + ".refNames"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the name of the property holding the tags used by the
+		 * elements of the repository (separated by spaces). The property is
+		 * defined when the plan is complete, i.e. at the end of the script.
+		 *
+		 * @return property name
+		 * @see #getTags()
+		 */
+		String getTagsProperty() {
+			return propertyPrefix + ".tags"; //$NON-NLS-1$
+		}
+
+		/**
+		 * Returns the name of the guard property which is set once the tag has
+		 * been checked out in its own worktree. Every tag has a separate
+		 * worktree, i.e. a tag is checked out only once per script no matter
+		 * which tags are used in between.
+		 *
+		 * @param tag
+		 * @return property name
+		 */
+		String getWorktreeProperty(String tag) {
+			return propertyPrefix + ".worktree." + getTagIndex(tag); //$NON-NLS-1$
+		}
+
+		/**
+		 * Indicates if the current tag is checked out unconditionally by the
+		 * script, i.e. no further checkout needs to be generated for it.
+		 *
+		 * @return <code>true</code> if the current tag is known to be checked
+		 *         out
+		 */
+		boolean isCheckedOut() {
+			return checkedOut;
+		}
+
+		/**
+		 * Indicates if the repository is prepared unconditionally by the
+		 * script, i.e. no further clone/fetch needs to be generated for it.
+		 *
+		 * @return <code>true</code> if the repository is known to be
+		 *         prepared
+		 */
+		boolean isPrepared() {
+			return prepared;
+		}
+
+		/**
+		 * Indicates if the repository must always be prepared, i.e. if one
+		 * of its elements is fetched unconditionally.
+		 *
+		 * @return <code>true</code> if the repository is required
+		 */
+		boolean isRequired() {
+			return required;
+		}
+
+		/**
+		 * Indicates if the worktree of a tag is checked out unconditionally by
+		 * the script.
+		 *
+		 * @param tag
+		 * @return <code>true</code> if the worktree is known to be checked out
+		 * @see #getWorktreeProperty(String)
+		 */
+		boolean isWorktreeCheckedOut(String tag) {
+			return checkedOutWorktrees.contains(tag);
+		}
+
+		void setCheckedOut() {
+			checkedOut = true;
+		}
+
+		/**
+		 * Forgets the tag checked out last, e.g. after calling the macro
+		 * which checks out the tags of the copies grouped by tag.
+		 */
+		void resetCheckout() {
+			currentTag = null;
+			checkedOut = false;
+		}
+
+		void setPrepared() {
+			prepared = true;
+		}
+
+		void setWorktreeCheckedOut(String tag) {
+			checkedOutWorktrees.add(tag);
+		}
+	}
+
+	private final String id;
+
+	private final Map<String, PlannedRepository> repositories = new LinkedHashMap<String, PlannedRepository>();
+
+	/**
+	 * Creates a new plan.
+	 *
+	 * @param id
+	 *            an id which is unique within the build; it's used to
+	 *            prevent guard properties from leaking into the fetch scripts
+	 *            of nested features
+	 */
+	FetchPlan(String id) {
+		this.id = id;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the property holding a marker file which is created
+	 * once all repositories of the script have been prepared. A file is used
+	 * because PDE Build invokes the sections of a fetch script through
+	 * <code>antcall</code>, i.e. properties don't survive between them.
+	 *
+	 * @return property name
+	 */
+	String getPreparedMarkerProperty() {
+		return "gitFetch." + id + ".prepared"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns the planned repository for the specified local repository,
+	 * adding it to the plan if necessary. The clone options are taken from the
+	 * first element of a repository.
+	 *
+	 * @param gitRepo
+	 *            the repository location
+	 * @param localRepo
+	 *            the local repository path
+	 * @param name
+	 *            the file system friendly name of the repository
+	 * @param depth
+	 *            the depth of a shallow clone (may be <code>null</code>)
+	 * @param filter
+	 *            the object filter of a partial clone (may be
+	 *            <code>null</code>)
+	 * @return the planned repository
+	 */
+	PlannedRepository getRepository(String gitRepo, String localRepo,
+			String name, String depth, String filter) {
+		PlannedRepository repository = repositories.get(localRepo);
+		if (repository == null) {
+			repository = new PlannedRepository(gitRepo, localRepo, name,
+					"gitFetch." + id + "." + repositories.size(), depth, filter); //$NON-NLS-1$ //$NON-NLS-2$
+			repositories.put(localRepo, repository);
+		}
+		return repository;
+	}
+
+	Collection<PlannedRepository> getRepositories() {
+		return repositories.values();
+	}
+}
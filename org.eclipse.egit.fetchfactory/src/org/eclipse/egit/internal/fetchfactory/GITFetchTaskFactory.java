@@ -11,12 +11,19 @@
  *******************************************************************************/
 package org.eclipse.egit.internal.fetchfactory;
 
-import java.util.ArrayList;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
-import java.util.List;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import org.apache.tools.ant.BuildException;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
@@ -45,6 +52,13 @@
  * root)</li>
  * <li><code>prebuilt</code> - optional boolean value indicating that the path
  * points to a pre-built bundle in the repository</li>
+ * <li><code>depth</code> - optional number of commits to fetch per branch and
+ * tag, i.e. the repository is cloned shallow (overrides the build property
+ * <code>gitCloneDepth</code>)</li>
+ * <li><code>filter</code> - optional object filter (eg.
+ * <code>blob:none</code>), i.e. the repository is cloned partially and
+ * missing objects are fetched on demand (overrides the build property
+ * <code>gitCloneFilter</code>)</li>
  * </ul>
  * </p>
  * <p>
@@ -55,58 +69,327 @@
  * <li>The specified tag will be checked out in the local clone.</li>
  * <li>The content of the path will be copied to the final build location.</li>
  * </ol>
+ * Pre-built files (<code>prebuilt=true</code>) skip the checkout, their blob
+ * is streamed from the object database of the local repository directly to
+ * the build location.
+ * </p>
+ * <p>
+ * The first two steps are planned per repository (see {@link FetchPlan}). A
+ * repository is cloned/fetched only once per fetch script. The plug-ins and
+ * fragments of a repository are grouped by tag, every distinct tag is checked
+ * out once followed by the copies of its elements; other elements only check
+ * out their tag if the previous element of the same repository used a
+ * different tag. An existing clone only fetches the tags and branches used by
+ * the script (explicit refspecs for the names the remote repository
+ * advertises as tags or branches, no other tags), the fetch is skipped if all
+ * of them are tags which are already available locally.
+ * </p>
+ * <p>
+ * The operations called by the fetch tasks are generated once per script as
+ * macros, not as targets called using <code>antcall</code> (which parses
+ * the whole script again per call); their parameters are explicit
+ * attributes.
+ * </p>
+ * <p>
+ * The local repositories are kept in the fetch cache
+ * (<code>fetchCacheLocation</code>). The directory of a repository is named
+ * after the last segment of its normalized location followed by a hash of
+ * the normalized location (see {@link #normalizeRepoLocation(String)}), i.e.
+ * equivalent locations share one local repository and names don't collide.
+ * The location of every repository is recorded in
+ * <code>repositories.properties</code> next to it.
+ * </p>
+ * <p>
+ * The generated scripts can be tuned with the following build properties:
+ * <ul>
+ * <li><code>gitFetchThreads</code> - optional number of repositories which
+ * are cloned/fetched in parallel (defaults to <code>1</code>); if greater
+ * than one, all repositories of a fetch script are prepared upfront in a
+ * <code>parallel</code> block</li>
+ * <li><code>gitFetchEngine</code> - optional engine executing the Git
+ * operations; <code>exec</code> (default) runs the native <code>git</code>
+ * executable, <code>jgit</code> uses the JGit based Ant tasks contributed by
+ * this bundle (<code>egit.clone</code>, <code>egit.fetch</code>,
+ * <code>egit.checkout</code>, <code>egit.export</code>) which run within the
+ * build VM and require the (optional) <code>org.eclipse.jgit</code>
+ * bundle</li>
+ * <li><code>gitFetchMode</code> - optional way of getting the content of an
+ * element out of the local repository; <code>checkout</code> (default) checks
+ * out the tag and copies the element from the working tree,
+ * <code>export</code> keeps a bare mirror of the repository and exports the
+ * element directly from the object database (like <code>git archive</code>)
+ * without checking anything out</li>
+ * <li><code>gitCloneDepth</code>, <code>gitCloneFilter</code> - optional
+ * defaults for the <code>depth</code> and <code>filter</code> map file
+ * arguments; the clone options of a repository are taken from its first
+ * element in a fetch script and are only supported by the <code>exec</code>
+ * engine</li>
+ * <li><code>gitMirrorLocation</code> - optional directory holding bare
+ * mirrors of the repositories which can be shared by all builds on a host;
+ * a mirror is refreshed once per build and the clones in the fetch cache
+ * borrow its objects (<code>git clone --reference</code>, i.e. through
+ * alternates) instead of downloading them again</li>
+ * <li><code>gitBundleLocation</code> - optional directory holding Git
+ * bundles of the repositories (<code>git bundle create &lt;name&gt;.bundle
+ * --all</code>, named like the local repository in the fetch cache, see
+ * <code>repositories.properties</code>); before anything is fetched from
+ * the network, a missing local repository is cloned from its bundle and an
+ * existing one fetches the branches and tags of its bundle whenever the
+ * bundle changed. The remote repository is only contacted for tags which
+ * are not in the bundle. A bundle seeding a new clone must not depend on
+ * other commits (no incremental bundle), the clone options
+ * (<code>depth</code>, <code>filter</code>) don't apply to it.</li>
+ * <li><code>gitFetchLocking</code> - optional boolean value indicating that
+ * the fetch cache (and the mirrors) are shared by concurrent builds; every
+ * operation on a local repository is then executed while holding a lock file
+ * next to it (<code>egit.lock</code>). Cloning and fetching require an
+ * exclusive lock. Exporting only requires a shared lock, i.e. builds
+ * exporting different tags of the same repository don't block each other. A
+ * working tree can only hold one tag at a time, therefore the
+ * <code>checkout</code> mode checks out the tag of every element and copies it
+ * while holding an exclusive lock.</li>
+ * <li><code>gitFetchIncremental</code> - optional boolean value indicating
+ * that existing elements in the build directory should be reused if they are
+ * up to date; the id of the Git tree (or blob) of an element is recorded in a
+ * file next to it (<code>&lt;element&gt;.gitId</code>) and an element is only
+ * fetched again if the id of its tag differs. The <code>exec</code> engine
+ * resolves the ids of all elements of a repository with a single
+ * <code>git cat-file --batch-check</code> once the repository has been
+ * prepared. When fetching again, only the changed files are updated
+ * (<code>sync</code> from the working tree in <code>checkout</code> mode, a
+ * diff of both trees with the <code>jgit</code> engine in <code>export</code>
+ * mode; the <code>exec</code> engine extracts the tree into a temporary
+ * directory and copies the files whose content differs).</li>
+ * <li><code>gitCopyStrategy</code> - optional way of copying elements into
+ * the build directory; <code>copy</code> (default) copies the files,
+ * <code>hardlink</code> and <code>reflink</code> export the tree of an element
+ * once into an immutable snapshot in the fetch cache
+ * (<code>.trees/&lt;tree id&gt;</code>) and hard-link or clone
+ * (copy-on-write) its files using <code>cp --link</code> or
+ * <code>cp --reflink=auto</code>. Both are options of the GNU coreutils
+ * <code>cp</code>; the BSD <code>cp</code> (e.g. on macOS) doesn't know them
+ * and thus always copies. If <code>cp</code> fails (e.g. different file
+ * systems), the files which haven't been linked are copied.
+ * The descriptors rewritten by PDE Build (e.g. qualifier replacement) are
+ * always copied so that the snapshot isn't modified through a hard
+ * link; other files must not be modified in place when using
+ * <code>hardlink</code>.</li>
+ * <li><code>gitLockFileOutput</code> - optional file the commit of every
+ * element is recorded in after it has been fetched
+ * (<code>&lt;type&gt;@&lt;id&gt;=&lt;commit id&gt;</code>, a properties
+ * file)</li>
+ * <li><code>gitLockFile</code> - optional lock file (as written by
+ * <code>gitLockFileOutput</code>) pinning elements to the recorded commits;
+ * the commit replaces the tag of an element. Commits which already exist in
+ * the local repository are used without contacting the remote repository.
+ * Otherwise the <code>exec</code> engine tries to fetch the commit directly
+ * (servers only allow this for commits they don't advertise with protocol
+ * version 2 or <code>uploadpack.allowReachableSHA1InWant</code>) and fetches
+ * all branches and tags if that fails; the <code>jgit</code> engine always
+ * fetches all branches and tags.</li>
+ * <li><code>gitRemoteSnapshot</code> - optional boolean value indicating
+ * that the refs advertised by the remote repository should be recorded
+ * after a local repository has been updated
+ * (<code>&lt;local repository&gt;.refs</code>); the next update first asks
+ * the remote for its refs only (<code>git ls-remote</code>) and skips the
+ * fetch if neither the refs nor the tags and branches needed by the script
+ * changed.</li>
+ * <li><code>gitSparseCheckout</code> - optional boolean value indicating
+ * that only the paths of the elements should be written to the working tree
+ * in <code>checkout</code> mode; the paths used by the elements of a
+ * repository are collected per tag and every checkout is restricted to them
+ * (sparse checkout). A repository is checked out completely as soon as one of
+ * its elements has no <code>path</code>. When switching the option off again,
+ * the local repositories have to be removed from the fetch cache.</li>
+ * <li><code>gitFetchWorktrees</code> - optional boolean value indicating
+ * that every tag of a repository should be checked out into its own worktree
+ * in <code>checkout</code> mode
+ * (<code>&lt;local repository&gt;.worktrees/&lt;tag&gt;</code>, a linked
+ * worktree created by <code>git worktree add</code>; the JGit engine keeps a
+ * separate index per worktree instead). Elements using different tags of the
+ * same repository then don't switch the working tree back and forth, a tag is
+ * checked out at most once per script and the worktrees are reused by later
+ * builds. When locking, the lock is held per worktree.</li>
+ * <li><code>gitCacheMaxSize</code> - optional maximum size of the fetch cache
+ * in bytes (the units <code>k</code>, <code>m</code> and <code>g</code> may
+ * be appended); the last use of every repository is recorded
+ * (<code>&lt;local repository&gt;.used</code>) and the least recently used
+ * repositories and tree snapshots are evicted at the start of a build until
+ * the cache fits again (<code>egit.cache</code>). Repositories used by the
+ * current fetch script and repositories locked by other builds are kept.
+ * Afterwards, repositories with many loose objects are packed in the
+ * background (<code>git gc --auto</code>, requires the native
+ * <code>git</code> executable).</li>
+ * <li><code>gitFetchReport</code> - optional CSV file the wall time and
+ * transfer volume of the fetch are written to (<code>egit.report</code>):
+ * one line whenever a repository is prepared (the objects and bytes
+ * received by its local repository while it's cloned/fetched; a repository
+ * already prepared by the script shows up again without receiving anything)
+ * and one line per element (the files and bytes copied into the build
+ * directory; the time includes the checkout and, for the first element of a
+ * repository, its preparation). The report is started over by every
+ * build.</li>
+ * <li><code>gitFetchDryRun</code> - optional CSV file which turns the fetch
+ * into a dry run; no tasks are generated for the elements, instead every
+ * element is resolved against the fetch cache while its fetch script is
+ * generated and the report tells which repositories would be cloned or
+ * fetched, which tags are missing and how many bytes would be copied (see
+ * {@link DryRun}, requires the <code>org.eclipse.jgit</code> bundle). The
+ * files PDE Build reads while generating the scripts (e.g. the
+ * <code>feature.xml</code> of the features) are still fetched.</li>
+ * </ul>
  * </p>
  */
 @SuppressWarnings("restriction")
-public class GITFetchTaskFactory implements IFetchFactory {
+public class GITFetchTaskFactory implements IFetchFactory, IGitFetchConstants {
 
 	public static final String ID = "GIT"; //$NON-NLS-1$
 
 	public static final String OVERRIDE_TAG = ID;
 
-	private static final String TARGET_GET_ELEMENT_FROM_REPO = "GitFetchElementFromLocalRepo"; //$NON-NLS-1$
+	// copied from FetchScriptGenerator to be independent from changes there
+	public static String PROP_FETCH_CACHE_LOCATION = "fetchCacheLocation"; //$NON-NLS-1$
 
-	private static final String TARGET_GET_FILE_FROM_REPO = "GitFetchFileFromLocalRepo"; //$NON-NLS-1$
+	public static String DEFAULT_FETCH_CACHE_LOCATION = "${basedir}/scmCache"; //$NON-NLS-1$
 
-	private static final String TARGET_CLONE_REPO = "GitCloneRepoToLocalRepo"; //$NON-NLS-1$
+	private static final int REPO_NAME_PREFIX_LENGTH = 32;
 
-	private static final String TARGET_UPDATE_REPO = "GitUpdateLocalRepo"; //$NON-NLS-1$
+	// default ports of git, ssh, http and https
+	private static final String[] DEFAULT_PORTS = { ":9418", ":22", ":80", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			":443" }; //$NON-NLS-1$
 
-	private static final String TARGET_CHECKOUT_TAG = "GitCheckoutTagInLocalRepo"; //$NON-NLS-1$
+	// the plans of the fetch scripts currently being generated
+	private final Map<IAntScript, FetchPlan> plans = new IdentityHashMap<IAntScript, FetchPlan>();
 
-	private static final String SEPARATOR = ","; //$NON-NLS-1$
+	private int planCount;
 
-	// Git specific keys used in the map being passed around.
-	private static final String KEY_REPO = "repo"; //$NON-NLS-1$
+	// the scopes of the macro calls of all fetch scripts
+	private final AbstractFetchTargets.CallScopes scopes = new AbstractFetchTargets.CallScopes();
 
-	private static final String KEY_PATH = "path"; //$NON-NLS-1$
+	// the local repository names by repository location
+	private final Map<String, String> repoNames = new HashMap<String, String>();
 
-	private static final String KEY_PREBUILT = "prebuilt"; //$NON-NLS-1$
+	// the parsed map file entries by their arguments
+	private final Map<String, MapFileEntry> mapFileEntries = new HashMap<String, MapFileEntry>();
 
-	// Properties used in the Git part of the scripts
-	private static final String PROP_DESTINATIONFOLDER = "destinationFolder"; //$NON-NLS-1$
+	// one instance of every repository location of the parsed entries
+	private final Map<String, String> repoLocations = new HashMap<String, String>();
 
-	private static final String PROP_GITREPO = "gitRepo"; //$NON-NLS-1$
+	// the commits pinned by the lock file (loaded on first use)
+	private Properties lockedCommits;
 
-	private static final String PROP_GITREPO_LOCAL_PATH = "gitRepoLocalPath"; //$NON-NLS-1$
+	// the elements resolved by a dry run (created on first use)
+	private DryRun dryRun;
 
-	private static final String PROP_PATH = "path"; //$NON-NLS-1$
+	// the build properties tuning the generated scripts (read on first use)
+	private FetchOptions options;
 
-	private static final String PROP_FILE = "file"; //$NON-NLS-1$
+	// the generators of the macros (created on first use)
+	private GitEngine engine;
 
-	private static final String PROP_TAG = "tag"; //$NON-NLS-1$
+	private RepositoryTargets repositories;
 
-	private static final String PROP_FILETOCHECK = "fileToCheck"; //$NON-NLS-1$
+	private ElementTargets elements;
 
-	// copied from FetchScriptGenerator to be independent from changes there
-	public static String PROP_FETCH_CACHE_LOCATION = "fetchCacheLocation"; //$NON-NLS-1$
+	/**
+	 * Indicates if a tag is a full commit id (e.g. pinned by a lock file).
+	 * 
+	 * @param tag
+	 * @return <code>true</code> if the tag is a commit id
+	 */
+	static boolean isCommitId(String tag) {
+		if (tag.length() != 40)
+			return false;
+		for (int i = 0; i < tag.length(); i++) {
+			if (Character.digit(tag.charAt(i), 16) == -1)
+				return false;
+		}
+		return true;
+	}
 
-	public static String DEFAULT_FETCH_CACHE_LOCATION = "${basedir}/scmCache"; //$NON-NLS-1$
+	/**
+	 * Computes a stable hash of a string (the first 64 bits of its SHA-1 in
+	 * hex).
+	 * 
+	 * @param value
+	 * @return the hash
+	 */
+	private static String hash(String value) {
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest( //$NON-NLS-1$
+					value.getBytes("UTF-8")); //$NON-NLS-1$
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage());
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+		final StringBuffer b = new StringBuffer(16);
+		for (int i = 0; i < 8; i++) {
+			b.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+			b.append(Character.forDigit(digest[i] & 0xf, 16));
+		}
+		return b.toString();
+	}
 
-	private static void printArg(IAntScript script, String value) {
-		final Map<String, String> params = new HashMap<String, String>(1);
-		params.put("value", value); //$NON-NLS-1$
-		script.printElement("arg", params); //$NON-NLS-1$
+	/**
+	 * Normalizes a repository location so that equivalent locations share
+	 * one local repository. The protocol, the user name, default ports,
+	 * trailing slashes and a trailing <code>.git</code> are removed and the
+	 * host name is lower-cased, e.g. <code>git://host/repo.git</code>,
+	 * <code>https://host/repo</code> and <code>git@host:repo.git</code> are
+	 * all normalized to <code>host/repo</code>. Local locations (
+	 * <code>file://</code> or plain paths) are normalized to the path.
+	 * 
+	 * @param repoLocation
+	 * @return the normalized location
+	 */
+	static String normalizeRepoLocation(String repoLocation) {
+		final String location = repoLocation.trim();
+		String host = null;
+		String path;
+		final int scheme = location.indexOf("://"); //$NON-NLS-1$
+		final int colon = location.indexOf(':');
+		final int slash = location.indexOf('/');
+		if (scheme > 0 && scheme == colon) {
+			final String rest = location.substring(scheme + 3);
+			if ("file".equalsIgnoreCase(location.substring(0, scheme))) { //$NON-NLS-1$
+				path = rest;
+			} else {
+				final int pathStart = rest.indexOf('/');
+				host = pathStart < 0 ? rest : rest.substring(0, pathStart);
+				path = pathStart < 0 ? "" : rest.substring(pathStart); //$NON-NLS-1$
+			}
+		} else if (colon > 1 && (slash < 0 || colon < slash)) {
+			// scp-like syntax (a single letter is a drive letter)
+			host = location.substring(0, colon);
+			path = location.substring(colon + 1);
+		} else {
+			path = location;
+		}
+
+		final StringBuffer b = new StringBuffer(location.length());
+		if (host != null) {
+			host = host.substring(host.lastIndexOf('@') + 1).toLowerCase();
+			for (final String port : DEFAULT_PORTS) {
+				if (host.endsWith(port)) {
+					host = host.substring(0, host.length() - port.length());
+					break;
+				}
+			}
+			b.append(host);
+			if (!path.startsWith("/")) //$NON-NLS-1$
+				b.append('/');
+		}
+		b.append(path);
+		while (b.length() > 1 && b.charAt(b.length() - 1) == '/')
+			b.setLength(b.length() - 1);
+		if (b.length() > 4 && b.toString().endsWith(".git")) { //$NON-NLS-1$
+			b.setLength(b.length() - 4);
+			while (b.length() > 1 && b.charAt(b.length() - 1) == '/')
+				b.setLength(b.length() - 1);
+		}
+		return b.toString();
 	}
 
 	private void addProjectReference(Map<String, String> entryInfos) {
@@ -126,89 +409,23 @@ private void addProjectReference(Map<String, String> entryInfos) {
 
 	@Override
 	public void addTargets(IAntScript script) {
-		final Map<String, String> params = new HashMap<String, String>(3);
-		final List<String> args = new ArrayList<String>(5);
+		// a dry run only needs the targets for the files PDE Build reads
+		if (getOptions().getDryRunReport() != null) {
+			try {
+				writeDryRun();
+			} catch (final CoreException e) {
+				// addTargets can't throw a CoreException; the fetch scripts
+				// are generated by an Ant task, which reports a
+				// BuildException like a CoreException of PDE Build
+				throw new BuildException(e.getMessage(), e);
+			}
+			if (!plans.containsKey(script))
+				return;
+		}
 
+		final FetchPlan plan = plans.remove(script);
 		script.printComment("Start of common Git fetch factory targets."); //$NON-NLS-1$
-
-		// determine if clone git operation should be skipped
-		script.printTargetDeclaration(
-				"GitCheckSkipClone", null, null, null, null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		printConditionStart(script, "skipClone", null, null); //$NON-NLS-1$
-		script.printStartTag("or"); //$NON-NLS-1$
-		script.incrementIdent();
-		printAvailableFile(script,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH));
-		printAvailableFile(script, Utils.getPropertyFormat(PROP_FILETOCHECK));
-		script.decrementIdent();
-		script.printEndTag("or"); //$NON-NLS-1$
-		printConditionEnd(script);
-		script.printTargetEnd();
-
-		// clone repo task
-		script.printTargetDeclaration(TARGET_CLONE_REPO,
-				"GitCheckSkipClone", null, "skipClone", null); //$NON-NLS-1$ //$NON-NLS-2$
-		printGitRepoBaseLocationDefault(script);
-		params.put("dir", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
-		script.printElement("mkdir", params); //$NON-NLS-1$
-		args.add(Utils.getPropertyFormat(PROP_GITREPO));
-		args.add("."); //$NON-NLS-1$
-		printGitTask(script, "clone", args); //$NON-NLS-1$
-		script.printTargetEnd();
-
-		// pull repo task
-		script.printTargetDeclaration(TARGET_UPDATE_REPO, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		args.clear();
-		args.add("--all"); //$NON-NLS-1$
-		printGitTask(script, "fetch", null); //$NON-NLS-1$
-		script.printTargetEnd();
-
-		// checkout tag task
-		script.printTargetDeclaration(TARGET_CHECKOUT_TAG, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		args.clear();
-		args.add("--force"); //$NON-NLS-1$
-		args.add(Utils.getPropertyFormat(PROP_TAG));
-		printGitTask(script, "checkout", args); //$NON-NLS-1$
-		script.printTargetEnd();
-
-		// copy an elements from repo to the destination
-		script.printTargetDeclaration(TARGET_GET_ELEMENT_FROM_REPO, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		params.clear();
-		params.put("todir", Utils.getPropertyFormat(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
-		script.printStartTag("copy", params); //$NON-NLS-1$
-		script.incrementIdent();
-		params.clear();
-		params.put(
-				"dir", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH) + "/" + Utils.getPropertyFormat(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
-		script.printElement("fileset", params); //$NON-NLS-1$
-		script.decrementIdent();
-		script.printEndTag("copy"); //$NON-NLS-1$
-		script.printTargetEnd();
-
-		// copy a file from repo to the destination
-		script.printTargetDeclaration(TARGET_GET_FILE_FROM_REPO, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		params.clear();
-		params.put(
-				"file", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH) + "/" + Utils.getPropertyFormat(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
-		params.put(
-				"tofile", Utils.getPropertyFormat(PROP_DESTINATIONFOLDER) + "/" + Utils.getPropertyFormat(PROP_FILE)); //$NON-NLS-1$ //$NON-NLS-2$
-		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
-		script.printElement("copy", params); //$NON-NLS-1$
-		script.printTargetEnd();
-
+		printMacros(script, plan);
 		script.printComment("End of common Git fetch factory targets."); //$NON-NLS-1$
 	}
 
@@ -222,18 +439,46 @@ private String asLocalRepo(String repoLocation) {
 		final StringBuffer b = new StringBuffer(repoLocation.length());
 		b.append(Utils.getPropertyFormat(PROP_FETCH_CACHE_LOCATION))
 				.append('/');
-		for (int i = 0; i < repoLocation.length(); i++) {
-			final char c = repoLocation.charAt(i);
-			if (Character.isLetterOrDigit(c)) {
+		b.append(asLocalRepoName(repoLocation));
+		if (b.charAt(b.length() - 1) == '/')
+			b.setLength(b.length() - 1);
+		// bare mirrors must not clash with clones having a working tree
+		if (getOptions().isExportMode())
+			b.append(".git"); //$NON-NLS-1$
+		return b.toString();
+	}
+
+	/**
+	 * Generates a file system friendly name for the specified repository. The
+	 * name consists of a readable prefix (the last segment of the normalized
+	 * location) and a hash of the normalized location, i.e. it has a bounded
+	 * length and is the same for equivalent locations.
+	 * 
+	 * @param repoLocation
+	 * @return the name
+	 */
+	private String asLocalRepoName(String repoLocation) {
+		String name = repoNames.get(repoLocation);
+		if (name != null)
+			return name;
+		final String normalized = normalizeRepoLocation(repoLocation);
+		final String lastSegment = normalized.substring(normalized
+				.lastIndexOf('/') + 1);
+		final StringBuffer b = new StringBuffer(REPO_NAME_PREFIX_LENGTH + 17);
+		for (int i = 0; i < lastSegment.length()
+				&& i < REPO_NAME_PREFIX_LENGTH; i++) {
+			final char c = lastSegment.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '.' || c == '-') {
 				b.append(c);
 			} else {
 				// replace with '_'
 				b.append('_');
 			}
 		}
-		if (b.charAt(b.length() - 1) == '/')
-			return b.substring(0, b.length() - 1);
-		return b.toString();
+		b.append('-').append(hash(normalized));
+		name = b.toString();
+		repoNames.put(repoLocation, name);
+		return name;
 	}
 
 	/**
@@ -278,290 +523,273 @@ private String asReference(String repoLocation, String path,
 	@Override
 	public void generateRetrieveElementCall(Map entryInfos, IPath destination,
 			IAntScript script) {
-		final String type = (String) entryInfos.get(KEY_ELEMENT_TYPE);
-		final boolean prebuilt = Boolean.valueOf(
-				(String) entryInfos.get(KEY_PREBUILT)).booleanValue();
-		final String gitRepo = (String) entryInfos.get(KEY_REPO);
-		final String localGitRepo = asLocalRepo(gitRepo);
-		final String path = (String) entryInfos.get(KEY_PATH);
-		final String tag = (String) entryInfos
-				.get(IFetchFactory.KEY_ELEMENT_TAG);
-
-		// set required property defaults
-		printGitRepoBaseLocationDefault(script);
-
-		final String gitCopyTarget;
-		IPath locationToCheck = null;
-		final Map<String, String> params = new HashMap<String, String>(5);
-		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-		if (prebuilt) {
-			// if we have a pre-built JAR then we want to put it right in the
-			// plugins/features directory
-			// and not a sub-directory so strip off last segment
-			params.put(PROP_DESTINATIONFOLDER, destination
-					.removeLastSegments(1).toString());
-			params.put(PROP_PATH, path);
-
-			// extract file name from path
-			final String prebuiltJarFile = new Path(path).lastSegment();
-			params.put(PROP_FILE, prebuiltJarFile);
-
-			// if we have a pre-built plug-in then we want to check the
-			// existence of the JAR file
-			// rather than the plug-in manifest.
-			locationToCheck = destination.removeLastSegments(1).append(
-					prebuiltJarFile);
-
-			// get single file
-			gitCopyTarget = TARGET_GET_FILE_FROM_REPO;
-		} else {
-			params.put(PROP_DESTINATIONFOLDER, destination.toString());
-			if (path != null) {
-				params.put(PROP_PATH, new Path(path).makeRelative().toString());
-			}
+		if (getOptions().getDryRunReport() != null) {
+			resolveDryRun(entryInfos, destination);
+			return;
+		}
+		getElementTargets().printElementCall(script, entryInfos, destination,
+				getPlannedRepository(script, entryInfos));
+	}
 
-			// check for existence of element descriptor
-			if (type.equals(ELEMENT_TYPE_FEATURE)) {
-				locationToCheck = destination
-						.append(Constants.FEATURE_FILENAME_DESCRIPTOR);
-			} else if (type.equals(ELEMENT_TYPE_PLUGIN)) {
-				locationToCheck = destination
-						.append(Constants.PLUGIN_FILENAME_DESCRIPTOR);
-			} else if (type.equals(ELEMENT_TYPE_FRAGMENT)) {
-				locationToCheck = destination
-						.append(Constants.FRAGMENT_FILENAME_DESCRIPTOR);
-			} else if (type.equals(ELEMENT_TYPE_BUNDLE)) {
-				locationToCheck = destination
-						.append(Constants.BUNDLE_FILENAME_DESCRIPTOR);
-			}
+	@Override
+	public void generateRetrieveFilesCall(final Map entryInfos,
+			IPath destination, final String[] files, IAntScript script) {
+		getElementTargets().printFilesCall(script, entryInfos, destination,
+				files, getPlannedRepository(script, entryInfos));
+	}
+
+	/**
+	 * Returns a clone option of a map file entry falling back to the build
+	 * property.
+	 * 
+	 * @param entryInfos
+	 * @param key
+	 *            the map file argument
+	 * @param defaultValue
+	 *            the value of the build property providing the default (may
+	 *            be <code>null</code>)
+	 * @return the option value or <code>null</code> if not set
+	 */
+	private String getCloneOption(Map entryInfos, String key,
+			String defaultValue) {
+		final String value = (String) entryInfos.get(key);
+		if (value == null)
+			return defaultValue;
+		if (value.trim().length() == 0)
+			return null;
+		return value.trim();
+	}
 
-			// copy complete element
-			gitCopyTarget = TARGET_GET_ELEMENT_FROM_REPO;
+	/**
+	 * Returns the generator of the element macros, creating the generators
+	 * for the selected engine and mode on first use.
+	 * 
+	 * @return the element macros
+	 */
+	private ElementTargets getElementTargets() {
+		if (elements == null) {
+			final FetchOptions fetchOptions = getOptions();
+			engine = fetchOptions.isJGitEngine() ? new JGitEngine(
+					fetchOptions, scopes) : new ExecGitEngine(fetchOptions,
+					scopes);
+			repositories = new RepositoryTargets(fetchOptions, scopes, engine);
+			elements = fetchOptions.isExportMode() ? new ExportTargets(
+					fetchOptions, scopes, engine, repositories)
+					: new CheckoutTargets(fetchOptions, scopes, engine,
+							repositories);
 		}
+		return elements;
+	}
 
-		// check for availability of element in destination
-		if (locationToCheck != null) {
-			params.put(PROP_FILETOCHECK, locationToCheck.toString());
-			printAvailableTask(locationToCheck.toString(),
-					locationToCheck.toString(), script);
-			// plug-ins/fragments may not have an xml descriptor anymore, thus
-			// also check for MANIFEST.MF
-			if (!prebuilt
-					&& (type.equals(IFetchFactory.ELEMENT_TYPE_PLUGIN) || type
-							.equals(IFetchFactory.ELEMENT_TYPE_FRAGMENT))) {
-				printAvailableTask(locationToCheck.toString(), destination
-						.append(Constants.BUNDLE_FILENAME_DESCRIPTOR)
-						.toString(), script);
+	/**
+	 * Returns the commit pinned for an element by the lock file.
+	 * 
+	 * @param entryInfos
+	 * @return the commit id or <code>null</code> if no lock file is used or
+	 *         the element isn't listed
+	 * @throws CoreException
+	 *             if the lock file cannot be read
+	 */
+	private String getLockedCommit(Map entryInfos) throws CoreException {
+		final String lockFile = getOptions().getLockFile();
+		if (lockFile == null)
+			return null;
+		if (lockedCommits == null) {
+			final Properties commits = new Properties();
+			try {
+				final InputStream in = new BufferedInputStream(
+						new FileInputStream(lockFile));
+				try {
+					commits.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (final IOException e) {
+				final String message = NLS.bind(Messages.error_readingLockFile,
+						lockFile, e.getMessage());
+				throw new CoreException(new Status(IStatus.ERROR,
+						IPDEBuildConstants.PI_PDEBUILD, 1, message, e));
 			}
+			lockedCommits = commits;
 		}
+		final String commit = lockedCommits.getProperty(ElementTargets
+				.asLockKey(entryInfos));
+		return commit != null && commit.trim().length() > 0 ? commit.trim()
+				: null;
+	}
 
-		// clone the Git repo to a local repo and checkout the tag
-		printCloneRepoAndCheckoutTagTasks(script, gitRepo, localGitRepo, tag,
-				locationToCheck);
+	/**
+	 * Returns the options of the build, read once per build (a factory is
+	 * created for every build).
+	 * 
+	 * @return the options
+	 */
+	private FetchOptions getOptions() {
+		if (options == null)
+			options = new FetchOptions();
+		return options;
+	}
 
-		// copy the content into the destination
-		script.printAntCallTask(gitCopyTarget, true, params);
+	/**
+	 * Returns the plan of the specified fetch script.
+	 * 
+	 * @param script
+	 * @return the plan (never <code>null</code>)
+	 */
+	private FetchPlan getPlan(IAntScript script) {
+		FetchPlan plan = plans.get(script);
+		if (plan == null) {
+			plan = new FetchPlan(String.valueOf(++planCount));
+			plans.put(script, plan);
+		}
+		return plan;
 	}
 
-	@Override
-	public void generateRetrieveFilesCall(final Map entryInfos,
-			IPath destination, final String[] files, IAntScript script) {
+	/**
+	 * Returns the planned repository of an element, adding the repository to
+	 * the plan of the script if necessary.
+	 * 
+	 * @param script
+	 * @param entryInfos
+	 * @return the planned repository
+	 */
+	private FetchPlan.PlannedRepository getPlannedRepository(
+			IAntScript script, Map entryInfos) {
 		final String gitRepo = (String) entryInfos.get(KEY_REPO);
-		final String localGitRepo = asLocalRepo(gitRepo);
-		final String path = (String) entryInfos.get(KEY_PATH);
-		final String tag = (String) entryInfos
-				.get(IFetchFactory.KEY_ELEMENT_TAG);
-
-		// set required property defaults
-		printGitRepoBaseLocationDefault(script);
-
-		// clone the Git repo to a local repo and checkout the tag
-		printCloneRepoAndCheckoutTagTasks(script, gitRepo, localGitRepo, tag,
-				null);
-
-		// copy files to destination
-		final Map<String, String> params = new HashMap<String, String>(4);
-		for (int i = 0; i < files.length; i++) {
-			final String file = files[i];
-			IPath filePath;
-			if (path != null) {
-				filePath = new Path(path).append(file);
-			} else {
-				filePath = new Path((String) entryInfos.get(KEY_ELEMENT_NAME))
-						.append(file);
-			}
-
-			params.clear();
-			params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-			params.put(PROP_DESTINATIONFOLDER, destination.toString());
-			params.put(PROP_PATH, filePath.toString());
-			params.put(PROP_FILE, file);
-			script.printAntCallTask(TARGET_GET_FILE_FROM_REPO, true, params);
-		}
+		return getPlan(script).getRepository(gitRepo, asLocalRepo(gitRepo),
+				asLocalRepoName(gitRepo),
+				getCloneOption(entryInfos, KEY_DEPTH, getOptions()
+						.getCloneDepth()),
+				getCloneOption(entryInfos, KEY_FILTER, getOptions()
+						.getCloneFilter()));
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public void parseMapFileEntry(String repoSpecificentry,
 			Properties overrideTags, Map entryInfos) throws CoreException {
-		// build up the table of arguments in the map file entry
-		final String[] arguments = Utils.getArrayFromStringWithBlank(
-				repoSpecificentry, SEPARATOR);
-		final Map<String, String> table = new HashMap<String, String>();
-		for (int i = 0; i < arguments.length; i++) {
-			final String arg = arguments[i];
-			// if we have at least one arg without an equals sign, then
-			// revert back to the legacy parsing
-			final int index = arg.indexOf('=');
-			if (index == -1) {
+		// the report of a dry run is created before the first element is
+		// resolved (and then appended to by every fetch script)
+		if (getOptions().getDryRunReport() != null) {
+			try {
+				getDryRun().start(getOptions().getDryRunReport());
+			} catch (final NoClassDefFoundError e) {
+				// JGit is an optional dependency
 				final String message = NLS.bind(
-						Messages.error_incorrectDirectoryEntryKeyValue,
-						entryInfos.get(KEY_ELEMENT_NAME));
+						Messages.error_dryRunRequiresJGit, getOptions()
+								.getDryRunReport());
 				throw new CoreException(new Status(IStatus.ERROR,
-						IPDEBuildConstants.PI_PDEBUILD, 1, message, null));
+						IPDEBuildConstants.PI_PDEBUILD, 1, message, e));
 			}
-			final String key = arg.substring(0, index);
-			final String value = arg.substring(index + 1);
-			table.put(key, value);
 		}
 
-		// sanity check that all required attributes are present
-		if (!table.containsKey(KEY_REPO)) {
-			final String message = NLS.bind(
-					Messages.error_directoryEntryRequiresRepo,
-					entryInfos.get(KEY_ELEMENT_NAME));
-			throw new CoreException(new Status(IStatus.ERROR,
-					IPDEBuildConstants.PI_PDEBUILD, 1, message, null));
+		// the same arguments are parsed only once per build (PDE Build asks
+		// for every element of every map, sometimes several times)
+		MapFileEntry entry = mapFileEntries.get(repoSpecificentry);
+		if (entry == null) {
+			entry = MapFileEntry.parse(repoSpecificentry, entryInfos
+					.get(KEY_ELEMENT_NAME), repoLocations);
+			mapFileEntries.put(repoSpecificentry, entry);
 		}
 
 		// add entries to the entryInfo map here instead of inside the loop
-		// to avoid contaminating entryInfos
+		// to avoid contaminating entryInfos (a commit pinned by the lock
+		// file wins over any tag)
+		final String lockedCommit = getLockedCommit(entryInfos);
 		final String overrideTag = overrideTags != null ? overrideTags
 				.getProperty(OVERRIDE_TAG) : null;
-		entryInfos
-				.put(IFetchFactory.KEY_ELEMENT_TAG, (overrideTag != null
-						&& overrideTag.trim().length() != 0 ? overrideTag
-						: table.get(IFetchFactory.KEY_ELEMENT_TAG)));
-		entryInfos.put(KEY_REPO, table.get(KEY_REPO));
-		if (table.get(KEY_PATH) != null)
-			entryInfos.put(KEY_PATH, new Path(table.get(KEY_PATH))
-					.makeRelative().removeTrailingSeparator().toString()); // sanitize
-																			// path
-		entryInfos.put(KEY_PREBUILT, table.get(KEY_PREBUILT));
+		if (lockedCommit != null)
+			entryInfos.put(IFetchFactory.KEY_ELEMENT_TAG, lockedCommit);
+		else
+			entryInfos.put(IFetchFactory.KEY_ELEMENT_TAG,
+					(overrideTag != null && overrideTag.trim().length() != 0 ? overrideTag
+							: entry.tag));
+		entryInfos.put(KEY_REPO, entry.repo);
+		if (entry.path != null)
+			entryInfos.put(KEY_PATH, entry.path);
+		entryInfos.put(KEY_PREBUILT, entry.prebuilt);
+		entryInfos.put(KEY_DEPTH, entry.depth);
+		entryInfos.put(KEY_FILTER, entry.filter);
 		addProjectReference(entryInfos);
 	}
 
-	private void printAvailableFile(IAntScript script, String file) {
-		script.println("<available file=\"" + file + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
-	}
-
 	/**
-	 * Print the <code>available</code> Ant task to this script. This task sets
-	 * a property value if the given file exists at runtime.
+	 * Prints the common macros of a fetch script.
 	 * 
-	 * @param property
-	 *            the property to set
-	 * @param file
-	 *            the file to look for
+	 * @param script
+	 * @param plan
+	 *            the plan of the script (may be <code>null</code>)
 	 */
-	private void printAvailableTask(String property, String file,
-			IAntScript script) {
-		final Map<String, String> params = new HashMap<String, String>(2);
-		params.put("property", property); //$NON-NLS-1$
-		params.put("file", file); //$NON-NLS-1$
-		script.printElement("available", params); //$NON-NLS-1$
+	private void printMacros(IAntScript script, FetchPlan plan) {
+		final ElementTargets elements = getElementTargets();
+		repositories.printMacros(script);
+		elements.printMacros(script);
+		if (plan != null) {
+			// tags used by the repos of the script (defined at project level
+			// and thus available to all macros)
+			repositories.printRepositoryProperties(script, plan);
+			repositories.printPrepareLocalReposMacro(script, plan);
+			elements.printCopiesMacros(script, plan);
+			repositories.printCacheMaintenance(script, plan);
+			engine.printProjectTasks(script);
+		}
 	}
 
-	private void printCloneRepoAndCheckoutTagTasks(IAntScript script,
-			String gitRepo, String localGitRepo, String tag,
-			IPath locationToCheckIfPluginLocal) {
-		// determine availability of local repo (done to avoid unnecessary Git
-		// operations)
-		printAvailableTask(localGitRepo, localGitRepo, script);
-
-		// pull if already cloned
-		final Map<String, String> params = new HashMap<String, String>(5);
-		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-		if (locationToCheckIfPluginLocal != null)
-			params.put(PROP_FILETOCHECK,
-					locationToCheckIfPluginLocal.toString());
-		script.printAntCallTask(TARGET_UPDATE_REPO, true, params);
-
-		// clone if not cloned
-		params.put(PROP_GITREPO, gitRepo);
-		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-		if (locationToCheckIfPluginLocal != null)
-			params.put(PROP_FILETOCHECK,
-					locationToCheckIfPluginLocal.toString());
-		script.printAntCallTask(TARGET_CLONE_REPO, true, params);
-
-		// checkout the tag
-		params.clear();
-		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-		params.put(PROP_TAG, tag);
-		if (locationToCheckIfPluginLocal != null)
-			params.put(PROP_FILETOCHECK,
-					locationToCheckIfPluginLocal.toString());
-		script.printAntCallTask(TARGET_CHECKOUT_TAG, true, params);
-
-		// re-determine availability of local repo (done to avoid unnecessary
-		// Git operations)
-		printAvailableTask(localGitRepo, localGitRepo, script);
-	}
+	/**
+	 * Resolves an element for the dry run instead of generating its fetch
+	 * tasks. The element is checked like the generated script would at
+	 * runtime.
+	 * 
+	 * @param entryInfos
+	 * @param destination
+	 */
+	private void resolveDryRun(Map entryInfos, IPath destination) {
+		final String type = (String) entryInfos.get(KEY_ELEMENT_TYPE);
+		final boolean prebuilt = Boolean.valueOf(
+				(String) entryInfos.get(KEY_PREBUILT)).booleanValue();
+		final String gitRepo = (String) entryInfos.get(KEY_REPO);
+		final String path = (String) entryInfos.get(KEY_PATH);
 
-	private void printConditionEnd(IAntScript script) {
-		script.decrementIdent();
-		script.printEndTag("condition"); //$NON-NLS-1$
-	}
+		final IPath locationToCheck = prebuilt ? destination
+				.removeLastSegments(1).append(new Path(path).lastSegment())
+				: ElementTargets.asDescriptor(type, destination);
+		String[] filesToCheck = null;
+		String idFile = null;
+		if (getOptions().isIncremental()) {
+			idFile = (prebuilt ? locationToCheck : destination).toString()
+					+ OBJECT_ID_FILE_SUFFIX;
+		} else if (locationToCheck != null) {
+			if (!prebuilt
+					&& (type.equals(IFetchFactory.ELEMENT_TYPE_PLUGIN) || type
+							.equals(IFetchFactory.ELEMENT_TYPE_FRAGMENT)))
+				filesToCheck = new String[] {
+						locationToCheck.toString(),
+						destination.append(Constants.BUNDLE_FILENAME_DESCRIPTOR)
+								.toString() };
+			else
+				filesToCheck = new String[] { locationToCheck.toString() };
+		}
 
-	private void printConditionStart(IAntScript script, String property,
-			String value, String elseValue) {
-		script.printTabs();
-		script.print("<condition"); //$NON-NLS-1$
-		script.printAttribute("property", property, true); //$NON-NLS-1$
-		script.printAttribute("value", value, false); //$NON-NLS-1$
-		script.printAttribute("else", elseValue, false); //$NON-NLS-1$
-		script.print(">"); //$NON-NLS-1$
-		script.println();
-		script.incrementIdent();
+		getDryRun().addElement(ElementTargets.asLockKey(entryInfos), gitRepo,
+				asLocalRepo(gitRepo), (String) entryInfos
+						.get(IFetchFactory.KEY_ELEMENT_TAG), path != null ? path
+						: "", filesToCheck, idFile); //$NON-NLS-1$
 	}
 
-	private void printGitRepoBaseLocationDefault(IAntScript script) {
-		script.println("<property name=\"" + PROP_FETCH_CACHE_LOCATION + "\" value=\"" + DEFAULT_FETCH_CACHE_LOCATION + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	private DryRun getDryRun() {
+		if (dryRun == null)
+			dryRun = new DryRun();
+		return dryRun;
 	}
 
-	private void printGitTask(IAntScript script, String commandName, List args) {
-		// print command
-		final StringBuffer m = new StringBuffer();
-		m.append("[GIT] "); //$NON-NLS-1$
-		m.append(Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH));
-		m.append(" >> git ").append(commandName); //$NON-NLS-1$
-		if (args != null) {
-			for (int i = 0; i < args.size(); i++) {
-				m.append(" ").append(args.get(i)); //$NON-NLS-1$
-			}
-		}
-		script.printEchoTask(null, m.toString(), "info"); //$NON-NLS-1$
-
-		final Map<String, String> params = new HashMap<String, String>(3);
-		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
-		params.put("dir", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
-		params.put("failOnError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
-		script.printStartTag("exec", params); //$NON-NLS-1$
-		script.incrementIdent();
-
-		// cmd
-		printArg(script, commandName);
-
-		// append arguments
-		if (args != null) {
-			for (int i = 0; i < args.size(); i++) {
-				final String arg = (String) args.get(i);
-				printArg(script, arg);
-			}
-		}
-
-		script.decrementIdent();
-		script.printEndTag("exec"); //$NON-NLS-1$
+	/**
+	 * Appends the elements of the current fetch script to the report of the
+	 * dry run.
+	 * 
+	 * @throws CoreException
+	 *             if the report cannot be written
+	 */
+	private void writeDryRun() throws CoreException {
+		getDryRun().write(getOptions().getDryRunReport());
 	}
 }
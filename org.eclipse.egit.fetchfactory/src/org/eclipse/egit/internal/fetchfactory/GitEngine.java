@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.pde.build.IAntScript;
+
+/**
+ * The engine executing the Git operations of the fetch scripts
+ * (<code>gitFetchEngine</code>). An engine prints the tasks working on a
+ * repository; the macros executing them are the same for all engines (see
+ * {@link RepositoryTargets} and {@link ElementTargets}). The tasks are
+ * printed into the macros, i.e. they refer to the parameters of the macro
+ * (<code>@{name}</code>) and to the properties local to its call.
+ */
+abstract class GitEngine extends AbstractFetchTargets {
+
+	GitEngine(FetchOptions options, CallScopes scopes) {
+		super(options, scopes);
+	}
+
+	/**
+	 * Formats the paths needed by the elements of a tag for a sparse
+	 * checkout.
+	 *
+	 * @param paths
+	 *            the paths (an empty path for the complete tree)
+	 * @return the value of the parameter passed to the checkout
+	 */
+	abstract String asSparsePaths(Set<String> paths);
+
+	/**
+	 * Indicates if the ids of the trees (or blobs) compared by the elements
+	 * are resolved per repository instead of per element.
+	 *
+	 * @return <code>true</code> if the object ids are resolved per repository
+	 */
+	abstract boolean isObjectIdBatched();
+
+	/**
+	 * Indicates if the tasks exporting an element compare the recorded id of
+	 * its tree (or blob) by themselves.
+	 *
+	 * @return <code>true</code> if the id file is passed to the export
+	 */
+	abstract boolean isIdFileSupported();
+
+	/**
+	 * Prints the tasks checking out <code>@{tag}</code> in the local
+	 * repository (or in its worktree <code>@{gitWorktreePath}</code>).
+	 *
+	 * @param script
+	 */
+	abstract void printCheckoutTask(IAntScript script);
+
+	/**
+	 * Prints the tasks cloning <code>@{gitRepo}</code> from
+	 * <code>@{gitBundlePath}</code> into <code>@{gitRepoLocalPath}</code>.
+	 *
+	 * @param script
+	 */
+	abstract void printCloneBundleTasks(IAntScript script);
+
+	/**
+	 * Prints the tasks cloning <code>@{gitRepo}</code> into
+	 * <code>@{gitMirrorPath}</code>.
+	 *
+	 * @param script
+	 */
+	abstract void printCloneMirrorTasks(IAntScript script);
+
+	/**
+	 * Prints the tasks cloning <code>@{gitRepo}</code> into
+	 * <code>@{gitRepoLocalPath}</code>.
+	 *
+	 * @param script
+	 */
+	abstract void printCloneTasks(IAntScript script);
+
+	/**
+	 * Prints the tasks exporting <code>@{tag}:@{path}</code> into
+	 * <code>@{destinationFolder}</code>.
+	 *
+	 * @param script
+	 * @param sync
+	 *            <code>true</code> if only the changed files of an existing
+	 *            element should be updated
+	 */
+	abstract void printExportElementTasks(IAntScript script, boolean sync);
+
+	/**
+	 * Prints the tasks exporting the files <code>@{files}</code> of
+	 * <code>@{tag}:@{path}</code> into <code>@{destinationFolder}</code>.
+	 *
+	 * @param script
+	 * @param recordObjectId
+	 *            <code>true</code> if the id of the tree should be recorded
+	 */
+	abstract void printExportFilesTasks(IAntScript script,
+			boolean recordObjectId);
+
+	/**
+	 * Prints the tasks exporting the tree of an element (the local
+	 * <code>gitObjectId</code>) into the local <code>gitSnapshotTemp</code>.
+	 *
+	 * @param script
+	 */
+	abstract void printExportSnapshotTasks(IAntScript script);
+
+	/**
+	 * Prints the tasks fetching the branches and tags of
+	 * <code>@{gitBundlePath}</code> into <code>@{gitRepoLocalPath}</code>.
+	 *
+	 * @param script
+	 */
+	abstract void printFetchBundleTasks(IAntScript script);
+
+	/**
+	 * Prints the tasks the engine runs after a repository has been cloned or
+	 * updated (nothing by default).
+	 *
+	 * @param script
+	 */
+	void printPreparedTasks(IAntScript script) {
+		// nothing by default
+	}
+
+	/**
+	 * Prints the properties of a repository the engine needs besides its tags
+	 * (see {@link RepositoryTargets#printRepositoryProperties(IAntScript, FetchPlan)}).
+	 *
+	 * @param script
+	 * @param repository
+	 */
+	void printRepositoryProperties(IAntScript script,
+			FetchPlan.PlannedRepository repository) {
+		// nothing by default
+	}
+
+	/**
+	 * Prints the project-level tasks of the fetch script once it is complete,
+	 * e.g. to define the Ant tasks of the engine or to share state between
+	 * the <code>antcall</code>s of PDE Build.
+	 *
+	 * @param script
+	 */
+	void printProjectTasks(IAntScript script) {
+		// nothing by default
+	}
+
+	/**
+	 * Prints the tasks resolving the commit of <code>@{tag}</code> into the
+	 * local <code>gitCommitId</code> (not set if it cannot be resolved).
+	 *
+	 * @param script
+	 */
+	abstract void printResolveCommitTask(IAntScript script);
+
+	/**
+	 * Prints the tasks resolving the id of the tree (or blob) of an element
+	 * into the local <code>gitObjectId</code> (not set if it cannot be
+	 * resolved).
+	 *
+	 * @param script
+	 */
+	abstract void printResolveObjectIdTask(IAntScript script);
+
+	/**
+	 * Prints the tasks which stream a single file (a pre-built JAR) from the
+	 * object database of the local repository to the destination in both
+	 * modes. The file is resolved to its blob (
+	 * <code>@{tag}:@{gitObjectPath}</code>) and written to
+	 * <code>@{destinationFolder}/@{file}</code>; a file which doesn't exist
+	 * is reported but doesn't fail the build.
+	 *
+	 * @param script
+	 * @param recordObjectId
+	 *            <code>true</code> if the id of the blob should be recorded
+	 */
+	abstract void printStreamFileTasks(IAntScript script,
+			boolean recordObjectId);
+
+	/**
+	 * Prints the tasks which update an existing local repository (skipped if
+	 * the local <code>skipUpdate</code> is set).
+	 *
+	 * @param script
+	 */
+	abstract void printUpdateTasks(IAntScript script);
+
+	/**
+	 * Prints the tasks refreshing <code>@{gitMirrorPath}</code>.
+	 *
+	 * @param script
+	 */
+	abstract void printUpdateMirrorTasks(IAntScript script);
+
+	/**
+	 * Adds the attributes of the prepare macro for the parameters added by
+	 * {@link #putFetchOptions(Map, FetchPlan.PlannedRepository)} (nothing by
+	 * default).
+	 *
+	 * @param attributes
+	 *            the attributes mapped to their default values
+	 */
+	void putFetchAttributes(Map<String, String> attributes) {
+		// nothing by default
+	}
+
+	/**
+	 * Adds the parameters of the prepare macro the engine needs to fetch the
+	 * tags used by a repository and to clone it.
+	 *
+	 * @param params
+	 *            the parameters of the prepare call
+	 * @param repository
+	 */
+	void putFetchOptions(Map<String, String> params,
+			FetchPlan.PlannedRepository repository) {
+		// nothing by default
+	}
+}
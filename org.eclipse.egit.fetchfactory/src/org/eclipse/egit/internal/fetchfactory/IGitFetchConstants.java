@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import org.eclipse.pde.build.Constants;
+
+/**
+ * The names shared by the fetch factory and the generators of the macros of
+ * the fetch scripts.
+ */
+interface IGitFetchConstants {
+
+	// Macros of the fetch scripts
+	public static final String MACRO_GET_ELEMENT_FROM_REPO = "GitFetchElementFromLocalRepo"; //$NON-NLS-1$
+
+	public static final String MACRO_GET_FILES_FROM_REPO = "GitFetchFilesFromLocalRepo"; //$NON-NLS-1$
+
+	public static final String MACRO_RECORD_COMMIT = "GitRecordCommit"; //$NON-NLS-1$
+
+	public static final String MACRO_CHECKOUT_TAG = "GitCheckoutTagInLocalRepo"; //$NON-NLS-1$
+
+	public static final String MACRO_PREPARE_REPO = "GitPrepareLocalRepo"; //$NON-NLS-1$
+
+	public static final String MACRO_PREPARE_REPOS = "GitPrepareLocalRepos"; //$NON-NLS-1$
+
+	public static final String MACRO_EXPORT_ELEMENT_FROM_REPO = "GitExportElementFromLocalRepo"; //$NON-NLS-1$
+
+	public static final String MACRO_EXPORT_FILES_FROM_REPO = "GitExportFilesFromLocalRepo"; //$NON-NLS-1$
+
+	public static final String MACRO_STREAM_FILE_FROM_REPO = "GitStreamFileFromLocalRepo"; //$NON-NLS-1$
+
+	public static final String SEPARATOR = ","; //$NON-NLS-1$
+
+	// Git specific keys used in the map being passed around.
+	public static final String KEY_REPO = "repo"; //$NON-NLS-1$
+
+	public static final String KEY_PATH = "path"; //$NON-NLS-1$
+
+	public static final String KEY_PREBUILT = "prebuilt"; //$NON-NLS-1$
+
+	public static final String KEY_DEPTH = "depth"; //$NON-NLS-1$
+
+	public static final String KEY_FILTER = "filter"; //$NON-NLS-1$
+
+	// Properties used in the Git part of the scripts
+	public static final String PROP_DESTINATIONFOLDER = "destinationFolder"; //$NON-NLS-1$
+
+	public static final String PROP_GITREPO = "gitRepo"; //$NON-NLS-1$
+
+	public static final String PROP_GITREPO_LOCAL_PATH = "gitRepoLocalPath"; //$NON-NLS-1$
+
+	public static final String PROP_PATH = "path"; //$NON-NLS-1$
+
+	public static final String PROP_FILE = "file"; //$NON-NLS-1$
+
+	public static final String PROP_FILES = "files"; //$NON-NLS-1$
+
+	public static final String PROP_TAG = "tag"; //$NON-NLS-1$
+
+	public static final String PROP_FILETOCHECK = "fileToCheck"; //$NON-NLS-1$
+
+	public static final String PROP_PREPARED = "gitRepoPrepared"; //$NON-NLS-1$
+
+	public static final String PROP_CHECKED_OUT = "gitTagCheckedOut"; //$NON-NLS-1$
+
+	public static final String PROP_EXPORT_ARCHIVE = "gitExportArchive"; //$NON-NLS-1$
+
+	public static final String PROP_CLONE_ARGS = "gitCloneArgs"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_ARGS = "gitFetchArgs"; //$NON-NLS-1$
+
+	public static final String PROP_GITREPO_TAGS = "gitRepoTags"; //$NON-NLS-1$
+
+	public static final String PROP_GITREPO_TAG_REFS = "gitRepoTagRefs"; //$NON-NLS-1$
+
+	public static final String PROP_GITREPO_REF_NAMES = "gitRepoRefNames"; //$NON-NLS-1$
+
+	public static final String PROP_GITREPO_COMMITS = "gitRepoCommits"; //$NON-NLS-1$
+
+	public static final String PROP_REMOTE_REFS = "gitRemoteRefs"; //$NON-NLS-1$
+
+	public static final String PROP_REFSPECS = "gitRefSpecs"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_FAILED = "gitFetchFailed"; //$NON-NLS-1$
+
+	public static final String PROP_MIRROR_PATH = "gitMirrorPath"; //$NON-NLS-1$
+
+	public static final String PROP_MIRROR_MARKER = "gitMirrorMarker"; //$NON-NLS-1$
+
+	public static final String PROP_BUNDLE_PATH = "gitBundlePath"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_PATH = "gitObjectPath"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_ID = "gitObjectId"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_ID_FILE = "gitObjectIdFile"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_ID_RECORDED = "gitObjectIdRecorded"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_NAMES = "gitObjectNames"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_IDS_FILE = "gitObjectIdsFile"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_KEY = "gitObjectKey"; //$NON-NLS-1$
+
+	public static final String PROP_EXPORT_DIR = "gitExportDir"; //$NON-NLS-1$
+
+	public static final String PROP_OBJECT_UP_TO_DATE = "gitObjectUpToDate"; //$NON-NLS-1$
+
+	public static final String PROP_BLOB_ID = "gitBlobId"; //$NON-NLS-1$
+
+	public static final String PROP_BLOB_FOUND = "gitBlobFound"; //$NON-NLS-1$
+
+	public static final String OBJECT_ID_FILE_SUFFIX = ".gitId"; //$NON-NLS-1$
+
+	public static final String PROP_SNAPSHOT = "gitSnapshot"; //$NON-NLS-1$
+
+	public static final String PROP_SNAPSHOT_TEMP = "gitSnapshotTemp"; //$NON-NLS-1$
+
+	public static final String PROP_SKIP_SNAPSHOT = "gitSkipSnapshot"; //$NON-NLS-1$
+
+	public static final String PROP_SNAPSHOT_EXISTS = "gitSnapshotExists"; //$NON-NLS-1$
+
+	public static final String PROP_LINK_FAILED = "gitLinkFailed"; //$NON-NLS-1$
+
+	public static final String SNAPSHOT_LOCATION = "${fetchCacheLocation}/.trees"; //$NON-NLS-1$
+
+	// the descriptors which are modified in the build directory by PDE Build
+	public static final String REWRITTEN_DESCRIPTORS = Constants.BUNDLE_FILENAME_DESCRIPTOR
+			+ "," //$NON-NLS-1$
+			+ Constants.FEATURE_FILENAME_DESCRIPTOR
+			+ "," //$NON-NLS-1$
+			+ Constants.PLUGIN_FILENAME_DESCRIPTOR
+			+ "," + Constants.FRAGMENT_FILENAME_DESCRIPTOR; //$NON-NLS-1$
+
+	public static final String PROP_SPARSE_PATHS = "gitSparsePaths"; //$NON-NLS-1$
+
+	public static final String PROP_SPARSE_FILE = "gitSparseFile"; //$NON-NLS-1$
+
+	public static final String PROP_WORKTREE_PATH = "gitWorktreePath"; //$NON-NLS-1$
+
+	public static final String PROP_WORKTREE_EXISTS = "gitWorktreeExists"; //$NON-NLS-1$
+
+	public static final String PROP_WORKTREE_ADDED = "gitWorktreeAdded"; //$NON-NLS-1$
+
+	public static final String WORKTREES_SUFFIX = ".worktrees"; //$NON-NLS-1$
+
+	public static final String REPOSITORY_INDEX = "repositories.properties"; //$NON-NLS-1$
+
+	public static final String BUNDLE_SUFFIX = ".bundle"; //$NON-NLS-1$
+
+	public static final String SEEDED_SUFFIX = ".seeded"; //$NON-NLS-1$
+
+	public static final String USED_SUFFIX = ".used"; //$NON-NLS-1$
+
+	public static final String PROP_ELEMENT = "gitElement"; //$NON-NLS-1$
+
+	public static final String PROP_COMMIT_ID = "gitCommitId"; //$NON-NLS-1$
+
+	public static final String PROP_COMMIT_RESOLVED = "gitCommitResolved"; //$NON-NLS-1$
+
+	public static final String PROP_REMOTE_STATE = "gitRemoteState"; //$NON-NLS-1$
+
+	public static final String PROP_REMOTE_STATE_RECORDED = "gitRemoteStateRecorded"; //$NON-NLS-1$
+
+	public static final String REMOTE_SNAPSHOT_SUFFIX = ".refs"; //$NON-NLS-1$
+
+	// build properties used to tune the generated scripts (see FetchOptions)
+	public static final String PROP_FETCH_THREADS = "gitFetchThreads"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_ENGINE = "gitFetchEngine"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_MODE = "gitFetchMode"; //$NON-NLS-1$
+
+	public static final String PROP_CLONE_DEPTH = "gitCloneDepth"; //$NON-NLS-1$
+
+	public static final String PROP_CLONE_FILTER = "gitCloneFilter"; //$NON-NLS-1$
+
+	public static final String PROP_MIRROR_LOCATION = "gitMirrorLocation"; //$NON-NLS-1$
+
+	public static final String PROP_BUNDLE_LOCATION = "gitBundleLocation"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_LOCKING = "gitFetchLocking"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_INCREMENTAL = "gitFetchIncremental"; //$NON-NLS-1$
+
+	public static final String PROP_COPY_STRATEGY = "gitCopyStrategy"; //$NON-NLS-1$
+
+	public static final String PROP_SPARSE_CHECKOUT = "gitSparseCheckout"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_WORKTREES = "gitFetchWorktrees"; //$NON-NLS-1$
+
+	public static final String PROP_CACHE_MAX_SIZE = "gitCacheMaxSize"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_REPORT = "gitFetchReport"; //$NON-NLS-1$
+
+	public static final String PROP_FETCH_DRY_RUN = "gitFetchDryRun"; //$NON-NLS-1$
+
+	public static final String PROP_LOCK_FILE = "gitLockFile"; //$NON-NLS-1$
+
+	public static final String PROP_LOCK_FILE_OUTPUT = "gitLockFileOutput"; //$NON-NLS-1$
+
+	public static final String PROP_REMOTE_SNAPSHOT = "gitRemoteSnapshot"; //$NON-NLS-1$
+
+	// Ant tasks of the JGit engine
+	public static final String TASK_CLONE = "egit.clone"; //$NON-NLS-1$
+
+	public static final String TASK_FETCH = "egit.fetch"; //$NON-NLS-1$
+
+	public static final String TASK_CHECKOUT = "egit.checkout"; //$NON-NLS-1$
+
+	public static final String TASK_EXPORT = "egit.export"; //$NON-NLS-1$
+
+	public static final String TASK_RESOLVE = "egit.resolve"; //$NON-NLS-1$
+
+	public static final String TASK_REPOSITORIES = "egit.repositories"; //$NON-NLS-1$
+
+	// Ant tasks used by both engines
+	public static final String TASK_LOCK = "egit.lock"; //$NON-NLS-1$
+
+	public static final String TASK_CACHE = "egit.cache"; //$NON-NLS-1$
+
+	public static final String TASK_REPORT = "egit.report"; //$NON-NLS-1$
+
+	public static final String TASK_IF = "egit.if"; //$NON-NLS-1$
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.pde.build.IAntScript;
+
+/**
+ * The engine executing the Git operations using the JGit based Ant tasks
+ * of this bundle (<code>gitFetchEngine=jgit</code>). The tasks run within the
+ * build VM and share the opened repositories.
+ * <p>
+ * JGit is an optional dependency. The tasks are therefore not contributed to
+ * the Ant runtime like the tasks used by both engines, the fetch scripts
+ * define them instead (<code>taskdef</code>); they are loaded only by builds
+ * using this engine.
+ * </p>
+ */
+final class JGitEngine extends GitEngine {
+
+	private static final String TASKS_PACKAGE = "org.eclipse.egit.internal.fetchfactory.ant."; //$NON-NLS-1$
+
+	// the tasks requiring JGit and their classes (in lib/fetchfactory-ant.jar)
+	private static final String[][] TASKS = {
+			{ TASK_CLONE, "GitCloneTask" }, //$NON-NLS-1$
+			{ TASK_FETCH, "GitFetchTask" }, //$NON-NLS-1$
+			{ TASK_CHECKOUT, "GitCheckoutTask" }, //$NON-NLS-1$
+			{ TASK_EXPORT, "GitExportTask" }, //$NON-NLS-1$
+			{ TASK_RESOLVE, "GitResolveTask" }, //$NON-NLS-1$
+			{ TASK_REPOSITORIES, "RepositoriesTask" } }; //$NON-NLS-1$
+
+	JGitEngine(FetchOptions options, CallScopes scopes) {
+		super(options, scopes);
+	}
+
+	@Override
+	String asSparsePaths(Set<String> paths) {
+		// the checkout task takes a comma-separated list (none for the
+		// complete tree)
+		final StringBuffer value = new StringBuffer();
+		if (paths.contains("")) //$NON-NLS-1$
+			return value.toString();
+		for (final String path : paths) {
+			if (value.length() > 0)
+				value.append(',');
+			value.append(path);
+		}
+		return value.toString();
+	}
+
+	@Override
+	boolean isIdFileSupported() {
+		return true;
+	}
+
+	@Override
+	boolean isObjectIdBatched() {
+		// resolved in process
+		return false;
+	}
+
+	@Override
+	void printCheckoutTask(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("name", asParam(PROP_TAG)); //$NON-NLS-1$
+		if (options.isSparseCheckout())
+			params.put("paths", asParam(PROP_SPARSE_PATHS)); //$NON-NLS-1$
+		if (options.isWorktrees())
+			params.put("worktree", asParam(PROP_WORKTREE_PATH)); //$NON-NLS-1$
+		script.printElement(TASK_CHECKOUT, params);
+	}
+
+	@Override
+	void printCloneBundleTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("uri", asParam(PROP_GITREPO)); //$NON-NLS-1$
+		params.put("bundle", asParam(PROP_BUNDLE_PATH)); //$NON-NLS-1$
+		if (options.isExportMode())
+			params.put("bare", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement(TASK_CLONE, params);
+	}
+
+	@Override
+	void printCloneMirrorTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put("dir", asParam(PROP_MIRROR_PATH)); //$NON-NLS-1$
+		params.put("uri", asParam(PROP_GITREPO)); //$NON-NLS-1$
+		params.put("bare", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement(TASK_CLONE, params);
+	}
+
+	@Override
+	void printCloneTasks(IAntScript script) {
+		// shallow and partial clones are not supported by the JGit tasks
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("uri", asParam(PROP_GITREPO)); //$NON-NLS-1$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		if (options.isExportMode())
+			params.put("bare", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (options.hasMirrorLocation())
+			params.put("reference", asParam(PROP_MIRROR_PATH)); //$NON-NLS-1$
+		script.printElement(TASK_CLONE, params);
+	}
+
+	@Override
+	void printExportElementTasks(IAntScript script, boolean sync) {
+		// the task compares the recorded tree id by itself
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("name", asParam(PROP_TAG)); //$NON-NLS-1$
+		params.put("path", asParam(PROP_PATH)); //$NON-NLS-1$
+		params.put("todir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		if (options.isIncremental())
+			params.put("idfile", asParam(PROP_OBJECT_ID_FILE)); //$NON-NLS-1$
+		script.printElement(TASK_EXPORT, params);
+	}
+
+	@Override
+	void printExportFilesTasks(IAntScript script, boolean recordObjectId) {
+		final Map<String, String> params = new HashMap<String, String>(7);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("name", asParam(PROP_TAG)); //$NON-NLS-1$
+		params.put("path", asParam(PROP_PATH)); //$NON-NLS-1$
+		params.put("todir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		if (options.isIncremental())
+			params.put("idfile", asParam(PROP_OBJECT_ID_FILE)); //$NON-NLS-1$
+		params.put("includes", asParam(PROP_FILES)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement(TASK_EXPORT, params);
+	}
+
+	@Override
+	void printExportSnapshotTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("name", asParam(PROP_TAG)); //$NON-NLS-1$
+		params.put("path", asParam(PROP_OBJECT_PATH)); //$NON-NLS-1$
+		params.put("todir", asLocalValue(PROP_SNAPSHOT_TEMP)); //$NON-NLS-1$
+		script.printElement(TASK_EXPORT, params);
+	}
+
+	@Override
+	void printFetchBundleTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("bundle", asParam(PROP_BUNDLE_PATH)); //$NON-NLS-1$
+		script.printElement(TASK_FETCH, params);
+	}
+
+	@Override
+	void printProjectTasks(IAntScript script) {
+		for (int i = 0; i < TASKS.length; i++) {
+			final Map<String, String> params = new HashMap<String, String>(2);
+			params.put("name", TASKS[i][0]); //$NON-NLS-1$
+			params.put("classname", TASKS_PACKAGE + TASKS[i][1]); //$NON-NLS-1$
+			script.printElement("taskdef", params); //$NON-NLS-1$
+		}
+
+		// share the opened repos with the antcalls of PDE Build
+		script.println("<" + TASK_REPOSITORIES + " />"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Override
+	void printResolveCommitTask(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("name", asParam(PROP_TAG)); //$NON-NLS-1$
+		params.put("commit", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("property", asLocal(PROP_COMMIT_ID)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement(TASK_RESOLVE, params);
+	}
+
+	@Override
+	void printResolveObjectIdTask(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("name", asParam(PROP_TAG)); //$NON-NLS-1$
+		params.put("path", asParam(PROP_OBJECT_PATH)); //$NON-NLS-1$
+		params.put("property", asLocal(PROP_OBJECT_ID)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement(TASK_RESOLVE, params);
+	}
+
+	@Override
+	void printStreamFileTasks(IAntScript script, boolean recordObjectId) {
+		// the JGit task compares the recorded blob id by itself
+		final Map<String, String> params = new HashMap<String, String>(7);
+		if (options.isLocking())
+			printLockStart(script, asParam(PROP_GITREPO_LOCAL_PATH), true);
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("name", asParam(PROP_TAG)); //$NON-NLS-1$
+		params.put("path", asParam(PROP_PATH)); //$NON-NLS-1$
+		params.put("file", asParam(PROP_FILE)); //$NON-NLS-1$
+		params.put("todir", asParam(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+		if (options.isIncremental())
+			params.put("idfile", asParam(PROP_OBJECT_ID_FILE)); //$NON-NLS-1$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement(TASK_EXPORT, params);
+		if (options.isLocking())
+			printLockEnd(script);
+	}
+
+	@Override
+	void printUpdateMirrorTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		params.put("dir", asParam(PROP_MIRROR_PATH)); //$NON-NLS-1$
+		script.printElement(TASK_FETCH, params);
+	}
+
+	@Override
+	void printUpdateTasks(IAntScript script) {
+		// the task only fetches the tags and branches used by the script and
+		// skips the fetch by itself if all tags exist locally
+		final Map<String, String> params = new HashMap<String, String>(3);
+		printIfStart(script, null, asLocal("skipUpdate")); //$NON-NLS-1$
+		params.put("dir", asParam(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		params.put("refs", asParam(PROP_GITREPO_TAGS)); //$NON-NLS-1$
+		if (options.isRemoteSnapshot())
+			params.put("snapshot", asParam(PROP_GITREPO_LOCAL_PATH) + REMOTE_SNAPSHOT_SUFFIX); //$NON-NLS-1$
+		script.printElement(TASK_FETCH, params);
+		printIfEnd(script);
+	}
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.Map;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.pde.internal.build.IPDEBuildConstants;
+
+/**
+ * The arguments of a map file entry
+ * (<code>tag=&lt;tag&gt;,repo=&lt;repo&gt;[,path=&lt;path&gt;][,...]</code>).
+ * <p>
+ * An entry is scanned in a single pass, only the values of the known
+ * arguments are copied out of it. The arguments are separated by commas and
+ * trimmed, an empty argument (except after a trailing comma) or an argument
+ * without an equals sign is an error, the last of repeated arguments wins.
+ * This is what PDE Build's <code>Utils.getArrayFromStringWithBlank</code>
+ * does. Entries are immutable, i.e. an entry can be shared by all elements
+ * with the same map file arguments.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+class MapFileEntry {
+
+	private static final String KEY_TAG = "tag"; //$NON-NLS-1$
+
+	private static final String KEY_REPO = "repo"; //$NON-NLS-1$
+
+	private static final String KEY_PATH = "path"; //$NON-NLS-1$
+
+	private static final String KEY_PREBUILT = "prebuilt"; //$NON-NLS-1$
+
+	private static final String KEY_DEPTH = "depth"; //$NON-NLS-1$
+
+	private static final String KEY_FILTER = "filter"; //$NON-NLS-1$
+
+	private static final char SEPARATOR = ',';
+
+	final String tag;
+
+	final String repo;
+
+	final String path;
+
+	final String prebuilt;
+
+	final String depth;
+
+	final String filter;
+
+	private MapFileEntry(String tag, String repo, String path,
+			String prebuilt, String depth, String filter) {
+		this.tag = tag;
+		this.repo = repo;
+		this.path = path;
+		this.prebuilt = prebuilt;
+		this.depth = depth;
+		this.filter = filter;
+	}
+
+	private static CoreException error(String message, Object elementName) {
+		return new CoreException(new Status(IStatus.ERROR,
+				IPDEBuildConstants.PI_PDEBUILD, 1, NLS.bind(message,
+						elementName), null));
+	}
+
+	private static boolean isKey(String entry, int start, int end, String key) {
+		return end - start == key.length()
+				&& entry.regionMatches(start, key, 0, key.length());
+	}
+
+	/**
+	 * Parses the arguments of a map file entry.
+	 * 
+	 * @param entry
+	 *            the arguments (without the leading <code>GIT,</code>)
+	 * @param elementName
+	 *            the name of the element (for error messages)
+	 * @param repoLocations
+	 *            the repository locations seen so far; the location of the
+	 *            entry is replaced by an equal one of this map (or added to
+	 *            it), i.e. all entries of a repository share one instance
+	 * @return the entry
+	 * @throws CoreException
+	 *             if the entry is malformed or has no <code>repo</code>
+	 */
+	static MapFileEntry parse(String entry, Object elementName,
+			Map<String, String> repoLocations) throws CoreException {
+		String tag = null;
+		String repo = null;
+		String path = null;
+		String prebuilt = null;
+		String depth = null;
+		String filter = null;
+
+		final int length = entry != null ? entry.length() : 0;
+		int start = 0;
+		while (start < length && entry.charAt(start) <= ' ') {
+			start++;
+		}
+		// a blank entry has no arguments at all
+		while (start < length) {
+			int end = entry.indexOf(SEPARATOR, start);
+			if (end == -1)
+				end = length;
+			final int next = end + 1;
+			// trim like String.trim()
+			while (start < end && entry.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && entry.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			final int index = entry.indexOf('=', start);
+			if (index == -1 || index >= end)
+				throw error(Messages.error_incorrectDirectoryEntryKeyValue,
+						elementName);
+			final int valueStart = index + 1;
+			if (isKey(entry, start, index, KEY_TAG))
+				tag = entry.substring(valueStart, end);
+			else if (isKey(entry, start, index, KEY_REPO))
+				repo = entry.substring(valueStart, end);
+			else if (isKey(entry, start, index, KEY_PATH))
+				path = entry.substring(valueStart, end);
+			else if (isKey(entry, start, index, KEY_PREBUILT))
+				prebuilt = entry.substring(valueStart, end);
+			else if (isKey(entry, start, index, KEY_DEPTH))
+				depth = entry.substring(valueStart, end);
+			else if (isKey(entry, start, index, KEY_FILTER))
+				filter = entry.substring(valueStart, end);
+			start = next;
+		}
+
+		// sanity check that all required attributes are present
+		if (repo == null)
+			throw error(Messages.error_directoryEntryRequiresRepo, elementName);
+		final String knownRepo = repoLocations.get(repo);
+		if (knownRepo != null)
+			repo = knownRepo;
+		else
+			repoLocations.put(repo, repo);
+		if (path != null)
+			path = new Path(path).makeRelative().removeTrailingSeparator()
+					.toString(); // sanitize path
+		return new MapFileEntry(tag, repo, path, prebuilt, depth, filter);
+	}
+}
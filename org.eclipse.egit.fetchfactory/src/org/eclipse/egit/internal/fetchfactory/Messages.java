@@ -21,6 +21,12 @@ public class Messages extends NLS {
 
 	public static String error_directoryEntryRequiresRepo;
 
+	public static String error_readingLockFile;
+
+	public static String error_writingDryRun;
+
+	public static String error_dryRunRequiresJGit;
+
 	static {
 		// load message values from bundle file
 		NLS.initializeMessages(BUNDLE_NAME, Messages.class);
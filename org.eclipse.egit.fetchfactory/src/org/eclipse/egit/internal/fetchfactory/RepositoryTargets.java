@@ -0,0 +1,561 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.pde.build.IAntScript;
+import org.eclipse.pde.internal.build.Utils;
+
+/**
+ * Prints the macros preparing (cloning or updating) the local repositories
+ * of the fetch scripts, including the shared mirrors and the bundles the
+ * repositories are seeded from. The Git operations are printed by the
+ * {@link GitEngine}.
+ */
+@SuppressWarnings("restriction")
+final class RepositoryTargets extends AbstractFetchTargets {
+
+	/**
+	 * Generates the path of the bundle the specified repository is seeded
+	 * from. Bundles are named like the local repositories (see
+	 * {@link FetchPlan.PlannedRepository#getName()}).
+	 *
+	 * @param repository
+	 * @return file system path
+	 */
+	static String asBundle(FetchPlan.PlannedRepository repository) {
+		return Utils.getPropertyFormat(PROP_BUNDLE_LOCATION) + "/" //$NON-NLS-1$
+				+ repository.getName() + BUNDLE_SUFFIX;
+	}
+
+	/**
+	 * Generates the path of the shared mirror of the specified repository.
+	 *
+	 * @param repository
+	 * @return file system path
+	 */
+	static String asMirror(FetchPlan.PlannedRepository repository) {
+		return Utils.getPropertyFormat(PROP_MIRROR_LOCATION) + "/" //$NON-NLS-1$
+				+ repository.getName() + ".git"; //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the name of the property holding the marker file which records
+	 * that the shared mirror of the specified repository has been refreshed.
+	 * The name doesn't depend on the fetch script so that the property is
+	 * inherited by the fetch scripts of nested features.
+	 *
+	 * @param repository
+	 * @return property name
+	 */
+	static String asMirrorMarkerProperty(FetchPlan.PlannedRepository repository) {
+		return "gitMirror." + repository.getName() + ".refreshed"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private final GitEngine engine;
+
+	RepositoryTargets(FetchOptions options, CallScopes scopes,
+			GitEngine engine) {
+		super(options, scopes);
+		this.engine = engine;
+	}
+
+	/**
+	 * Prints the tasks which seed a local repository from its bundle in
+	 * <code>gitBundleLocation</code>. A missing repository is cloned from the
+	 * bundle, an existing one fetches the branches and tags of the bundle if
+	 * it changed since the repository was seeded last
+	 * (<code>&lt;local repository&gt;.seeded</code>). Nothing is done if
+	 * there is no bundle for the repository.
+	 *
+	 * @param script
+	 */
+	private void printBundleTasks(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		final String seededFile = asParam(PROP_GITREPO_LOCAL_PATH)
+				+ SEEDED_SUFFIX;
+
+		printConditionStart(script, asLocal("skipBundleClone"), null, null); //$NON-NLS-1$
+		script.printStartTag("or"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("not"); //$NON-NLS-1$
+		script.incrementIdent();
+		printAvailableFile(script, asParam(PROP_BUNDLE_PATH));
+		script.decrementIdent();
+		script.printEndTag("not"); //$NON-NLS-1$
+		printAvailableFile(script, asParam(PROP_GITREPO_LOCAL_PATH));
+		printIsSet(script, asParam(PROP_FILETOCHECK));
+		printIsSet(script, asParam(PROP_PREPARED));
+		script.decrementIdent();
+		script.printEndTag("or"); //$NON-NLS-1$
+		printConditionEnd(script);
+		// an existing repo is only refreshed if the bundle changed since
+		printConditionStart(script, asLocal("skipBundleFetch"), null, null); //$NON-NLS-1$
+		script.printStartTag("or"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("not"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("and"); //$NON-NLS-1$
+		script.incrementIdent();
+		printAvailableFile(script, asParam(PROP_BUNDLE_PATH));
+		printAvailableFile(script, asParam(PROP_GITREPO_LOCAL_PATH));
+		script.decrementIdent();
+		script.printEndTag("and"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("not"); //$NON-NLS-1$
+		script.println("<uptodate srcfile=\"" + asParam(PROP_BUNDLE_PATH) + "\" targetfile=\"" + seededFile + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		printIsSet(script, asParam(PROP_FILETOCHECK));
+		printIsSet(script, asParam(PROP_PREPARED));
+		script.decrementIdent();
+		script.printEndTag("or"); //$NON-NLS-1$
+		printConditionEnd(script);
+
+		// clone bundle tasks (both conditions are evaluated before, the
+		// clone would enable the fetch otherwise)
+		printIfStart(script, null, asLocal("skipBundleClone")); //$NON-NLS-1$
+		engine.printCloneBundleTasks(script);
+		printRepositoryIndexEntry(script, asParam(PROP_GITREPO_LOCAL_PATH),
+				"gitRepository"); //$NON-NLS-1$
+		params.put("file", seededFile); //$NON-NLS-1$
+		script.printElement("touch", params); //$NON-NLS-1$
+		printIfEnd(script);
+
+		// fetch bundle tasks
+		printIfStart(script, null, asLocal("skipBundleFetch")); //$NON-NLS-1$
+		engine.printFetchBundleTasks(script);
+		script.printElement("touch", params); //$NON-NLS-1$
+		printIfEnd(script);
+	}
+
+	/**
+	 * Prints the task which keeps the fetch cache within
+	 * <code>gitCacheMaxSize</code> (<code>egit.cache</code>). It is executed
+	 * at project level, i.e. before anything is fetched; the task itself makes
+	 * sure that the cache is only maintained once per build. The repositories
+	 * of the script are never evicted.
+	 *
+	 * @param script
+	 * @param plan
+	 */
+	void printCacheMaintenance(IAntScript script, FetchPlan plan) {
+		if (options.getCacheMaxSize() == null)
+			return;
+		final StringBuffer keep = new StringBuffer();
+		for (final FetchPlan.PlannedRepository repository : plan
+				.getRepositories()) {
+			if (keep.length() > 0)
+				keep.append(SEPARATOR);
+			keep.append(repository.getLocalRepo());
+		}
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("dir", Utils.getPropertyFormat(GITFetchTaskFactory.PROP_FETCH_CACHE_LOCATION)); //$NON-NLS-1$
+		params.put("maxsize", options.getCacheMaxSize()); //$NON-NLS-1$
+		params.put("keep", keep.toString()); //$NON-NLS-1$
+		if (options.isJGitEngine())
+			params.put("closerepositories", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		printGitRepoBaseLocationDefault(script);
+		script.printElement(TASK_CACHE, params);
+	}
+
+	/**
+	 * Prints the marker file of the shared mirror of the specified repository
+	 * (see {@link #asMirrorMarkerProperty(FetchPlan.PlannedRepository)}). It
+	 * is defined at project level, i.e. the first fetch script of the build
+	 * defines it.
+	 *
+	 * @param script
+	 * @param repository
+	 */
+	private void printMirrorMarker(IAntScript script,
+			FetchPlan.PlannedRepository repository) {
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("property", asMirrorMarkerProperty(repository)); //$NON-NLS-1$
+		params.put("prefix", "gitMirror"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("suffix", ".refreshed"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("destdir", Utils.getPropertyFormat("java.io.tmpdir")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("deleteonexit", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("tempfile", params); //$NON-NLS-1$
+	}
+
+	private void printMirrorMarkerTouch(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		params.put("file", asParam(PROP_MIRROR_MARKER)); //$NON-NLS-1$
+		script.printElement("touch", params); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the call preparing (cloning or updating) the local repository of
+	 * an element.
+	 *
+	 * @param script
+	 * @param gitRepo
+	 *            the repository location of the element
+	 * @param repository
+	 * @param fileToCheck
+	 *            the property telling that the repository isn't needed (may
+	 *            be <code>null</code>)
+	 */
+	void printPrepareCall(IAntScript script, String gitRepo,
+			FetchPlan.PlannedRepository repository, String fileToCheck) {
+		final Map<String, String> params = new HashMap<String, String>(8);
+		params.put(PROP_GITREPO, gitRepo);
+		params.put(PROP_GITREPO_LOCAL_PATH, repository.getLocalRepo());
+		params.put(PROP_PREPARED, repository.getPreparedProperty());
+		putFetchOptions(params, repository);
+		if (fileToCheck != null)
+			params.put(PROP_FILETOCHECK, fileToCheck);
+		if (options.getFetchReport() != null)
+			printReportStart(script, "repository", gitRepo, //$NON-NLS-1$
+					repository.getLocalRepo(), null);
+		printCallTask(script, MACRO_PREPARE_REPO, params);
+		if (options.getFetchReport() != null)
+			printReportEnd(script);
+	}
+
+	/**
+	 * Prints the macro which prepares (clones or pulls) all repositories of a
+	 * fetch script in a <code>parallel</code> block. Every repository is
+	 * handled by its own thread, i.e. Git operations working on the same local
+	 * repository are never executed concurrently. A repository is skipped if
+	 * all of its elements already exist in the build directory.
+	 *
+	 * @param script
+	 * @param plan
+	 */
+	void printPrepareLocalReposMacro(IAntScript script, FetchPlan plan) {
+		if (options.getFetchThreads() <= 1)
+			return;
+		final Map<String, String> params = new HashMap<String, String>(4);
+
+		// unique marker file (stable across the antcalls of the script)
+		params.put("property", plan.getPreparedMarkerProperty()); //$NON-NLS-1$
+		params.put("prefix", "gitFetch"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("suffix", ".prepared"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("destdir", Utils.getPropertyFormat("java.io.tmpdir")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("deleteonexit", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("tempfile", params); //$NON-NLS-1$
+
+		printMacroStart(script, MACRO_PREPARE_REPOS,
+				new HashMap<String, String>(0));
+
+		// determine which repos need to be prepared
+		printConditionStart(script, asLocal("skipPrepareLocalRepos"), null, //$NON-NLS-1$
+				null);
+		printAvailableFile(script,
+				Utils.getPropertyFormat(plan.getPreparedMarkerProperty()));
+		printConditionEnd(script);
+		for (final FetchPlan.PlannedRepository repository : plan
+				.getRepositories()) {
+			if (repository.isRequired())
+				continue;
+			printConditionStart(script, asLocal(repository.getSkipProperty()),
+					null, null);
+			script.printStartTag("and"); //$NON-NLS-1$
+			script.incrementIdent();
+			for (final String[] files : repository.getElementChecks()) {
+				script.printStartTag("or"); //$NON-NLS-1$
+				script.incrementIdent();
+				for (int i = 0; i < files.length; i++) {
+					printAvailableFile(script, files[i]);
+				}
+				script.decrementIdent();
+				script.printEndTag("or"); //$NON-NLS-1$
+			}
+			script.decrementIdent();
+			script.printEndTag("and"); //$NON-NLS-1$
+			printConditionEnd(script);
+		}
+
+		printIfStart(script, null, asLocal("skipPrepareLocalRepos")); //$NON-NLS-1$
+		printGitRepoBaseLocationDefault(script);
+		params.clear();
+		params.put("threadCount", String.valueOf(options.getFetchThreads())); //$NON-NLS-1$
+		params.put("failOnAny", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("parallel", params); //$NON-NLS-1$
+		script.incrementIdent();
+		for (final FetchPlan.PlannedRepository repository : plan
+				.getRepositories()) {
+			params.clear();
+			params.put(PROP_GITREPO, repository.getGitRepo());
+			params.put(PROP_GITREPO_LOCAL_PATH, repository.getLocalRepo());
+			putFetchOptions(params, repository);
+			if (!repository.isRequired())
+				params.put(PROP_FILETOCHECK, asLocal(repository
+						.getSkipProperty()));
+			if (options.getFetchReport() != null)
+				printReportStart(script, "repository", //$NON-NLS-1$
+						repository.getGitRepo(), repository.getLocalRepo(),
+						null);
+			printCallTask(script, MACRO_PREPARE_REPO, params);
+			if (options.getFetchReport() != null)
+				printReportEnd(script);
+		}
+		script.decrementIdent();
+		script.printEndTag("parallel"); //$NON-NLS-1$
+		params.clear();
+		params.put("file", //$NON-NLS-1$
+				Utils.getPropertyFormat(plan.getPreparedMarkerProperty()));
+		script.printElement("touch", params); //$NON-NLS-1$
+		printIfEnd(script);
+		printMacroEnd(script);
+	}
+
+	/**
+	 * Prints the tasks which clone or refresh the shared mirror of a
+	 * repository. A mirror is only refreshed once per build; the refresh is
+	 * recorded in a marker file because properties don't survive the
+	 * <code>antcall</code>s of PDE Build.
+	 *
+	 * @param script
+	 */
+	private void printPrepareMirrorTasks(IAntScript script) {
+		// the mirror is locked within the lock of the local repo
+		if (options.isLocking())
+			printLockStart(script, asParam(PROP_MIRROR_PATH), false);
+		printConditionStart(script, asLocal("skipMirrorClone"), null, null); //$NON-NLS-1$
+		script.printStartTag("or"); //$NON-NLS-1$
+		script.incrementIdent();
+		printAvailableFile(script, asParam(PROP_MIRROR_PATH));
+		printAvailableFile(script, asParam(PROP_MIRROR_MARKER));
+		printIsSet(script, asParam(PROP_FILETOCHECK));
+		printIsSet(script, asParam(PROP_PREPARED));
+		script.decrementIdent();
+		script.printEndTag("or"); //$NON-NLS-1$
+		printConditionEnd(script);
+		printConditionStart(script, asLocal("skipMirrorUpdate"), null, null); //$NON-NLS-1$
+		script.printStartTag("or"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("not"); //$NON-NLS-1$
+		script.incrementIdent();
+		printAvailableFile(script, asParam(PROP_MIRROR_PATH));
+		script.decrementIdent();
+		script.printEndTag("not"); //$NON-NLS-1$
+		printAvailableFile(script, asParam(PROP_MIRROR_MARKER));
+		printIsSet(script, asParam(PROP_FILETOCHECK));
+		printIsSet(script, asParam(PROP_PREPARED));
+		script.decrementIdent();
+		script.printEndTag("or"); //$NON-NLS-1$
+		printConditionEnd(script);
+
+		// refresh mirror tasks
+		printIfStart(script, null, asLocal("skipMirrorUpdate")); //$NON-NLS-1$
+		engine.printUpdateMirrorTasks(script);
+		printMirrorMarkerTouch(script);
+		printIfEnd(script);
+
+		// clone mirror tasks
+		printIfStart(script, null, asLocal("skipMirrorClone")); //$NON-NLS-1$
+		engine.printCloneMirrorTasks(script);
+		printRepositoryIndexEntry(script, asParam(PROP_MIRROR_PATH),
+				"gitMirror"); //$NON-NLS-1$
+		printMirrorMarkerTouch(script);
+		printIfEnd(script);
+		if (options.isLocking())
+			printLockEnd(script);
+	}
+
+	/**
+	 * Prints the tasks recording the location of a newly cloned repository in
+	 * the index next to it (<code>repositories.properties</code>, the
+	 * directory name of the repository mapped to <code>@{gitRepo}</code>).
+	 *
+	 * @param script
+	 * @param dir
+	 *            the path of the repository
+	 * @param prefix
+	 *            the prefix of the local properties (a mirror and the
+	 *            repository may be cloned by the same call)
+	 */
+	private void printRepositoryIndexEntry(IAntScript script, String dir,
+			String prefix) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("property", asLocal(prefix + "Dir")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("file", dir); //$NON-NLS-1$
+		script.printElement("dirname", params); //$NON-NLS-1$
+		params.put("property", asLocal(prefix + "Name")); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("basename", params); //$NON-NLS-1$
+		final String index = asLocalValue(prefix + "Dir") + "/" //$NON-NLS-1$ //$NON-NLS-2$
+				+ REPOSITORY_INDEX;
+		// the index is shared by all repositories
+		if (options.isLocking())
+			printLockStart(script, index, false);
+		params.clear();
+		params.put("file", index); //$NON-NLS-1$
+		script.printStartTag("propertyfile", params); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("key", asLocalValue(prefix + "Name")); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("value", asParam(PROP_GITREPO)); //$NON-NLS-1$
+		script.printElement("entry", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("propertyfile"); //$NON-NLS-1$
+		if (options.isLocking())
+			printLockEnd(script);
+	}
+
+	/**
+	 * Prints the properties describing the repositories of a fetch script
+	 * (the tags used by them, the marker files of their mirrors and whatever
+	 * the engine needs). They are defined at project level and thus available
+	 * to all targets.
+	 *
+	 * @param script
+	 * @param plan
+	 */
+	void printRepositoryProperties(IAntScript script, FetchPlan plan) {
+		for (final FetchPlan.PlannedRepository repository : plan
+				.getRepositories()) {
+			if (options.hasMirrorLocation())
+				printMirrorMarker(script, repository);
+			if (repository.getTags().isEmpty())
+				continue;
+			final StringBuffer tags = new StringBuffer();
+			for (final String tag : repository.getTags()) {
+				if (tags.length() > 0)
+					tags.append(' ');
+				tags.append(tag);
+			}
+			script.println("<property name=\"" + repository.getTagsProperty() + "\" value=\"" + tags + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			engine.printRepositoryProperties(script, repository);
+			if (options.isSparseCheckout())
+				printSparsePathsProperties(script, repository);
+		}
+	}
+
+	/**
+	 * Prints the properties holding the paths needed by the elements of a
+	 * repository per tag (see {@link GitEngine#asSparsePaths(Set)}).
+	 *
+	 * @param script
+	 * @param repository
+	 */
+	private void printSparsePathsProperties(IAntScript script,
+			FetchPlan.PlannedRepository repository) {
+		for (final String tag : repository.getTags()) {
+			final Set<String> paths = repository.getPaths(tag);
+			if (paths == null)
+				continue;
+			script.println("<property name=\"" + repository.getPathsProperty(tag) + "\" value=\"" + engine.asSparsePaths(paths) + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+
+	/**
+	 * Prints the macro which prepares (clones or updates) a local repository.
+	 * A shared mirror is refreshed and the bundle is applied first, i.e. the
+	 * network is only used for the tags missing in them. When locking, the
+	 * skip conditions are evaluated while holding the lock of the repository.
+	 *
+	 * @param script
+	 */
+	void printMacros(IAntScript script) {
+		final Map<String, String> attributes = new LinkedHashMap<String, String>();
+		attributes.put(PROP_GITREPO, null);
+		attributes.put(PROP_GITREPO_LOCAL_PATH, null);
+		if (options.hasBundleLocation())
+			attributes.put(PROP_BUNDLE_PATH, null);
+		if (options.hasMirrorLocation()) {
+			attributes.put(PROP_MIRROR_PATH, null);
+			attributes.put(PROP_MIRROR_MARKER, null);
+		}
+		attributes.put(PROP_PREPARED, ""); //$NON-NLS-1$
+		attributes.put(PROP_FILETOCHECK, ""); //$NON-NLS-1$
+		attributes.put(PROP_GITREPO_TAGS, ""); //$NON-NLS-1$
+		engine.putFetchAttributes(attributes);
+		printMacroStart(script, MACRO_PREPARE_REPO, attributes);
+		printGitRepoBaseLocationDefault(script);
+		if (options.isLocking()) {
+			// nothing is locked if the element already exists
+			printIfStart(script, null, asParam(PROP_FILETOCHECK));
+			printLockStart(script, asParam(PROP_GITREPO_LOCAL_PATH), false);
+		}
+		if (options.hasBundleLocation())
+			printBundleTasks(script);
+		if (options.hasMirrorLocation())
+			printPrepareMirrorTasks(script);
+
+		// determine if clone or pull git operations should be skipped (the
+		// element already exists or the repo has been prepared before)
+		printConditionStart(script, asLocal("skipClone"), null, null); //$NON-NLS-1$
+		script.printStartTag("or"); //$NON-NLS-1$
+		script.incrementIdent();
+		printAvailableFile(script, asParam(PROP_GITREPO_LOCAL_PATH));
+		printIsSet(script, asParam(PROP_FILETOCHECK));
+		printIsSet(script, asParam(PROP_PREPARED));
+		script.decrementIdent();
+		script.printEndTag("or"); //$NON-NLS-1$
+		printConditionEnd(script);
+		printConditionStart(script, asLocal("skipUpdate"), null, null); //$NON-NLS-1$
+		script.printStartTag("or"); //$NON-NLS-1$
+		script.incrementIdent();
+		script.printStartTag("not"); //$NON-NLS-1$
+		script.incrementIdent();
+		printAvailableFile(script, asParam(PROP_GITREPO_LOCAL_PATH));
+		script.decrementIdent();
+		script.printEndTag("not"); //$NON-NLS-1$
+		printIsSet(script, asParam(PROP_FILETOCHECK));
+		printIsSet(script, asParam(PROP_PREPARED));
+		script.decrementIdent();
+		script.printEndTag("or"); //$NON-NLS-1$
+		printConditionEnd(script);
+
+		// pull repo tasks (only the tags and branches used by the script are
+		// fetched)
+		engine.printUpdateTasks(script);
+
+		// clone repo tasks
+		printIfStart(script, null, asLocal("skipClone")); //$NON-NLS-1$
+		engine.printCloneTasks(script);
+		printRepositoryIndexEntry(script, asParam(PROP_GITREPO_LOCAL_PATH),
+				"gitRepository"); //$NON-NLS-1$
+		printIfEnd(script);
+		engine.printPreparedTasks(script);
+
+		if (options.getCacheMaxSize() != null) {
+			// last use of the repo (see printCacheMaintenance)
+			final Map<String, String> params = new HashMap<String, String>(1);
+			params.put("file", asParam(PROP_GITREPO_LOCAL_PATH) + USED_SUFFIX); //$NON-NLS-1$
+			script.printElement("touch", params); //$NON-NLS-1$
+		}
+		if (options.isLocking()) {
+			printLockEnd(script);
+			printIfEnd(script);
+		}
+		printMacroEnd(script);
+	}
+
+	/**
+	 * Adds the parameters for the shared mirror of the specified repository,
+	 * for fetching the tags used by it and for a shallow or partial clone of
+	 * it.
+	 *
+	 * @param params
+	 *            the parameters of the prepare target
+	 * @param repository
+	 */
+	private void putFetchOptions(Map<String, String> params,
+			FetchPlan.PlannedRepository repository) {
+		if (options.hasBundleLocation())
+			params.put(PROP_BUNDLE_PATH, asBundle(repository));
+		if (options.hasMirrorLocation()) {
+			params.put(PROP_MIRROR_PATH, asMirror(repository));
+			params.put(PROP_MIRROR_MARKER, Utils
+					.getPropertyFormat(asMirrorMarkerProperty(repository)));
+		}
+		if (!repository.getTags().isEmpty())
+			params.put(PROP_GITREPO_TAGS, Utils.getPropertyFormat(repository
+					.getTagsProperty()));
+		engine.putFetchOptions(params, repository);
+	}
+}
@@ -0,0 +1,535 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Keeps the size of the fetch cache within a budget and packs its
+ * repositories (<code>egit.cache</code>).
+ * <p>
+ * The cache consists of the local repositories (including the files next to
+ * them, e.g. worktrees and recorded refs) and the tree snapshots
+ * (<code>.trees/&lt;tree id&gt;</code>). A repository was last used when its
+ * marker file (<code>&lt;repository&gt;.used</code>) was touched, a snapshot
+ * when its directory was touched. If the cache exceeds <code>maxsize</code>,
+ * the least recently used repositories and snapshots are deleted until it
+ * fits again. Repositories listed in <code>keep</code> and repositories
+ * locked by another build are never deleted.
+ * </p>
+ * <p>
+ * Repositories with more loose objects than <code>looseobjects</code> are
+ * packed afterwards using <code>git gc --auto</code>, which detaches itself,
+ * i.e. packing continues in the background. The count is estimated like Git
+ * does, by counting the objects in a single fan-out directory. Packing is
+ * skipped if the native <code>git</code> executable is not available.
+ * </p>
+ * <p>
+ * The fetch scripts execute the task at project level, i.e. every
+ * <code>antcall</code> executes it again. Therefore a cache is only
+ * maintained once per build VM.
+ * </p>
+ */
+public class CacheTask extends Task {
+
+	/**
+	 * A repository or snapshot of the cache.
+	 */
+	private static class Entry {
+
+		final File file;
+
+		final boolean repository;
+
+		long lastUsed;
+
+		long size;
+
+		Entry(File file, boolean repository) {
+			this.file = file;
+			this.repository = repository;
+		}
+	}
+
+	private static final String SNAPSHOTS = ".trees"; //$NON-NLS-1$
+
+	private static final String REPOSITORY_INDEX = "repositories.properties"; //$NON-NLS-1$
+
+	private static final String USED_SUFFIX = ".used"; //$NON-NLS-1$
+
+	private static final String LOCK_SUFFIX = ".lock"; //$NON-NLS-1$
+
+	// the files the fetch scripts keep next to a repository (except for its
+	// lock file): the marker of the last use, the worktrees of the tags, the
+	// recorded remote refs and the marker of the seeding bundle
+	private static final String[] SIDECAR_SUFFIXES = { USED_SUFFIX,
+			".worktrees", ".refs", ".seeded" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	private static final Set<File> maintained = new HashSet<File>();
+
+	private File dir;
+
+	private long maxSize = -1;
+
+	private final Set<File> keep = new HashSet<File>();
+
+	private int looseObjects = 6700;
+
+	private boolean gc = true;
+
+	private boolean closeRepositories;
+
+	private static void delete(File file) throws IOException {
+		if (!isSymbolicLink(file)) {
+			final File[] children = file.listFiles();
+			if (children != null) {
+				for (int i = 0; i < children.length; i++) {
+					delete(children[i]);
+				}
+			}
+		}
+		file.delete();
+	}
+
+	static File getGitDir(File repository) {
+		final File gitDir = new File(repository, ".git"); //$NON-NLS-1$
+		return gitDir.isDirectory() ? gitDir : repository;
+	}
+
+	private static boolean isRepository(File file) {
+		if (!file.isDirectory() || file.getName().startsWith(".")) //$NON-NLS-1$
+			return false;
+		final File gitDir = getGitDir(file);
+		return new File(gitDir, "HEAD").isFile() //$NON-NLS-1$
+				&& new File(gitDir, "objects").isDirectory(); //$NON-NLS-1$
+	}
+
+	static boolean isSymbolicLink(File file) throws IOException {
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent == null)
+			return false;
+		final File resolved = new File(parent.getCanonicalFile(), file
+				.getName());
+		return !resolved.getCanonicalFile().equals(resolved.getAbsoluteFile());
+	}
+
+	/**
+	 * Parses a size in bytes. The units <code>k</code>, <code>m</code> and
+	 * <code>g</code> may be appended.
+	 * 
+	 * @param size
+	 * @return the number of bytes
+	 * @throws NumberFormatException
+	 *             if the size is invalid
+	 */
+	static long parseSize(String size) {
+		String value = size.trim().toLowerCase();
+		long unit = 1;
+		if (value.endsWith("b")) //$NON-NLS-1$
+			value = value.substring(0, value.length() - 1);
+		if (value.endsWith("k")) //$NON-NLS-1$
+			unit = 1L << 10;
+		else if (value.endsWith("m")) //$NON-NLS-1$
+			unit = 1L << 20;
+		else if (value.endsWith("g")) //$NON-NLS-1$
+			unit = 1L << 30;
+		if (unit > 1)
+			value = value.substring(0, value.length() - 1);
+		final long number = Long.parseLong(value.trim());
+		if (number < 0)
+			throw new NumberFormatException(size);
+		return number * unit;
+	}
+
+	static long sizeOf(File file) throws IOException {
+		if (!file.isDirectory())
+			return file.length();
+		if (isSymbolicLink(file))
+			return 0;
+		long size = 0;
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				size += sizeOf(children[i]);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Deletes an entry. A repository is only deleted if its lock file isn't
+	 * held by another build (or thread) and is closed before if the Git tasks
+	 * may have opened it (see {@link #setCloserepositories(boolean)}).
+	 * 
+	 * @param entry
+	 * @return <code>true</code> if the entry has been deleted
+	 * @throws IOException
+	 */
+	private boolean evict(Entry entry) throws IOException {
+		if (!entry.repository) {
+			delete(entry.file);
+			return true;
+		}
+		final File lockFile = new File(entry.file.getPath() + LOCK_SUFFIX);
+		if (!lockFile.exists()) {
+			invalidate(entry.file);
+			for (final File file : getFiles(entry)) {
+				delete(file);
+			}
+			return true;
+		}
+		final RandomAccessFile lock = new RandomAccessFile(lockFile, "rw"); //$NON-NLS-1$
+		try {
+			final FileLock fileLock;
+			try {
+				fileLock = lock.getChannel().tryLock();
+			} catch (final OverlappingFileLockException e) {
+				return false;
+			}
+			if (fileLock == null)
+				return false;
+			try {
+				invalidate(entry.file);
+				for (final File file : getFiles(entry)) {
+					delete(file);
+				}
+			} finally {
+				fileLock.release();
+			}
+		} finally {
+			lock.close();
+		}
+		return true;
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (dir == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "dir"), getLocation()); //$NON-NLS-1$
+		synchronized (maintained) {
+			if (!maintained.add(dir.getAbsoluteFile()))
+				return;
+		}
+		if (!dir.isDirectory())
+			return;
+
+		try {
+			final List<Entry> entries = getEntries();
+			long size = 0;
+			for (final Entry entry : entries) {
+				size += entry.size;
+			}
+			log(NLS.bind(TaskMessages.info_cacheSize, new Object[] { dir,
+					Integer.valueOf(entries.size()), Long.valueOf(size) }),
+					Project.MSG_VERBOSE);
+
+			// least recently used first
+			Collections.sort(entries, new Comparator<Entry>() {
+				public int compare(Entry e1, Entry e2) {
+					return e1.lastUsed < e2.lastUsed ? -1
+							: e1.lastUsed > e2.lastUsed ? 1 : 0;
+				}
+			});
+			final List<String> evicted = new ArrayList<String>();
+			if (maxSize >= 0) {
+				for (final Entry entry : new ArrayList<Entry>(entries)) {
+					if (size <= maxSize)
+						break;
+					if (keep.contains(entry.file.getAbsoluteFile()))
+						continue;
+					if (!evict(entry)) {
+						log(NLS.bind(TaskMessages.info_cacheInUse, entry.file),
+								Project.MSG_VERBOSE);
+						continue;
+					}
+					log(NLS.bind(TaskMessages.info_cacheEvict, new Object[] {
+							entry.file, new Date(entry.lastUsed),
+							Long.valueOf(entry.size) }));
+					size -= entry.size;
+					entries.remove(entry);
+					if (entry.repository)
+						evicted.add(entry.file.getName());
+				}
+				if (size > maxSize)
+					log(NLS.bind(TaskMessages.info_cacheFull, dir, Long
+							.valueOf(size)), Project.MSG_WARN);
+			}
+			if (!evicted.isEmpty())
+				removeIndexEntries(evicted);
+
+			if (gc) {
+				for (final Entry entry : entries) {
+					if (entry.repository && !pack(entry.file))
+						break;
+				}
+			}
+		} catch (final IOException e) {
+			log(NLS.bind(TaskMessages.error_cacheFailed, dir, e.getMessage()),
+					Project.MSG_WARN);
+		}
+	}
+
+	private List<Entry> getEntries() throws IOException {
+		final List<Entry> entries = new ArrayList<Entry>();
+		final File[] children = dir.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				if (!isRepository(children[i]))
+					continue;
+				final Entry entry = new Entry(children[i], true);
+				entry.lastUsed = Math.max(children[i].lastModified(),
+						new File(children[i].getPath() + USED_SUFFIX)
+								.lastModified());
+				for (final File file : getFiles(entry)) {
+					entry.size += sizeOf(file);
+				}
+				entries.add(entry);
+			}
+		}
+		final File[] snapshots = new File(dir, SNAPSHOTS).listFiles();
+		if (snapshots != null) {
+			for (int i = 0; i < snapshots.length; i++) {
+				// snapshots being exported are temporary files
+				if (!snapshots[i].isDirectory()
+						|| snapshots[i].getName().endsWith(".tmp")) //$NON-NLS-1$
+					continue;
+				final Entry entry = new Entry(snapshots[i], false);
+				entry.lastUsed = snapshots[i].lastModified();
+				entry.size = sizeOf(snapshots[i]);
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the files of a repository entry, i.e. the repository and the
+	 * files the fetch scripts keep next to it except for its lock file. Other
+	 * files sharing the name of the repository as prefix (e.g. the bare
+	 * repository <code>&lt;name&gt;.git</code> of the <code>export</code>
+	 * mode) are separate entries.
+	 * 
+	 * @param entry
+	 * @return the files
+	 */
+	private List<File> getFiles(Entry entry) {
+		final List<File> files = new ArrayList<File>();
+		files.add(entry.file);
+		for (int i = 0; i < SIDECAR_SUFFIXES.length; i++) {
+			final File sidecar = new File(dir, entry.file.getName()
+					+ SIDECAR_SUFFIXES[i]);
+			if (sidecar.exists() && !isRepository(sidecar))
+				files.add(sidecar);
+		}
+		return files;
+	}
+
+	/**
+	 * Packs a repository if it has too many loose objects.
+	 * 
+	 * @param repository
+	 * @return <code>false</code> if <code>git</code> is not available
+	 */
+	private boolean pack(File repository) {
+		// the objects are distributed evenly, thus a single fan-out
+		// directory is representative (as in git gc --auto)
+		final String[] objects = new File(getGitDir(repository), "objects/17") //$NON-NLS-1$
+				.list();
+		if (objects == null || objects.length <= (looseObjects + 255) / 256)
+			return true;
+		log(NLS.bind(TaskMessages.info_cacheGc, repository, Integer
+				.valueOf(objects.length * 256)));
+		final ProcessBuilder builder = new ProcessBuilder(new String[] {
+				"git", "-c", "gc.auto=" + looseObjects, "gc", "--auto", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+				"--quiet" }); //$NON-NLS-1$
+		builder.directory(repository);
+		builder.redirectErrorStream(true);
+		final Process process;
+		try {
+			process = builder.start();
+		} catch (final IOException e) {
+			log(NLS.bind(TaskMessages.error_gitOperationFailed, repository, e
+					.getMessage()), Project.MSG_VERBOSE);
+			return false;
+		}
+		try {
+			process.getOutputStream().close();
+			final BufferedReader reader = new BufferedReader(
+					new InputStreamReader(process.getInputStream()));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					log(line, Project.MSG_VERBOSE);
+				}
+			} finally {
+				reader.close();
+			}
+			if (process.waitFor() != 0)
+				log(NLS.bind(TaskMessages.error_gitOperationFailed, repository,
+						"gc"), Project.MSG_WARN); //$NON-NLS-1$
+		} catch (final IOException e) {
+			log(NLS.bind(TaskMessages.error_gitOperationFailed, repository, e
+					.getMessage()), Project.MSG_WARN);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes evicted repositories from the index of the cache. The index is
+	 * locked like the fetch scripts do if its lock file exists.
+	 * 
+	 * @param names
+	 *            the directory names of the repositories
+	 * @throws IOException
+	 */
+	private void removeIndexEntries(List<String> names) throws IOException {
+		final File index = new File(dir, REPOSITORY_INDEX);
+		if (!index.isFile())
+			return;
+		final File lockFile = new File(index.getPath() + LOCK_SUFFIX);
+		final RandomAccessFile lock = lockFile.exists() ? new RandomAccessFile(
+				lockFile, "rw") : null; //$NON-NLS-1$
+		try {
+			final FileLock fileLock = lock != null ? lock.getChannel().lock()
+					: null;
+			try {
+				final Properties properties = new Properties();
+				final InputStream in = new FileInputStream(index);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+				for (final String name : names) {
+					properties.remove(name);
+				}
+				final OutputStream out = new FileOutputStream(index);
+				try {
+					properties.store(out, null);
+				} finally {
+					out.close();
+				}
+			} finally {
+				if (fileLock != null)
+					fileLock.release();
+			}
+		} finally {
+			if (lock != null)
+				lock.close();
+		}
+	}
+
+	private void invalidate(File repository) {
+		if (closeRepositories)
+			LocalRepositories.invalidate(repository);
+	}
+
+	/**
+	 * Sets whether the repositories opened by the Git tasks of the build are
+	 * closed before they are deleted (defaults to <code>false</code>). Only
+	 * builds using the JGit engine must set it, closing them loads JGit.
+	 * 
+	 * @param closeRepositories
+	 */
+	public void setCloserepositories(boolean closeRepositories) {
+		this.closeRepositories = closeRepositories;
+	}
+
+	/**
+	 * Sets the directory of the fetch cache.
+	 * 
+	 * @param dir
+	 */
+	public void setDir(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Sets whether repositories with too many loose objects should be packed
+	 * (defaults to <code>true</code>).
+	 * 
+	 * @param gc
+	 */
+	public void setGc(boolean gc) {
+		this.gc = gc;
+	}
+
+	/**
+	 * Sets a comma separated list of repositories which must not be deleted
+	 * (e.g. the repositories used by the current fetch script).
+	 * 
+	 * @param keep
+	 */
+	public void setKeep(String keep) {
+		final String[] paths = keep.split(","); //$NON-NLS-1$
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i].trim().length() > 0)
+				this.keep.add(getProject().resolveFile(paths[i].trim()));
+		}
+	}
+
+	/**
+	 * Sets the number of loose objects a repository is packed at (defaults
+	 * to <code>6700</code>, the default of <code>gc.auto</code>).
+	 * 
+	 * @param looseObjects
+	 */
+	public void setLooseobjects(int looseObjects) {
+		this.looseObjects = looseObjects;
+	}
+
+	/**
+	 * Sets the maximum size of the cache in bytes; the units <code>k</code>,
+	 * <code>m</code> and <code>g</code> may be appended (defaults to no
+	 * limit).
+	 * 
+	 * @param maxSize
+	 */
+	public void setMaxsize(String maxSize) {
+		if (maxSize.trim().length() == 0) {
+			this.maxSize = -1;
+			return;
+		}
+		try {
+			this.maxSize = parseSize(maxSize);
+		} catch (final NumberFormatException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_invalidSize,
+					maxSize), getLocation());
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Checks out a tag, branch or commit into the working tree of a local
+ * repository (<code>egit.checkout</code>).
+ * <p>
+ * This is the equivalent of <code>git checkout --force</code>, i.e. local
+ * modifications are overwritten and <code>HEAD</code> is detached.
+ * </p>
+ * <p>
+ * If <code>paths</code> are specified, only these files and directories are
+ * written to the working tree (like a sparse checkout). The index then only
+ * contains their entries, i.e. everything else is removed from the working
+ * tree.
+ * </p>
+ * <p>
+ * If a <code>worktree</code> is specified, the commit is checked out into
+ * this directory instead of the working tree of the repository. The worktree
+ * has its own index, thus different tags can be checked out into different
+ * worktrees of the same repository without switching back and forth.
+ * </p>
+ */
+public class GitCheckoutTask extends GitTask {
+
+	private String name;
+
+	private String paths;
+
+	private File worktree;
+
+	@Override
+	protected void execute(File dir) throws IOException {
+		if (name == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "name"), getLocation()); //$NON-NLS-1$
+		log(NLS.bind(TaskMessages.info_checkout, worktree != null ? worktree
+				: dir, name));
+
+		final LocalRepositories repositories = LocalRepositories
+				.get(getProject());
+		final Repository repository = repositories.open(dir);
+		final RevWalk walk = new RevWalk(repository);
+		final RevCommit commit;
+		try {
+			commit = walk.parseCommit(resolveCommit(repository, name));
+		} finally {
+			walk.release();
+		}
+
+		final Repository target = worktree != null ? repositories.openWorktree(
+				dir, worktree) : repository;
+		final DirCache dirCache = target.lockDirCache();
+		try {
+			final DirCacheCheckout checkout = new DirCacheCheckout(target,
+					dirCache, getSparseTree(repository, commit.getTree()));
+			checkout.setFailOnConflict(false);
+			checkout.checkout();
+		} finally {
+			dirCache.unlock();
+		}
+		if (worktree != null)
+			return;
+
+		final RefUpdate update = repository.updateRef(Constants.HEAD, true);
+		update.setNewObjectId(commit);
+		update.forceUpdate();
+	}
+
+	/**
+	 * Returns the tree to check out, i.e. the tree of the commit restricted to
+	 * the specified paths.
+	 * 
+	 * @param repository
+	 * @param tree
+	 *            the tree of the commit
+	 * @return the id of the tree
+	 * @throws IOException
+	 */
+	private ObjectId getSparseTree(Repository repository, RevTree tree)
+			throws IOException {
+		final List<String> filter = new ArrayList<String>();
+		if (paths != null) {
+			for (final String path : paths.split(",")) { //$NON-NLS-1$
+				final String trimmed = path.trim().replaceAll("^/+|/+$", ""); //$NON-NLS-1$ //$NON-NLS-2$
+				if (trimmed.length() == 0)
+					// complete tree
+					return tree;
+				filter.add(trimmed);
+			}
+		}
+		if (filter.isEmpty())
+			return tree;
+
+		// the restricted tree is written to the object database (it only
+		// consists of the trees leading to the paths)
+		final DirCache sparse = DirCache.newInCore();
+		final DirCacheBuilder builder = sparse.builder();
+		final TreeWalk walk = new TreeWalk(repository);
+		try {
+			walk.addTree(tree);
+			walk.setRecursive(true);
+			walk.setFilter(PathFilterGroup.createFromStrings(filter));
+			while (walk.next()) {
+				final DirCacheEntry entry = new DirCacheEntry(walk
+						.getRawPath());
+				entry.setFileMode(walk.getFileMode(0));
+				entry.setObjectId(walk.getObjectId(0));
+				builder.add(entry);
+			}
+		} finally {
+			walk.release();
+		}
+		builder.finish();
+		final ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			final ObjectId id = sparse.writeTree(inserter);
+			inserter.flush();
+			return id;
+		} finally {
+			inserter.release();
+		}
+	}
+
+	/**
+	 * Sets the tag, branch or commit to check out.
+	 * 
+	 * @param name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Sets the files and directories to check out (separated by commas,
+	 * defaults to the complete tree).
+	 * 
+	 * @param paths
+	 */
+	public void setPaths(String paths) {
+		this.paths = paths;
+	}
+
+	/**
+	 * Sets the directory the commit is checked out into (defaults to the
+	 * working tree of the repository).
+	 * 
+	 * @param worktree
+	 */
+	public void setWorktree(File worktree) {
+		this.worktree = worktree;
+	}
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+
+import org.apache.tools.ant.BuildException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Clones a repository (<code>egit.clone</code>).
+ * <p>
+ * The remote repository is configured as <code>origin</code> and all branches
+ * and tags are fetched. Nothing is checked out, this is left to
+ * <code>egit.checkout</code>.
+ * </p>
+ * <p>
+ * A bare clone has no working tree and mirrors the branches of the remote
+ * repository; its content is meant to be read with <code>egit.export</code>.
+ * </p>
+ * <p>
+ * If a reference repository is specified, it's registered as alternate object
+ * database of the clone (like <code>git clone --reference</code>), i.e.
+ * objects available in the reference repository are not fetched again.
+ * </p>
+ * <p>
+ * If a bundle is specified, the branches and tags are fetched from the
+ * bundle instead of the remote repository (which is still configured as
+ * <code>origin</code>, i.e. later fetches use the network).
+ * </p>
+ */
+public class GitCloneTask extends GitTask {
+
+	private static final String OBJECTS = "objects"; //$NON-NLS-1$
+
+	private String uri;
+
+	private boolean bare;
+
+	private File reference;
+
+	private File bundle;
+
+	@Override
+	protected void execute(File dir) throws IOException {
+		if (uri == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "uri"), getLocation()); //$NON-NLS-1$
+		log(NLS.bind(TaskMessages.info_clone, dir, bundle != null ? bundle
+				: uri));
+
+		final Repository repository = LocalRepositories.get(getProject())
+				.create(dir, bare);
+		if (reference != null)
+			addAlternate(repository, reference);
+		final StoredConfig config = repository.getConfig();
+		try {
+			final RemoteConfig remote = new RemoteConfig(config,
+					Constants.DEFAULT_REMOTE_NAME);
+			remote.addURI(new URIish(uri));
+			remote.addFetchRefSpec(new RefSpec().setForceUpdate(true)
+					.setSourceDestination(
+							Constants.R_HEADS + "*", //$NON-NLS-1$
+							bare ? Constants.R_HEADS + "*" //$NON-NLS-1$
+									: Constants.R_REMOTES
+											+ Constants.DEFAULT_REMOTE_NAME
+											+ "/*")); //$NON-NLS-1$
+			remote.update(config);
+		} catch (final URISyntaxException e) {
+			throw new IOException(e.getMessage());
+		}
+		config.save();
+
+		if (bundle != null)
+			fetchBundle(repository, bundle);
+		else
+			fetch(repository);
+	}
+
+	private void addAlternate(Repository repository, File referenceRepository)
+			throws IOException {
+		// bare or non-bare reference repository
+		File objects = new File(referenceRepository, OBJECTS);
+		if (!objects.isDirectory())
+			objects = new File(new File(referenceRepository, Constants.DOT_GIT),
+					OBJECTS);
+		if (!objects.isDirectory())
+			return;
+
+		final File info = new File(new File(repository.getDirectory(),
+				OBJECTS), "info"); //$NON-NLS-1$
+		info.mkdirs();
+		final OutputStream out = new FileOutputStream(new File(info,
+				"alternates")); //$NON-NLS-1$
+		try {
+			out.write(Constants.encode(objects.getAbsolutePath() + "\n")); //$NON-NLS-1$
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Sets whether a bare repository should be created (defaults to
+	 * <code>false</code>).
+	 * 
+	 * @param bare
+	 */
+	public void setBare(boolean bare) {
+		this.bare = bare;
+	}
+
+	/**
+	 * Sets a bundle the branches and tags are fetched from instead of the
+	 * repository to clone.
+	 * 
+	 * @param bundle
+	 */
+	public void setBundle(File bundle) {
+		this.bundle = bundle;
+	}
+
+	/**
+	 * Sets a local repository whose objects are borrowed by the clone.
+	 * Nothing is borrowed if the repository doesn't exist.
+	 * 
+	 * @param reference
+	 */
+	public void setReference(File reference) {
+		this.reference = reference;
+	}
+
+	/**
+	 * Sets the location of the repository to clone.
+	 * 
+	 * @param uri
+	 */
+	public void setUri(String uri) {
+		this.uri = uri;
+	}
+}
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Exports a directory or a single file of a tag, branch or commit into a
+ * target directory (<code>egit.export</code>).
+ * <p>
+ * The content is streamed directly from the object database, i.e. the
+ * repository doesn't need a working tree and nothing is checked out. This is
+ * the equivalent of <code>git archive &lt;name&gt;:&lt;path&gt;</code>
+ * followed by extracting the archive.
+ * </p>
+ * <p>
+ * If an <code>idfile</code> is given, the id of the exported tree or blob is
+ * recorded in it. A later export is skipped if the id didn't change. If it
+ * changed, only the files which differ between both trees are written or
+ * deleted.
+ * </p>
+ * <p>
+ * A set of files can be exported at once using <code>includes</code>. The
+ * recorded id is then the id of the directory containing them.
+ * </p>
+ */
+public class GitExportTask extends GitTask {
+
+	private String name;
+
+	private String path;
+
+	private String file;
+
+	private String includes;
+
+	private File todir;
+
+	private File idFile;
+
+	private boolean failOnError = true;
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+
+	@Override
+	protected void execute(File dir) throws IOException {
+		if (name == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "name"), getLocation()); //$NON-NLS-1$
+		if (todir == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "todir"), getLocation()); //$NON-NLS-1$
+		final String treePath = path != null ? path : ""; //$NON-NLS-1$
+		final String filePath = file == null || treePath.length() == 0 ? file
+				: treePath + "/" + file; //$NON-NLS-1$
+		log(NLS.bind(TaskMessages.info_export, dir, name + ":" //$NON-NLS-1$
+				+ (filePath != null ? filePath : treePath)));
+
+		final Repository repository = LocalRepositories.get(getProject())
+				.open(dir);
+		final ObjectReader reader = repository.newObjectReader();
+		try {
+			final RevWalk walk = new RevWalk(reader);
+			final RevTree tree;
+			try {
+				tree = walk.parseCommit(resolveCommit(repository, name))
+						.getTree();
+			} finally {
+				walk.release();
+			}
+
+			final String recordedId = readIdFile();
+			if (file != null) {
+				// single file
+				final TreeWalk fileWalk = TreeWalk.forPath(reader, filePath,
+						tree);
+				if (fileWalk == null
+						|| (fileWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_TREE) {
+					pathNotFound(repository, filePath);
+					return;
+				}
+				final ObjectId blobId = fileWalk.getObjectId(0);
+				if (isUpToDate(blobId, recordedId))
+					return;
+				export(reader, blobId, fileWalk.getFileMode(0), new File(todir,
+						file));
+				writeIdFile(blobId);
+				return;
+			}
+
+			// complete directory
+			ObjectId treeId = tree;
+			if (treePath.length() > 0) {
+				final TreeWalk pathWalk = TreeWalk.forPath(reader, treePath,
+						tree);
+				if (pathWalk == null
+						|| (pathWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_TREE) {
+					pathNotFound(repository, treePath);
+					return;
+				}
+				treeId = pathWalk.getObjectId(0);
+			}
+			if (isUpToDate(treeId, recordedId))
+				return;
+
+			if (includes != null) {
+				// a set of files of the directory (missing files are ignored)
+				final String[] files = includes.split(","); //$NON-NLS-1$
+				for (int i = 0; i < files.length; i++) {
+					final String include = files[i].trim();
+					if (include.length() == 0)
+						continue;
+					final TreeWalk fileWalk = TreeWalk.forPath(reader, include,
+							treeId);
+					if (fileWalk == null
+							|| (fileWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_TREE
+							|| fileWalk.getFileMode(0) == FileMode.GITLINK) {
+						log(NLS.bind(TaskMessages.error_pathNotFound,
+								new Object[] { include, name,
+										repository.getDirectory() }),
+								Project.MSG_VERBOSE);
+						continue;
+					}
+					export(reader, fileWalk.getObjectId(0), fileWalk
+							.getFileMode(0), new File(todir, include));
+				}
+				writeIdFile(treeId);
+				return;
+			}
+
+			final TreeWalk treeWalk = new TreeWalk(reader);
+			if (recordedId != null && ObjectId.isId(recordedId)
+					&& reader.has(ObjectId.fromString(recordedId))) {
+				// only the differences to the recorded tree
+				treeWalk.addTree(ObjectId.fromString(recordedId));
+				treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			} else if (idFile != null) {
+				// the content of the directory is unknown
+				delete(todir);
+			}
+			treeWalk.addTree(treeId);
+			treeWalk.setRecursive(true);
+			final int last = treeWalk.getTreeCount() - 1;
+			while (treeWalk.next()) {
+				final FileMode mode = treeWalk.getFileMode(last);
+				final File target = new File(todir, treeWalk.getPathString());
+				if (mode == FileMode.MISSING) {
+					// removed from the recorded tree
+					if (treeWalk.getFileMode(0) != FileMode.GITLINK)
+						target.delete();
+					continue;
+				}
+				if (mode == FileMode.GITLINK)
+					continue;
+				export(reader, treeWalk.getObjectId(last), mode, target);
+			}
+			writeIdFile(treeId);
+		} finally {
+			reader.release();
+		}
+	}
+
+	private void export(ObjectReader reader, ObjectId blob, FileMode mode,
+			File target) throws IOException {
+		target.getParentFile().mkdirs();
+		final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(target));
+		try {
+			reader.open(blob).copyTo(out);
+		} finally {
+			out.close();
+		}
+		if (mode == FileMode.EXECUTABLE_FILE)
+			target.setExecutable(true);
+	}
+
+	private boolean isUpToDate(ObjectId id, String recordedId) {
+		if (!id.name().equals(recordedId))
+			return false;
+		log(NLS.bind(TaskMessages.info_exportUpToDate, todir, id.name()));
+		return true;
+	}
+
+	private void pathNotFound(Repository repository, String missingPath)
+			throws IOException {
+		final String message = NLS.bind(TaskMessages.error_pathNotFound,
+				new Object[] { missingPath, name, repository.getDirectory() });
+		if (failOnError)
+			throw new IOException(message);
+		log(message, Project.MSG_WARN);
+	}
+
+	private String readIdFile() throws IOException {
+		if (idFile == null || !idFile.isFile())
+			return null;
+		final BufferedReader reader = new BufferedReader(new FileReader(
+				idFile));
+		try {
+			final String id = reader.readLine();
+			return id != null ? id.trim() : null;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Sets whether the build should fail if the path doesn't exist (defaults
+	 * to <code>true</code>).
+	 * 
+	 * @param failOnError
+	 */
+	public void setFailOnError(boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+
+	/**
+	 * Sets a single file to export. The file is relative to
+	 * <code>path</code> and is written to <code>todir</code> using the same
+	 * relative name.
+	 * 
+	 * @param file
+	 */
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	/**
+	 * Sets the file recording the id of the exported tree or blob. The export
+	 * is skipped if the recorded id matches the current one.
+	 * 
+	 * @param idFile
+	 */
+	public void setIdfile(File idFile) {
+		this.idFile = idFile;
+	}
+
+	/**
+	 * Sets a comma separated list of files to export. The files are relative
+	 * to <code>path</code> and are written to <code>todir</code> using the
+	 * same relative names. Files which don't exist are ignored.
+	 * 
+	 * @param includes
+	 */
+	public void setIncludes(String includes) {
+		this.includes = includes;
+	}
+
+	/**
+	 * Sets the tag, branch or commit to export.
+	 * 
+	 * @param name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Sets the directory within the repository to export (defaults to the
+	 * repository root).
+	 * 
+	 * @param path
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Sets the directory the content is exported to.
+	 * 
+	 * @param todir
+	 */
+	public void setTodir(File todir) {
+		this.todir = todir;
+	}
+
+	private void writeIdFile(ObjectId id) throws IOException {
+		if (idFile == null)
+			return;
+		idFile.getAbsoluteFile().getParentFile().mkdirs();
+		final Writer writer = new FileWriter(idFile);
+		try {
+			writer.write(id.name());
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Fetches new commits into a previously cloned repository (
+ * <code>egit.fetch</code>).
+ * <p>
+ * If <code>refs</code> are specified, only these tags or branches are
+ * fetched. The fetch is skipped completely if all of them are tags which
+ * already exist in the local repository.
+ * </p>
+ * <p>
+ * The refs may also contain commit ids (e.g. pinned by a lock file). A
+ * commit which doesn't exist locally can only be fetched through the refs
+ * containing it, thus all branches and tags are fetched in that case.
+ * </p>
+ * <p>
+ * If a <code>snapshot</code> file is given, the branches and tags advertised
+ * by the remote repository are recorded in it after a fetch. A later fetch
+ * is skipped if the remote repository still advertises the same refs (and
+ * the same refs are requested).
+ * </p>
+ * <p>
+ * If a <code>bundle</code> is specified, all branches and tags of the bundle
+ * are fetched from it instead of the remote repository (<code>refs</code>
+ * and <code>snapshot</code> are ignored).
+ * </p>
+ */
+public class GitFetchTask extends GitTask {
+
+	private String refs;
+
+	private File snapshot;
+
+	private File bundle;
+
+	private String remoteState;
+
+	@Override
+	protected void execute(File dir) throws IOException {
+		final Repository repository = LocalRepositories.get(getProject())
+				.open(dir);
+		final String url = repository.getConfig().getString("remote", //$NON-NLS-1$
+				"origin", "url"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (bundle != null) {
+			log(NLS.bind(TaskMessages.info_fetch, dir, bundle));
+			fetchBundle(repository, bundle);
+			return;
+		}
+		if (refs == null || refs.trim().length() == 0) {
+			if (isRemoteUnchanged(repository, dir))
+				return;
+			log(NLS.bind(TaskMessages.info_fetch, dir, url));
+			fetch(repository);
+			writeSnapshot();
+			return;
+		}
+
+		final List<String> names = new ArrayList<String>();
+		boolean resolved = true;
+		boolean missingCommit = false;
+		for (final String name : refs.trim().split("\\s+")) { //$NON-NLS-1$
+			if (ObjectId.isId(name)) {
+				// commits never change
+				if (!repository.getObjectDatabase().has(
+						ObjectId.fromString(name)))
+					missingCommit = true;
+				continue;
+			}
+			names.add(name);
+			// tags are not expected to move, branches always need a fetch
+			if (repository.resolve(Constants.R_TAGS + name + "^{commit}") == null) //$NON-NLS-1$
+				resolved = false;
+		}
+		if (resolved && !missingCommit) {
+			log(NLS.bind(TaskMessages.info_fetchSkipped, dir, refs.trim()));
+			return;
+		}
+		if (isRemoteUnchanged(repository, dir))
+			return;
+		log(NLS.bind(TaskMessages.info_fetch, dir, url + " " + refs.trim())); //$NON-NLS-1$
+		if (missingCommit)
+			fetch(repository);
+		else
+			fetch(repository, names);
+		writeSnapshot();
+	}
+
+	/**
+	 * Computes the state of the remote repository, i.e. the requested refs
+	 * followed by the ids and names of all advertised branches and tags.
+	 * 
+	 * @param repository
+	 * @return the state
+	 * @throws IOException
+	 */
+	private String getRemoteState(Repository repository) throws IOException {
+		final Map<String, Ref> sorted = new TreeMap<String, Ref>(
+				getAdvertisedRefs(repository));
+		final StringBuilder state = new StringBuilder();
+		state.append(refs != null ? refs.trim() : ""); //$NON-NLS-1$
+		for (final Ref ref : sorted.values()) {
+			if (ref.getObjectId() == null
+					|| !(ref.getName().startsWith(Constants.R_HEADS) || ref
+							.getName().startsWith(Constants.R_TAGS)))
+				continue;
+			state.append('\n').append(ref.getObjectId().name()).append(' ')
+					.append(ref.getName());
+		}
+		return state.toString().trim();
+	}
+
+	private boolean isRemoteUnchanged(Repository repository, File dir)
+			throws IOException {
+		if (snapshot == null)
+			return false;
+		remoteState = getRemoteState(repository);
+		if (!remoteState.equals(readSnapshot()))
+			return false;
+		log(NLS.bind(TaskMessages.info_fetchUnchanged, dir));
+		return true;
+	}
+
+	private String readSnapshot() throws IOException {
+		if (!snapshot.isFile())
+			return null;
+		final BufferedReader reader = new BufferedReader(new FileReader(
+				snapshot));
+		try {
+			final StringBuilder content = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (content.length() > 0)
+					content.append('\n');
+				content.append(line);
+			}
+			return content.toString().trim();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Sets a bundle to fetch from instead of the remote repository.
+	 * 
+	 * @param bundle
+	 */
+	public void setBundle(File bundle) {
+		this.bundle = bundle;
+	}
+
+	/**
+	 * Sets the tags or branches to fetch (separated by spaces).
+	 * 
+	 * @param refs
+	 */
+	public void setRefs(String refs) {
+		this.refs = refs;
+	}
+
+	/**
+	 * Sets the file recording the refs advertised by the remote repository.
+	 * The fetch is skipped if they didn't change since the last fetch.
+	 * 
+	 * @param snapshot
+	 */
+	public void setSnapshot(File snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	private void writeSnapshot() throws IOException {
+		if (snapshot == null)
+			return;
+		snapshot.getAbsoluteFile().getParentFile().mkdirs();
+		final Writer writer = new FileWriter(snapshot);
+		try {
+			writer.write(remoteState);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Resolves the id of the tree or blob at a path of a tag, branch or commit
+ * and stores it in a property (<code>egit.resolve</code>).
+ * <p>
+ * This is the equivalent of
+ * <code>git rev-parse &lt;name&gt;:&lt;path&gt;</code>. If <code>commit</code>
+ * is set, the id of the commit is stored instead (
+ * <code>git rev-parse &lt;name&gt;^{commit}</code>).
+ * </p>
+ */
+public class GitResolveTask extends GitTask {
+
+	private String name;
+
+	private String path;
+
+	private String property;
+
+	private boolean commit;
+
+	private boolean failOnError = true;
+
+	@Override
+	protected void execute(File dir) throws IOException {
+		if (name == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "name"), getLocation()); //$NON-NLS-1$
+		if (property == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "property"), getLocation()); //$NON-NLS-1$
+
+		final Repository repository = LocalRepositories.get(getProject())
+				.open(dir);
+		try {
+			final ObjectId id = commit ? resolveCommit(repository, name)
+					: resolvePath(repository, name, path);
+			getProject().setNewProperty(property, id.name());
+		} catch (final IOException e) {
+			if (failOnError)
+				throw e;
+			log(e.getMessage(), Project.MSG_VERBOSE);
+		}
+	}
+
+	/**
+	 * Sets whether the id of the commit should be resolved instead of the id
+	 * of the tree or blob at <code>path</code> (defaults to
+	 * <code>false</code>).
+	 * 
+	 * @param commit
+	 */
+	public void setCommit(boolean commit) {
+		this.commit = commit;
+	}
+
+	/**
+	 * Sets whether the build should fail if the name or path cannot be
+	 * resolved (defaults to <code>true</code>). The property is not set
+	 * otherwise.
+	 * 
+	 * @param failOnError
+	 */
+	public void setFailOnError(boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+
+	/**
+	 * Sets the tag, branch or commit.
+	 * 
+	 * @param name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Sets the path within the repository (defaults to the repository root).
+	 * 
+	 * @param path
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Sets the property the id is stored in.
+	 * 
+	 * @param property
+	 */
+	public void setProperty(String property) {
+		this.property = property;
+	}
+}
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Base class for Ant tasks executing Git operations in a local repository
+ * using JGit, i.e. within the VM running the build.
+ */
+public abstract class GitTask extends Task {
+
+	private File dir;
+
+	/**
+	 * Executes the Git operation.
+	 * 
+	 * @param dir
+	 *            the local repository path
+	 * @throws IOException
+	 */
+	protected abstract void execute(File dir) throws IOException;
+
+	@Override
+	public void execute() throws BuildException {
+		if (dir == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "dir"), getLocation()); //$NON-NLS-1$
+		try {
+			execute(dir);
+		} catch (final IOException e) {
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_gitOperationFailed, dir, e.getMessage()),
+					e, getLocation());
+		}
+	}
+
+	/**
+	 * Fetches new objects and refs from the <code>origin</code> remote of the
+	 * specified repository.
+	 * 
+	 * @param repository
+	 * @return the fetch result
+	 * @throws IOException
+	 */
+	protected FetchResult fetch(Repository repository) throws IOException {
+		return fetch(repository, null);
+	}
+
+	/**
+	 * Fetches all branches and tags contained in a bundle (created by
+	 * <code>git bundle</code>) into the specified repository. The branches are
+	 * stored according to the fetch specs of the <code>origin</code> remote,
+	 * i.e. as if they had been fetched from the remote repository.
+	 * 
+	 * @param repository
+	 * @param bundle
+	 *            the bundle file
+	 * @return the fetch result
+	 * @throws IOException
+	 */
+	protected FetchResult fetchBundle(Repository repository, File bundle)
+			throws IOException {
+		final RemoteConfig remote;
+		final Transport transport;
+		try {
+			remote = new RemoteConfig(repository.getConfig(),
+					Constants.DEFAULT_REMOTE_NAME);
+			transport = Transport.open(repository, new URIish(bundle
+					.getAbsolutePath()));
+		} catch (final URISyntaxException e) {
+			throw new IOException(e.getMessage());
+		}
+		try {
+			final List<RefSpec> specs = new ArrayList<RefSpec>(remote
+					.getFetchRefSpecs());
+			specs.add(new RefSpec().setForceUpdate(true).setSourceDestination(
+					Constants.R_TAGS + "*", Constants.R_TAGS + "*")); //$NON-NLS-1$ //$NON-NLS-2$
+			transport.setTagOpt(TagOpt.NO_TAGS);
+			return transport.fetch(NullProgressMonitor.INSTANCE, specs);
+		} finally {
+			transport.close();
+		}
+	}
+
+	/**
+	 * Fetches the specified tags or branches from the <code>origin</code>
+	 * remote of the specified repository. Tags are fetched into
+	 * <code>refs/tags</code>, branches according to the fetch specs of the
+	 * remote. Other tags are only fetched if they point into the fetched
+	 * history.
+	 * 
+	 * @param repository
+	 * @param names
+	 *            the short names of the tags or branches to fetch (everything
+	 *            is fetched if <code>null</code>)
+	 * @return the fetch result
+	 * @throws IOException
+	 */
+	protected FetchResult fetch(Repository repository, Collection<String> names)
+			throws IOException {
+		final RemoteConfig remote;
+		try {
+			remote = new RemoteConfig(repository.getConfig(),
+					Constants.DEFAULT_REMOTE_NAME);
+		} catch (final URISyntaxException e) {
+			throw new IOException(e.getMessage());
+		}
+		final Transport transport = Transport.open(repository, remote);
+		try {
+			if (names == null) {
+				transport.setTagOpt(TagOpt.FETCH_TAGS);
+				return transport.fetch(NullProgressMonitor.INSTANCE, null);
+			}
+
+			// map the names to the refs advertised by the remote
+			final Map<String, Ref> advertised = getAdvertisedRefs(transport);
+			final List<RefSpec> specs = new ArrayList<RefSpec>(names.size());
+			for (final String name : names) {
+				final String tag = Constants.R_TAGS + name;
+				if (advertised.containsKey(tag)) {
+					specs.add(new RefSpec().setForceUpdate(true)
+							.setSourceDestination(tag, tag));
+					continue;
+				}
+				final String branch = Constants.R_HEADS + name;
+				if (!advertised.containsKey(branch))
+					throw new IOException(NLS.bind(
+							TaskMessages.error_refNotFound, name, remote
+									.getURIs()));
+				for (final RefSpec spec : remote.getFetchRefSpecs()) {
+					if (spec.matchSource(branch)) {
+						specs.add(spec.expandFromSource(branch));
+						break;
+					}
+				}
+			}
+			transport.setTagOpt(TagOpt.AUTO_FOLLOW);
+			return transport.fetch(NullProgressMonitor.INSTANCE, specs);
+		} finally {
+			transport.close();
+		}
+	}
+
+	/**
+	 * Returns the refs advertised by the <code>origin</code> remote of the
+	 * specified repository without fetching anything (the equivalent of
+	 * <code>git ls-remote origin</code>).
+	 * 
+	 * @param repository
+	 * @return the refs by name
+	 * @throws IOException
+	 */
+	protected Map<String, Ref> getAdvertisedRefs(Repository repository)
+			throws IOException {
+		final RemoteConfig remote;
+		try {
+			remote = new RemoteConfig(repository.getConfig(),
+					Constants.DEFAULT_REMOTE_NAME);
+		} catch (final URISyntaxException e) {
+			throw new IOException(e.getMessage());
+		}
+		final Transport transport = Transport.open(repository, remote);
+		try {
+			return getAdvertisedRefs(transport);
+		} finally {
+			transport.close();
+		}
+	}
+
+	private Map<String, Ref> getAdvertisedRefs(Transport transport)
+			throws IOException {
+		final FetchConnection connection = transport.openFetch();
+		try {
+			return connection.getRefsMap();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Resolves a tag, branch or commit id to a commit. Branches which do not
+	 * exist locally are looked up in the remote tracking branches of
+	 * <code>origin</code>.
+	 * 
+	 * @param repository
+	 * @param name
+	 * @return the commit id
+	 * @throws IOException
+	 *             if the name cannot be resolved
+	 */
+	protected ObjectId resolveCommit(Repository repository, String name)
+			throws IOException {
+		ObjectId id = repository.resolve(name + "^{commit}"); //$NON-NLS-1$
+		if (id == null)
+			id = repository.resolve(Constants.R_REMOTES
+					+ Constants.DEFAULT_REMOTE_NAME + "/" + name + "^{commit}"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (id == null)
+			throw new IOException(NLS.bind(TaskMessages.error_refNotFound,
+					name, repository.getDirectory()));
+		return id;
+	}
+
+	/**
+	 * Resolves a path within a tag, branch or commit to the id of the tree or
+	 * blob at that path.
+	 * 
+	 * @param repository
+	 * @param name
+	 *            the tag, branch or commit
+	 * @param path
+	 *            the path (the root tree is returned if <code>null</code> or
+	 *            empty)
+	 * @return the tree or blob id
+	 * @throws IOException
+	 *             if the name or path cannot be resolved
+	 */
+	protected ObjectId resolvePath(Repository repository, String name,
+			String path) throws IOException {
+		final ObjectReader reader = repository.newObjectReader();
+		try {
+			final RevWalk walk = new RevWalk(reader);
+			final ObjectId tree;
+			try {
+				tree = walk.parseCommit(resolveCommit(repository, name))
+						.getTree().copy();
+			} finally {
+				walk.release();
+			}
+			if (path == null || path.length() == 0)
+				return tree;
+			final TreeWalk pathWalk = TreeWalk.forPath(reader, path, tree);
+			if (pathWalk == null)
+				throw new IOException(NLS.bind(TaskMessages.error_pathNotFound,
+						new Object[] { path, name, repository.getDirectory() }));
+			return pathWalk.getObjectId(0);
+		} finally {
+			reader.release();
+		}
+	}
+
+	/**
+	 * Sets the local repository path.
+	 * 
+	 * @param dir
+	 */
+	public void setDir(File dir) {
+		this.dir = dir;
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+
+/**
+ * Executes the nested tasks only if a property is set or not set (
+ * <code>egit.if</code>).
+ * <p>
+ * The attributes mean the same as the attributes of a target: the tasks are
+ * executed if the property named by <code>if</code> is set and the property
+ * named by <code>unless</code> is not set. The fetch scripts use the task for
+ * the conditions of their macros.
+ * </p>
+ */
+public class IfTask extends Task implements TaskContainer {
+
+	private String ifProperty;
+
+	private String unlessProperty;
+
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	public void addTask(Task task) {
+		tasks.add(task);
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		final Project project = getProject();
+		if (ifProperty != null && project.getProperty(ifProperty) == null)
+			return;
+		if (unlessProperty != null
+				&& project.getProperty(unlessProperty) != null)
+			return;
+		for (final Task task : tasks) {
+			task.perform();
+		}
+	}
+
+	/**
+	 * Sets the property which must be set.
+	 * 
+	 * @param property
+	 */
+	public void setIf(String property) {
+		ifProperty = property;
+	}
+
+	/**
+	 * Sets the property which must not be set.
+	 * 
+	 * @param property
+	 */
+	public void setUnless(String property) {
+		unlessProperty = property;
+	}
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Keeps the local repositories used by the Git tasks open.
+ * <p>
+ * A fetch script invokes the Git tasks for every element. Opening a
+ * repository reads its configuration, refs and pack indexes which is wasteful
+ * when done over and over again. Thus, a repository is opened only once and
+ * then shared by all tasks of a project.
+ * </p>
+ * <p>
+ * The repositories are scoped to the project they are first used in: the
+ * scope is a build listener of the project and closes its repositories when
+ * the project (or the whole build) finished. Child projects of
+ * <code>antcall</code>s and <code>ant</code> calls inherit the listeners of
+ * their parent and thus share its repositories (see {@link RepositoriesTask}
+ * for opening the scope before the first <code>antcall</code>). A
+ * repository deleted by the fetch cache or created again by a clone is
+ * closed and dropped from all scopes (see {@link #invalidate(File)}).
+ * </p>
+ */
+final class LocalRepositories implements SubBuildListener {
+
+	// the scopes not closed yet (used to invalidate repositories)
+	private static final Set<LocalRepositories> scopes = new HashSet<LocalRepositories>();
+
+	private static FileRepositoryBuilder builder(File key, boolean bare) {
+		if (bare)
+			return new FileRepositoryBuilder().setGitDir(key).setBare();
+		return new FileRepositoryBuilder().setWorkTree(key).setGitDir(
+				new File(key, Constants.DOT_GIT));
+	}
+
+	/**
+	 * Returns the repositories of a project, opening a new scope if neither
+	 * the project nor one of its parents did.
+	 * 
+	 * @param project
+	 * @return the repositories
+	 */
+	static LocalRepositories get(Project project) {
+		synchronized (scopes) {
+			for (final Object listener : project.getBuildListeners()) {
+				if (listener instanceof LocalRepositories
+						&& scopes.contains(listener))
+					return (LocalRepositories) listener;
+			}
+			final LocalRepositories repositories = new LocalRepositories(
+					project);
+			scopes.add(repositories);
+			project.addBuildListener(repositories);
+			return repositories;
+		}
+	}
+
+	/**
+	 * Closes and drops a repository and its worktrees from all scopes. Must be
+	 * called before a repository is deleted or created again.
+	 * 
+	 * @param dir
+	 *            the local repository path
+	 */
+	static void invalidate(File dir) {
+		final String path = dir.getAbsolutePath();
+		synchronized (scopes) {
+			for (final LocalRepositories repositories : scopes) {
+				repositories.close(path);
+			}
+		}
+	}
+
+	private final Project owner;
+
+	private final Map<File, Repository> repositories = new HashMap<File, Repository>();
+
+	private LocalRepositories(Project owner) {
+		this.owner = owner;
+	}
+
+	public void buildFinished(BuildEvent event) {
+		// only fired for the top-level project
+		close();
+	}
+
+	public void buildStarted(BuildEvent event) {
+		// empty
+	}
+
+	/**
+	 * Closes all repositories and the scope itself.
+	 */
+	private void close() {
+		synchronized (scopes) {
+			if (!scopes.remove(this))
+				return;
+			close(null);
+		}
+		owner.removeBuildListener(this);
+	}
+
+	/**
+	 * Closes and drops the repositories (including the worktrees) whose Git
+	 * directory is at or within the specified path.
+	 * 
+	 * @param path
+	 *            the absolute path (<code>null</code> for all repositories)
+	 */
+	private synchronized void close(String path) {
+		for (final Iterator<Map.Entry<File, Repository>> i = repositories
+				.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry<File, Repository> entry = i.next();
+			final String gitDir = entry.getValue().getDirectory().getPath();
+			if (path == null || gitDir.equals(path)
+					|| gitDir.startsWith(path + File.separatorChar)) {
+				entry.getValue().close();
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Creates a new repository. A repository previously opened at the same
+	 * path is closed.
+	 * 
+	 * @param dir
+	 *            the local repository path
+	 * @param bare
+	 *            <code>true</code> if the repository should not have a
+	 *            working tree (i.e. <code>dir</code> is the Git directory)
+	 * @return the repository
+	 * @throws IOException
+	 */
+	Repository create(File dir, boolean bare) throws IOException {
+		invalidate(dir);
+		final File key = dir.getAbsoluteFile();
+		final Repository repository = builder(key, bare).build();
+		repository.create(bare);
+		synchronized (this) {
+			repositories.put(key, repository);
+		}
+		return repository;
+	}
+
+	public void messageLogged(BuildEvent event) {
+		// empty
+	}
+
+	/**
+	 * Returns an existing repository. A repository without a
+	 * <code>.git</code> directory is opened as bare repository.
+	 * 
+	 * @param dir
+	 *            the local repository path
+	 * @return the repository
+	 * @throws IOException
+	 *             if the repository does not exist or cannot be opened
+	 */
+	synchronized Repository open(File dir) throws IOException {
+		final File key = dir.getAbsoluteFile();
+		Repository repository = repositories.get(key);
+		if (repository == null) {
+			repository = builder(key,
+					!new File(key, Constants.DOT_GIT).exists()).setMustExist(
+					true).build();
+			repositories.put(key, repository);
+		}
+		return repository;
+	}
+
+	/**
+	 * Returns a worktree of an existing repository. The worktree shares the
+	 * Git directory (objects, refs and configuration) with the repository but
+	 * has its own index (<code>&lt;worktree&gt;.index</code>).
+	 * <code>HEAD</code> belongs to the repository and must not be updated for
+	 * a worktree.
+	 * 
+	 * @param dir
+	 *            the local repository path (must have a working tree)
+	 * @param worktree
+	 *            the worktree path
+	 * @return the repository representing the worktree
+	 * @throws IOException
+	 *             if the repository does not exist or cannot be opened
+	 */
+	synchronized Repository openWorktree(File dir, File worktree)
+			throws IOException {
+		final File key = worktree.getAbsoluteFile();
+		Repository repository = repositories.get(key);
+		if (repository == null) {
+			key.mkdirs();
+			repository = new FileRepositoryBuilder().setGitDir(
+					new File(dir.getAbsoluteFile(), Constants.DOT_GIT))
+					.setWorkTree(key).setIndexFile(
+							new File(key.getPath() + ".index")) //$NON-NLS-1$
+					.setMustExist(true).build();
+			repositories.put(key, repository);
+		}
+		return repository;
+	}
+
+	public void subBuildFinished(BuildEvent event) {
+		if (event.getProject() == owner)
+			close();
+	}
+
+	public void subBuildStarted(BuildEvent event) {
+		// empty
+	}
+
+	public void targetFinished(BuildEvent event) {
+		// empty
+	}
+
+	public void targetStarted(BuildEvent event) {
+		// empty
+	}
+
+	public void taskFinished(BuildEvent event) {
+		// empty
+	}
+
+	public void taskStarted(BuildEvent event) {
+		// empty
+	}
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Executes the nested tasks while holding a lock on a file (
+ * <code>egit.lock</code>).
+ * <p>
+ * The lock is shared between processes (using a file system lock) and between
+ * the threads of the build VM (e.g. <code>parallel</code> blocks). A shared
+ * lock may be held by any number of readers at the same time while an
+ * exclusive lock is only granted to a single writer.
+ * </p>
+ */
+public class LockTask extends Task implements TaskContainer {
+
+	/**
+	 * The state of a lock file within the build VM. File system locks are
+	 * held per VM, i.e. the threads holding a shared lock also share the file
+	 * system lock.
+	 */
+	private static class LockState {
+
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+
+		int readers;
+
+		RandomAccessFile file;
+
+		FileLock fileLock;
+
+		synchronized void acquireFileLock(File lockFile, boolean shared)
+				throws IOException {
+			if (shared && readers++ > 0)
+				return;
+			lockFile.getAbsoluteFile().getParentFile().mkdirs();
+			file = new RandomAccessFile(lockFile, "rw"); //$NON-NLS-1$
+			try {
+				fileLock = file.getChannel().lock(0, Long.MAX_VALUE, shared);
+			} catch (final IOException e) {
+				file.close();
+				file = null;
+				if (shared)
+					readers--;
+				throw e;
+			}
+		}
+
+		synchronized void releaseFileLock(boolean shared) throws IOException {
+			if (shared && --readers > 0)
+				return;
+			try {
+				fileLock.release();
+			} finally {
+				file.close();
+				fileLock = null;
+				file = null;
+			}
+		}
+	}
+
+	private static final Map<File, LockState> locks = new HashMap<File, LockState>();
+
+	private static synchronized LockState getLockState(File lockFile) {
+		final File key = lockFile.getAbsoluteFile();
+		LockState state = locks.get(key);
+		if (state == null) {
+			state = new LockState();
+			locks.put(key, state);
+		}
+		return state;
+	}
+
+	private File file;
+
+	private boolean shared;
+
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	public void addTask(Task task) {
+		tasks.add(task);
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (file == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "file"), getLocation()); //$NON-NLS-1$
+
+		final LockState state = getLockState(file);
+		final Lock vmLock = shared ? state.lock.readLock() : state.lock
+				.writeLock();
+		log(NLS.bind(shared ? TaskMessages.info_lockShared
+				: TaskMessages.info_lockExclusive, file), Project.MSG_VERBOSE);
+		vmLock.lock();
+		try {
+			try {
+				state.acquireFileLock(file, shared);
+			} catch (final IOException e) {
+				throw new BuildException(NLS.bind(
+						TaskMessages.error_lockFailed, file, e.getMessage()),
+						e, getLocation());
+			}
+			try {
+				for (final Task task : tasks) {
+					task.perform();
+				}
+			} finally {
+				try {
+					state.releaseFileLock(shared);
+				} catch (final IOException e) {
+					log(NLS.bind(TaskMessages.error_lockFailed, file, e
+							.getMessage()), Project.MSG_WARN);
+				}
+			}
+		} finally {
+			vmLock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the lock file. It is created if it doesn't exist.
+	 * 
+	 * @param file
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Sets whether a shared lock should be acquired (defaults to
+	 * <code>false</code>, i.e. an exclusive lock).
+	 * 
+	 * @param shared
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+}
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Executes the nested tasks and appends their wall time and transfer
+ * volume to a report (<code>egit.report</code>).
+ * <p>
+ * The report is a CSV file with one line per execution:
+ * <code>kind,name,millis,receivedBytes,receivedObjects,copiedFiles,copiedBytes,status</code>.
+ * The received bytes and objects are the growth of the object database of
+ * the <code>repository</code> (packs and loose objects, i.e. what has been
+ * fetched and stored), the copied files and bytes the growth of the
+ * <code>destination</code> (a directory or a single file). The status is
+ * <code>ok</code> or <code>failed</code>.
+ * </p>
+ * <p>
+ * A report is started over once per build VM, i.e. it covers all fetch
+ * scripts of a build. Tasks running in parallel may append to the same
+ * report.
+ * </p>
+ */
+public class ReportTask extends Task implements TaskContainer {
+
+	private static final String HEADER = "kind,name,millis,receivedBytes,receivedObjects,copiedFiles,copiedBytes,status"; //$NON-NLS-1$
+
+	private static final Set<File> started = new HashSet<File>();
+
+	private File file;
+
+	private String kind;
+
+	private String name;
+
+	private File repository;
+
+	private File destination;
+
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	/**
+	 * Appends a line to a report, starting the report over if this is its
+	 * first line within the build VM.
+	 * 
+	 * @param report
+	 * @param line
+	 * @throws IOException
+	 */
+	private static void append(File report, String line) throws IOException {
+		synchronized (started) {
+			final boolean first = started.add(report.getAbsoluteFile());
+			report.getAbsoluteFile().getParentFile().mkdirs();
+			final Writer writer = new FileWriter(report, !first);
+			try {
+				if (first)
+					writer.write(HEADER + "\n"); //$NON-NLS-1$
+				writer.write(line + "\n"); //$NON-NLS-1$
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Counts the files below a directory and sums up their sizes.
+	 * 
+	 * @param file
+	 *            a directory or file (may not exist)
+	 * @param counts
+	 *            the number of files and bytes to add to
+	 * @throws IOException
+	 */
+	private static void count(File file, long[] counts) throws IOException {
+		if (!file.isDirectory()) {
+			if (file.isFile()) {
+				counts[0]++;
+				counts[1] += file.length();
+			}
+			return;
+		}
+		if (CacheTask.isSymbolicLink(file))
+			return;
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				count(children[i], counts);
+			}
+		}
+	}
+
+	/**
+	 * Counts the objects of a repository and sums up the size of its object
+	 * database. Packed objects are counted using the fan-out table of the
+	 * pack index.
+	 * 
+	 * @param dir
+	 *            the repository (may not exist)
+	 * @return the number of objects and bytes
+	 * @throws IOException
+	 */
+	private static long[] countObjects(File dir) throws IOException {
+		final long[] counts = new long[2];
+		final File objects = new File(CacheTask.getGitDir(dir), "objects"); //$NON-NLS-1$
+		if (!objects.isDirectory())
+			return counts;
+		counts[1] = CacheTask.sizeOf(objects);
+		final File[] children = objects.listFiles();
+		if (children == null)
+			return counts;
+		for (int i = 0; i < children.length; i++) {
+			final String childName = children[i].getName();
+			if (childName.length() == 2) {
+				final String[] loose = children[i].list();
+				if (loose != null)
+					counts[0] += loose.length;
+			}
+		}
+		final File[] packs = new File(objects, "pack").listFiles(); //$NON-NLS-1$
+		if (packs == null)
+			return counts;
+		for (int i = 0; i < packs.length; i++) {
+			if (packs[i].getName().endsWith(".idx")) //$NON-NLS-1$
+				counts[0] += countPackedObjects(packs[i]);
+		}
+		return counts;
+	}
+
+	private static long countPackedObjects(File index) throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(index, "r"); //$NON-NLS-1$
+		try {
+			// version 2 starts with a header, version 1 with the fan-out
+			// table whose last entry is the number of objects
+			final int header = in.readInt();
+			in.seek((header == 0xff744f63 ? 8 : 0) + 255 * 4);
+			return in.readInt() & 0xffffffffL;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String escape(String value) {
+		if (value == null)
+			return ""; //$NON-NLS-1$
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+			return value;
+		return '"' + value.replace("\"", "\"\"") + '"'; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void addTask(Task task) {
+		tasks.add(task);
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (file == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "file"), getLocation()); //$NON-NLS-1$
+
+		long[] objectsBefore = null;
+		final long[] filesBefore = new long[2];
+		try {
+			if (repository != null)
+				objectsBefore = countObjects(repository);
+			if (destination != null)
+				count(destination, filesBefore);
+		} catch (final IOException e) {
+			log(NLS.bind(TaskMessages.error_reportFailed, file, e
+					.getMessage()), Project.MSG_WARN);
+		}
+
+		final long start = System.currentTimeMillis();
+		boolean failed = true;
+		try {
+			for (final Task task : tasks) {
+				task.perform();
+			}
+			failed = false;
+		} finally {
+			final long millis = System.currentTimeMillis() - start;
+			try {
+				final StringBuilder line = new StringBuilder();
+				line.append(escape(kind)).append(',').append(escape(name))
+						.append(',').append(millis).append(',');
+				if (objectsBefore != null) {
+					final long[] objectsAfter = countObjects(repository);
+					line.append(objectsAfter[1] - objectsBefore[1]).append(
+							',').append(objectsAfter[0] - objectsBefore[0]);
+				} else {
+					line.append(',');
+				}
+				line.append(',');
+				if (destination != null) {
+					final long[] filesAfter = new long[2];
+					count(destination, filesAfter);
+					line.append(filesAfter[0] - filesBefore[0]).append(',')
+							.append(filesAfter[1] - filesBefore[1]);
+				} else {
+					line.append(',');
+				}
+				line.append(',').append(failed ? "failed" : "ok"); //$NON-NLS-1$ //$NON-NLS-2$
+				append(file, line.toString());
+			} catch (final IOException e) {
+				log(NLS.bind(TaskMessages.error_reportFailed, file, e
+						.getMessage()), Project.MSG_WARN);
+			}
+		}
+	}
+
+	/**
+	 * Sets the directory or file the nested tasks copy to.
+	 * 
+	 * @param destination
+	 */
+	public void setDestination(File destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Sets the report file.
+	 * 
+	 * @param file
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Sets the kind of work measured (e.g. <code>repository</code> or
+	 * <code>element</code>).
+	 * 
+	 * @param kind
+	 */
+	public void setKind(String kind) {
+		this.kind = kind;
+	}
+
+	/**
+	 * Sets the name of the measured repository or element.
+	 * 
+	 * @param name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Sets the local repository the nested tasks fetch into.
+	 * 
+	 * @param repository
+	 */
+	public void setRepository(File repository) {
+		this.repository = repository;
+	}
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+/**
+ * Keeps the local repositories opened by the Git tasks of the current project
+ * open until the project finished (<code>egit.repositories</code>).
+ * <p>
+ * A Git task opens the repositories in the scope of its own project. PDE
+ * Build calls the sections of a fetch script using <code>antcall</code>,
+ * i.e. every element would open the repositories again. Thus, the fetch scripts execute
+ * this task at project level which opens the scope before the first
+ * <code>antcall</code>; the child projects share it (see
+ * {@link LocalRepositories}).
+ * </p>
+ */
+public class RepositoriesTask extends Task {
+
+	@Override
+	public void execute() throws BuildException {
+		LocalRepositories.get(getProject());
+	}
+}
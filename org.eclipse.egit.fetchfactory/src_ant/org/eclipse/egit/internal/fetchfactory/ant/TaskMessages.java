@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.ant;
+
+import org.eclipse.osgi.util.NLS;
+
+public class TaskMessages extends NLS {
+	private static final String BUNDLE_NAME = "org.eclipse.egit.internal.fetchfactory.ant.messages";//$NON-NLS-1$
+
+	public static String error_cacheFailed;
+
+	public static String error_gitOperationFailed;
+
+	public static String error_invalidSize;
+
+	public static String error_lockFailed;
+
+	public static String error_missingAttribute;
+
+	public static String error_pathNotFound;
+
+	public static String error_refNotFound;
+
+	public static String error_reportFailed;
+
+	public static String info_cacheEvict;
+
+	public static String info_cacheFull;
+
+	public static String info_cacheGc;
+
+	public static String info_cacheInUse;
+
+	public static String info_cacheSize;
+
+	public static String info_checkout;
+
+	public static String info_clone;
+
+	public static String info_export;
+
+	public static String info_exportUpToDate;
+
+	public static String info_fetch;
+
+	public static String info_fetchSkipped;
+
+	public static String info_fetchUnchanged;
+
+	public static String info_lockExclusive;
+
+	public static String info_lockShared;
+
+	static {
+		// load message values from bundle file
+		NLS.initializeMessages(BUNDLE_NAME, TaskMessages.class);
+	}
+}